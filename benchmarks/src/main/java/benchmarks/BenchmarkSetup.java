@@ -0,0 +1,30 @@
+package benchmarks;
+
+import music.MusicManager;
+import resource.ImageResource;
+import resource.KeyboardLayout;
+import resource.MusicResource;
+
+/**
+ * Initializes the resources and systems of the program once per benchmark
+ * JVM, like VirtualPiano.main does (without showing anything).
+ * @author Derianto Kusuma
+ *
+ */
+public class BenchmarkSetup {
+
+	private static boolean isInitialized = false;
+
+	/**
+	 * Initializes the factories and the MusicManager, if not done yet.
+	 */
+	public static synchronized void init() {
+		if (isInitialized) return;
+
+		ImageResource.initFactory();
+		MusicResource.initFactory();
+		KeyboardLayout.initFactory();
+		MusicManager.init();
+		isInitialized = true;
+	}
+}
@@ -0,0 +1,73 @@
+package benchmarks;
+
+import java.awt.event.KeyEvent;
+import java.util.concurrent.TimeUnit;
+
+import main.VelocitySensor;
+import music.MusicalNote;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import resource.KeyboardLayout;
+
+/**
+ * The per-key-event lookups: key code to key number in a KeyboardLayout,
+ * MusicalNote.isChromatic, and the velocity from the VelocitySensor.
+ * @author Derianto Kusuma
+ *
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class InputBenchmark {
+
+	private static final int[] KEY_CODES = {
+		KeyEvent.VK_Z, KeyEvent.VK_S, KeyEvent.VK_X, KeyEvent.VK_D, KeyEvent.VK_C,
+		KeyEvent.VK_Q, KeyEvent.VK_2, KeyEvent.VK_W, KeyEvent.VK_BACK_SPACE, KeyEvent.VK_F1,
+		KeyEvent.VK_SPACE, KeyEvent.VK_OPEN_BRACKET, KeyEvent.VK_EQUALS, KeyEvent.VK_M,
+		KeyEvent.VK_BACK_SLASH, KeyEvent.VK_ENTER
+	};
+
+	private KeyboardLayout layout;
+	private VelocitySensor velocitySensor;
+	private int next;
+	private long when;
+
+	@Setup
+	public void setup() {
+		BenchmarkSetup.init();
+		layout = KeyboardLayout.getInstance(KeyboardLayout.QWERTY);
+		velocitySensor = new VelocitySensor();
+	}
+
+	@Benchmark
+	public int getKeyNo() {
+		next = (next + 1) & (KEY_CODES.length - 1);
+		return layout.getKeyNo(KEY_CODES[next]);
+	}
+
+	@Benchmark
+	public boolean isChromatic() {
+		next = (next + 1) & 127;
+		return MusicalNote.isChromatic(next);
+	}
+
+	@Benchmark
+	public int getKeyVelocity() {
+		next = (next + 1) & (KEY_CODES.length - 1);
+		when += 40 * next; // 0 to 600 ms apart
+		return velocitySensor.getKeyVelocity(when);
+	}
+
+	@Benchmark
+	public int getMouseVelocity() {
+		next = (next + 1) & 127;
+		return VelocitySensor.getMouseVelocity(next, 0, 128);
+	}
+}
@@ -0,0 +1,56 @@
+package benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import music.LatencyHistogram;
+import music.MusicManager;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import util.Utilities;
+
+/**
+ * MusicManager.playNote / stopNote against the software synthesizer: the
+ * cost on the calling (Swing) Thread.  The latency to the synthesizer,
+ * measured by the note dispatcher, is printed at the end of each trial.
+ *
+ * Needs a sound device: without one, the synthesizer cannot be opened and
+ * only the (empty) calling path is measured.
+ * @author Derianto Kusuma
+ *
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class NoteDispatchBenchmark {
+
+	private MusicManager musicManager;
+	private int pitch;
+
+	@Setup
+	public void setup() {
+		BenchmarkSetup.init();
+		musicManager = MusicManager.getInstance();
+		pitch = 48;
+	}
+
+	@TearDown
+	public void tearDown() {
+		LatencyHistogram latency = musicManager.getNoteOnLatency();
+		Utilities.trace("Note on latency: " + ((latency != null) ? latency : "no synthesizer"));
+	}
+
+	@Benchmark
+	public void playAndStopNote() {
+		pitch = (pitch < 84) ? pitch + 1 : 48;
+		musicManager.playNote(pitch);
+		musicManager.stopNote(pitch);
+	}
+}
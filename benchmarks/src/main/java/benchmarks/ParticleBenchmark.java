@@ -0,0 +1,93 @@
+package benchmarks;
+
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import main.sprite.ParticleSystem;
+import main.sprite.SnowFlakeSprite;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import resource.AnimationConstant;
+import resource.ImageResource;
+import resource.LayoutConstant;
+
+/**
+ * One animation tick of N snowflakes: moving SnowFlakeSprite objects versus
+ * the ParticleSystem, and drawing them into an offscreen BufferedImage.
+ * @author Derianto Kusuma
+ *
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class ParticleBenchmark {
+
+	@Param({"15", "1000", "20000"})
+	public int numSnowFlakes;
+
+	private List<SnowFlakeSprite> sprites;
+	private ParticleSystem particles;
+	private float[] xs;
+	private float[] ys;
+	private BufferedImage offscreen;
+	private Graphics2D g;
+
+	@Setup
+	public void setup() {
+		BenchmarkSetup.init();
+		Rectangle bounds = new Rectangle(0, 0, 600, LayoutConstant.canvasMinHeight);
+
+		sprites = new ArrayList<SnowFlakeSprite>();
+		for (int i = 0; i < numSnowFlakes; i++)
+			sprites.add(new SnowFlakeSprite(bounds));
+
+		particles = new ParticleSystem(ImageResource.getInstance(ImageResource.SNOWFLAKE),
+				AnimationConstant.snowFlakeAlpha, bounds, numSnowFlakes);
+		xs = new float[numSnowFlakes];
+		ys = new float[numSnowFlakes];
+
+		offscreen = new BufferedImage(bounds.width, bounds.height, BufferedImage.TYPE_INT_RGB);
+		g = offscreen.createGraphics();
+	}
+
+	@TearDown
+	public void tearDown() {
+		g.dispose();
+	}
+
+	@Benchmark
+	public void moveSprites() {
+		for (SnowFlakeSprite sprite: sprites)
+			sprite.move();
+	}
+
+	@Benchmark
+	public void moveParticles() {
+		particles.move();
+	}
+
+	@Benchmark
+	public void drawSprites() {
+		for (SnowFlakeSprite sprite: sprites)
+			sprite.draw(g, null);
+	}
+
+	@Benchmark
+	public void drawParticles() {
+		particles.copyPositions(xs, ys);
+		particles.draw(g, xs, ys, null);
+	}
+}
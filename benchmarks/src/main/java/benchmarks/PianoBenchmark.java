@@ -0,0 +1,71 @@
+package benchmarks;
+
+import java.awt.Graphics2D;
+import java.awt.Point;
+import java.awt.image.BufferedImage;
+import java.util.concurrent.TimeUnit;
+
+import main.Piano;
+import music.MusicManager;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * Painting a whole Piano into an offscreen BufferedImage, and finding the key
+ * under the mouse, for several keyboard sizes.
+ * @author Derianto Kusuma
+ *
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class PianoBenchmark {
+
+	@Param({"37", "88", "128"})
+	public int numKeys;
+
+	private Piano piano;
+	private BufferedImage offscreen;
+	private Graphics2D g;
+	private Point[] points;
+	private int next;
+
+	@Setup
+	public void setup() {
+		BenchmarkSetup.init();
+		piano = new Piano(128 - numKeys, numKeys, MusicManager.SYNTH_CHANNEL_NO);
+		piano.setSize(piano.getPreferredSize());
+		offscreen = new BufferedImage(piano.getWidth(), piano.getHeight(), BufferedImage.TYPE_INT_RGB);
+		g = offscreen.createGraphics();
+
+		// points all over the piano, including between the keys
+		points = new Point[1024];
+		for (int i = 0; i < points.length; i++)
+			points[i] = new Point(i * 7919 % piano.getWidth(), i * 104729 % piano.getHeight());
+	}
+
+	@TearDown
+	public void tearDown() {
+		g.dispose();
+	}
+
+	@Benchmark
+	public void paint() {
+		piano.paint(g);
+	}
+
+	@Benchmark
+	@OutputTimeUnit(TimeUnit.NANOSECONDS)
+	public int getKeyNoHovered() {
+		next = (next + 1) & (points.length - 1);
+		return piano.getKeyNoHovered(points[next]);
+	}
+}
@@ -0,0 +1,69 @@
+package benchmarks;
+
+import java.awt.Graphics2D;
+import java.awt.Image;
+import java.awt.image.BufferedImage;
+import java.util.concurrent.TimeUnit;
+
+import main.sprite.Sprite;
+import main.sprite.StillSprite;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import resource.AnimationConstant;
+import resource.ImageResource;
+
+/**
+ * Sprite.getImage (the alpha frame lookup) and Sprite.draw into an offscreen
+ * BufferedImage, while the alpha changes every call like in a fade in.
+ * @author Derianto Kusuma
+ *
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class SpriteBenchmark {
+
+	private Sprite sprite;
+	private BufferedImage offscreen;
+	private Graphics2D g;
+	private float alpha;
+
+	@Setup
+	public void setup() {
+		BenchmarkSetup.init();
+		sprite = new StillSprite(ImageResource.getInstance(ImageResource.TEXT), 0, 0,
+				AnimationConstant.textStartAlpha, AnimationConstant.textEndAlpha, AnimationConstant.textVelAlpha);
+		offscreen = new BufferedImage(600, 400, BufferedImage.TYPE_INT_RGB);
+		g = offscreen.createGraphics();
+	}
+
+	@TearDown
+	public void tearDown() {
+		g.dispose();
+	}
+
+	@Benchmark
+	public Image getImage() {
+		nextAlpha();
+		return sprite.getImage();
+	}
+
+	@Benchmark
+	public void draw() {
+		nextAlpha();
+		sprite.draw(g, alpha, null);
+	}
+
+	private void nextAlpha() {
+		alpha += 0.01f;
+		if (alpha > 1.0f) alpha = 0.0f;
+	}
+}
@@ -0,0 +1,100 @@
+package benchmarks;
+
+import java.io.File;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+
+import javax.sound.midi.MidiSystem;
+import javax.sound.midi.Sequence;
+
+import music.StreamingMidiFile;
+import util.Utilities;
+
+/**
+ * Measures the parsing of a corpus of MIDI files with StreamingMidiFile: the
+ * throughput and the peak heap used, and with -compare also with
+ * MidiSystem.getSequence.  The peak heap is approximate: it includes garbage
+ * not collected yet.
+ *
+ * Usage: java -cp benchmarks/target/benchmarks.jar benchmarks.StreamingMidiFileTool [-compare] file.mid...
+ *
+ * @author Derianto Kusuma
+ *
+ */
+public class StreamingMidiFileTool {
+
+	/**
+	 * Parses each file given and reports it, then the total.
+	 * @param args
+	 */
+	public static void main(String[] args) {
+		boolean isComparing = false;
+		long totalEvents = 0;
+		long totalNanos = 0;
+
+		for (String arg: args) {
+			if (arg.equals("-compare")) {
+				isComparing = true;
+				continue;
+			}
+
+			File file = new File(arg);
+			try {
+				long heapBefore = StreamingMidiFileTool.resetPeakHeap();
+				long start = System.nanoTime();
+				StreamingMidiFile midiFile = new StreamingMidiFile(file);
+				while (midiFile.next()) {
+					// parse only
+				}
+				long nanos = System.nanoTime() - start;
+				long peakHeap = StreamingMidiFileTool.getPeakHeap() - heapBefore;
+
+				totalEvents += midiFile.getNumEvents();
+				totalNanos += nanos;
+				Utilities.trace(String.format("%s: %d events in %.1f ms, %.0f events/s, peak heap +%d KB",
+						file, midiFile.getNumEvents(), nanos / 1e6, midiFile.getNumEvents() * 1e9 / nanos,
+						peakHeap / 1024));
+
+				if (isComparing) {
+					heapBefore = StreamingMidiFileTool.resetPeakHeap();
+					start = System.nanoTime();
+					Sequence sequence = MidiSystem.getSequence(file);
+					nanos = System.nanoTime() - start;
+					peakHeap = StreamingMidiFileTool.getPeakHeap() - heapBefore;
+					Utilities.trace(String.format("%s: getSequence in %.1f ms, peak heap +%d KB (%d tracks)",
+							file, nanos / 1e6, peakHeap / 1024, sequence.getTracks().length));
+				}
+			} catch (Exception e) {
+				Utilities.traceErr(file + ": " + e.getMessage());
+			}
+		}
+
+		if (totalNanos > 0)
+			Utilities.trace(String.format("Total: %d events, %.0f events/s", totalEvents, totalEvents * 1e9 / totalNanos));
+	}
+
+	/**
+	 * Collects the garbage and resets the peak usage of the heap.
+	 * @return the heap used now
+	 */
+	private static long resetPeakHeap() {
+		System.gc();
+		long used = 0;
+		for (MemoryPoolMXBean pool: ManagementFactory.getMemoryPoolMXBeans()) {
+			if (pool.getType() != MemoryType.HEAP) continue;
+			pool.resetPeakUsage();
+			used += pool.getUsage().getUsed();
+		}
+		return used;
+	}
+
+	private static long getPeakHeap() {
+		long peak = 0;
+		for (MemoryPoolMXBean pool: ManagementFactory.getMemoryPoolMXBeans()) {
+			if (pool.getType() == MemoryType.HEAP)
+				peak += pool.getPeakUsage().getUsed();
+		}
+		return peak;
+	}
+}
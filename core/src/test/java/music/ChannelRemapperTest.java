@@ -0,0 +1,125 @@
+package music;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import javax.sound.midi.InvalidMidiDataException;
+import javax.sound.midi.MidiEvent;
+import javax.sound.midi.Sequence;
+import javax.sound.midi.ShortMessage;
+import javax.sound.midi.Track;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests that the ChannelRemapper moves music off the reserved channels, for
+ * a Sequence and for packed messages.
+ *
+ * @author Derianto Kusuma
+ *
+ */
+public class ChannelRemapperTest {
+
+	private static final int RESERVED = 1 << MusicManager.SYNTH_CHANNEL_NO;
+
+	private Sequence sequence;
+	private Track track;
+
+	@Before
+	public void setUp() throws InvalidMidiDataException {
+		sequence = new Sequence(Sequence.PPQ, 480);
+		track = sequence.createTrack();
+	}
+
+	@Test
+	public void testNothingToMove() throws InvalidMidiDataException {
+		add(ShortMessage.NOTE_ON, 0, 60);
+		assertNull(new ChannelRemapper(ChannelRemapperTest.RESERVED).remap(sequence));
+		assertEquals(0, getChannel(0));
+	}
+
+	@Test
+	public void testMovesToFreeChannel() throws InvalidMidiDataException {
+		add(ShortMessage.PROGRAM_CHANGE, 15, 5);
+		add(ShortMessage.NOTE_ON, 15, 60);
+		add(ShortMessage.NOTE_ON, 0, 60);
+
+		assertEquals("15 -> 1", new ChannelRemapper(ChannelRemapperTest.RESERVED).remap(sequence));
+		assertEquals(1, getChannel(0));
+		assertEquals(1, getChannel(1));
+		assertEquals(0, getChannel(2));
+	}
+
+	@Test
+	public void testSkipsDrumChannel() throws InvalidMidiDataException {
+		for (int channel = 0; channel < MusicManager.DRUM_CHANNEL_NO; channel++)
+			add(ShortMessage.NOTE_ON, channel, 60);
+		add(ShortMessage.NOTE_ON, 15, 60);
+
+		new ChannelRemapper(ChannelRemapperTest.RESERVED).remap(sequence);
+		assertEquals(MusicManager.DRUM_CHANNEL_NO + 1, getChannel(track.size() - 2));
+	}
+
+	@Test
+	public void testMergesWhenFull() throws InvalidMidiDataException {
+		for (int channel = 0; channel < MusicManager.NUM_CHANNELS; channel++) {
+			add(ShortMessage.NOTE_ON, channel, 60);
+			if (channel != 3)
+				add(ShortMessage.NOTE_ON, channel, 62); // channel 3 is the quietest
+		}
+		add(ShortMessage.PROGRAM_CHANGE, 15, 5);
+		int numEvents = track.size();
+
+		String remapped = new ChannelRemapper(ChannelRemapperTest.RESERVED).remap(sequence);
+		assertEquals("15 merged into 3", remapped);
+		assertEquals("the program change is dropped", numEvents - 1, track.size());
+		for (int i = 0; i < track.size(); i++) {
+			if (track.get(i).getMessage() instanceof ShortMessage)
+				assertFalse(getChannel(i) == 15);
+		}
+	}
+
+	@Test
+	public void testRemapPacked() {
+		int[] numEvents = new int[MusicManager.NUM_CHANNELS];
+		numEvents[0] = 10;
+		numEvents[15] = 10;
+		ChannelRemapper remapper = new ChannelRemapper(ChannelRemapperTest.RESERVED);
+		assertTrue(remapper.chooseTargets(numEvents));
+
+		int message = MidiEventQueue.pack(ShortMessage.NOTE_ON, 15, 60, 100);
+		int remapped = remapper.remap(message);
+		assertEquals(1, MidiEventQueue.getChannel(remapped));
+		assertEquals(ShortMessage.NOTE_ON, MidiEventQueue.getCommand(remapped));
+		assertEquals(60, MidiEventQueue.getData1(remapped));
+		assertEquals(100, MidiEventQueue.getData2(remapped));
+
+		message = MidiEventQueue.pack(ShortMessage.NOTE_ON, 0, 60, 100);
+		assertEquals(message, remapper.remap(message));
+	}
+
+	@Test
+	public void testRemapPackedMerged() {
+		int[] numEvents = new int[MusicManager.NUM_CHANNELS];
+		for (int channel = 0; channel < MusicManager.NUM_CHANNELS; channel++)
+			numEvents[channel] = (channel == 3) ? 1 : 10;
+		ChannelRemapper remapper = new ChannelRemapper(ChannelRemapperTest.RESERVED);
+		assertTrue(remapper.chooseTargets(numEvents));
+
+		int note = remapper.remap(MidiEventQueue.pack(ShortMessage.NOTE_OFF, 15, 60, 0));
+		assertEquals(3, MidiEventQueue.getChannel(note));
+		assertEquals(ChannelRemapper.NO_MESSAGE,
+				remapper.remap(MidiEventQueue.pack(ShortMessage.CONTROL_CHANGE, 15, 7, 100)));
+	}
+
+	private void add(int command, int channel, int data1) throws InvalidMidiDataException {
+		track.add(new MidiEvent(new ShortMessage(command, channel, data1, 0), track.ticks()));
+	}
+
+	private int getChannel(int i) {
+		return ((ShortMessage) track.get(i).getMessage()).getChannel();
+	}
+}
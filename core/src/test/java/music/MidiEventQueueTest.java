@@ -0,0 +1,146 @@
+package music;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+/**
+ * Tests the MidiEventQueue: packing, capacity, wraparound and several
+ * producers.
+ *
+ * @author Derianto Kusuma
+ *
+ */
+public class MidiEventQueueTest {
+
+	@Test
+	public void testPack() {
+		int message = MidiEventQueue.pack(0x90, 15, 127, 64);
+		assertEquals(0x90, MidiEventQueue.getCommand(message));
+		assertEquals(15, MidiEventQueue.getChannel(message));
+		assertEquals(127, MidiEventQueue.getData1(message));
+		assertEquals(64, MidiEventQueue.getData2(message));
+	}
+
+	@Test
+	public void testCapacityIsPowerOfTwo() {
+		assertEquals(2, new MidiEventQueue(1).getCapacity());
+		assertEquals(4, new MidiEventQueue(3).getCapacity());
+		assertEquals(4, new MidiEventQueue(4).getCapacity());
+		assertEquals(8, new MidiEventQueue(5).getCapacity());
+	}
+
+	@Test
+	public void testFull() {
+		MidiEventQueue queue = new MidiEventQueue(4);
+		for (int i = 0; i < 4; i++)
+			assertTrue(queue.offer(i, i * 10L));
+		assertFalse(queue.offer(4, 40L));
+
+		Recorder recorder = new Recorder();
+		assertEquals(4, queue.drain(recorder));
+		assertTrue(queue.isEmpty());
+		assertTrue(queue.offer(4, 40L));
+	}
+
+	@Test
+	public void testWraparound() {
+		MidiEventQueue queue = new MidiEventQueue(4);
+		Recorder recorder = new Recorder();
+
+		// 1 to 4 events at a time: the positions go around the slots many times
+		int next = 0;
+		for (int round = 0; round < 1000; round++) {
+			for (int i = 0; i <= round % 4; i++) {
+				assertTrue(queue.offer(next, next * 10L));
+				next++;
+			}
+			assertEquals(round % 4 + 1, queue.drain(recorder));
+		}
+
+		assertEquals(next, recorder.count);
+		assertTrue(queue.isEmpty());
+	}
+
+	@Test
+	public void testDrainStopsAfterOneLap() {
+		final MidiEventQueue queue = new MidiEventQueue(4);
+		for (int i = 0; i < 4; i++)
+			queue.offer(i, 0);
+
+		// a handler that keeps adding must not keep the drain going
+		final AtomicInteger numHandled = new AtomicInteger();
+		int numDrained = queue.drain(new MidiEventQueue.Handler() {
+			public void handle(int message, long timestamp) {
+				numHandled.incrementAndGet();
+				queue.offer(message + 4, 0);
+			}
+		});
+		assertEquals(4, numDrained);
+		assertEquals(4, numHandled.get());
+		assertFalse(queue.isEmpty());
+	}
+
+	@Test
+	public void testProducers() throws InterruptedException {
+		final int numProducers = 4;
+		final int numEvents = 100000;
+		final MidiEventQueue queue = new MidiEventQueue(64);
+
+		Thread[] producers = new Thread[numProducers];
+		for (int p = 0; p < numProducers; p++) {
+			final int producer = p;
+			producers[p] = new Thread() {
+				@Override
+				public void run() {
+					for (int i = 0; i < numEvents; i++) {
+						while (!queue.offer(producer, i))
+							Thread.yield();
+					}
+				}
+			};
+			producers[p].start();
+		}
+
+		// each producer's events come out in order, none lost
+		final long[] nextOf = new long[numProducers];
+		final boolean[] isOrdered = { true };
+		MidiEventQueue.Handler checker = new MidiEventQueue.Handler() {
+			public void handle(int message, long timestamp) {
+				if (timestamp != nextOf[message])
+					isOrdered[0] = false;
+				nextOf[message]++;
+			}
+		};
+		int numDrained = 0;
+		while (numDrained < numProducers * numEvents) {
+			int n = queue.drain(checker);
+			if (n == 0) Thread.yield();
+			numDrained += n;
+		}
+		for (Thread producer: producers)
+			producer.join();
+
+		assertTrue(isOrdered[0]);
+		for (int p = 0; p < numProducers; p++)
+			assertEquals(numEvents, nextOf[p]);
+	}
+
+	/**
+	 * Checks that the events come in the order they were offered: message
+	 * i with timestamp 10 * i.
+	 */
+	private static class Recorder implements MidiEventQueue.Handler {
+		int count = 0;
+
+		public void handle(int message, long timestamp) {
+			assertEquals(count, message);
+			assertEquals(count * 10L, timestamp);
+			count++;
+		}
+	}
+}
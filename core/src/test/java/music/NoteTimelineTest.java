@@ -0,0 +1,121 @@
+package music;
+
+import static org.junit.Assert.assertEquals;
+
+import javax.sound.midi.InvalidMidiDataException;
+import javax.sound.midi.MidiEvent;
+import javax.sound.midi.Sequence;
+import javax.sound.midi.ShortMessage;
+import javax.sound.midi.Track;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests the notes indexed by the NoteTimeline, and findFirst.
+ *
+ * @author Derianto Kusuma
+ *
+ */
+public class NoteTimelineTest {
+
+	private Sequence sequence;
+	private Track track;
+
+	@Before
+	public void setUp() throws InvalidMidiDataException {
+		sequence = new Sequence(Sequence.PPQ, 480);
+		track = sequence.createTrack();
+	}
+
+	@Test
+	public void testNotes() throws InvalidMidiDataException {
+		addNote(0, 62, 0, 100);
+		addNote(0, 62, 200, 300);
+		addNote(MusicManager.DRUM_CHANNEL_NO, 62, 50, 60); // not a note
+		NoteTimeline timeline = new NoteTimeline(sequence);
+
+		assertEquals(2, timeline.getNumNotes(62));
+		assertEquals(200, timeline.getStart(62, 1));
+		assertEquals(300, timeline.getEnd(62, 1));
+		assertEquals(0, timeline.getChannel(62, 1));
+		assertEquals(0, timeline.getNumNotes(60));
+	}
+
+	@Test
+	public void testNoteOnZeroVelocityEnds() throws InvalidMidiDataException {
+		track.add(new MidiEvent(new ShortMessage(ShortMessage.NOTE_ON, 0, 60, 100), 10));
+		track.add(new MidiEvent(new ShortMessage(ShortMessage.NOTE_ON, 0, 60, 0), 90));
+		NoteTimeline timeline = new NoteTimeline(sequence);
+
+		assertEquals(1, timeline.getNumNotes(60));
+		assertEquals(90, timeline.getEnd(60, 0));
+	}
+
+	@Test
+	public void testZeroLengthNote() throws InvalidMidiDataException {
+		addNote(0, 60, 100, 100); // on then off at the same tick
+		addNote(0, 60, 300, 400);
+		NoteTimeline timeline = new NoteTimeline(sequence);
+
+		assertEquals(2, timeline.getNumNotes(60));
+		assertEquals(100, timeline.getEnd(60, 0));
+		assertEquals(300, timeline.getStart(60, 1));
+	}
+
+	@Test
+	public void testStrikeAgainAtEnd() throws InvalidMidiDataException {
+		Track other = sequence.createTrack();
+		addNote(0, 60, 0, 100);
+		other.add(new MidiEvent(new ShortMessage(ShortMessage.NOTE_ON, 0, 60, 100), 100)); // struck again
+		other.add(new MidiEvent(new ShortMessage(ShortMessage.NOTE_OFF, 0, 60, 0), 200));
+		NoteTimeline timeline = new NoteTimeline(sequence);
+
+		assertEquals(2, timeline.getNumNotes(60));
+		assertEquals(100, timeline.getEnd(60, 0));
+		assertEquals(100, timeline.getStart(60, 1));
+		assertEquals(200, timeline.getEnd(60, 1));
+	}
+
+	@Test
+	public void testFindFirst() throws InvalidMidiDataException {
+		addNote(0, 62, 0, 100);
+		addNote(0, 62, 200, 300);
+		addNote(0, 62, 400, 500);
+		NoteTimeline timeline = new NoteTimeline(sequence);
+
+		assertEquals(0, timeline.findFirst(62, 0));
+		assertEquals(0, timeline.findFirst(62, 99));
+		assertEquals("a note ending at the tick is over", 1, timeline.findFirst(62, 100));
+		assertEquals(1, timeline.findFirst(62, 250));
+		assertEquals(2, timeline.findFirst(62, 300));
+		assertEquals(3, timeline.findFirst(62, 600));
+		assertEquals(0, timeline.findFirst(60, 0)); // no notes
+	}
+
+	@Test
+	public void testFindFirstOverlapping() throws InvalidMidiDataException {
+		addNote(1, 60, 0, 1000); // long note on another channel
+		addNote(0, 60, 100, 200);
+		addNote(0, 60, 300, 400);
+		NoteTimeline timeline = new NoteTimeline(sequence);
+
+		// the long note still sounds: the search must not skip it
+		assertEquals(0, timeline.findFirst(60, 350));
+		assertEquals(3, timeline.findFirst(60, 1000));
+	}
+
+	@Test
+	public void testNotReleasedEndsWithSequence() throws InvalidMidiDataException {
+		track.add(new MidiEvent(new ShortMessage(ShortMessage.NOTE_ON, 0, 60, 100), 10));
+		addNote(0, 62, 0, 500);
+		NoteTimeline timeline = new NoteTimeline(sequence);
+
+		assertEquals(sequence.getTickLength(), timeline.getEnd(60, 0));
+	}
+
+	private void addNote(int channel, int pitch, long start, long end) throws InvalidMidiDataException {
+		track.add(new MidiEvent(new ShortMessage(ShortMessage.NOTE_ON, channel, pitch, 100), start));
+		track.add(new MidiEvent(new ShortMessage(ShortMessage.NOTE_OFF, channel, pitch, 0), end));
+	}
+}
@@ -0,0 +1,96 @@
+package music;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import javax.sound.midi.InvalidMidiDataException;
+import javax.sound.midi.MetaMessage;
+import javax.sound.midi.MidiEvent;
+import javax.sound.midi.Sequence;
+import javax.sound.midi.Track;
+
+import org.junit.Test;
+
+/**
+ * Tests the conversions of the TempoMap between ticks and microseconds.
+ *
+ * @author Derianto Kusuma
+ *
+ */
+public class TempoMapTest {
+
+	private static final int RESOLUTION = 480; // ticks per quarter
+
+	@Test
+	public void testDefaultTempo() throws InvalidMidiDataException {
+		Sequence sequence = new Sequence(Sequence.PPQ, TempoMapTest.RESOLUTION);
+		sequence.createTrack();
+		TempoMap tempoMap = new TempoMap(sequence);
+
+		assertEquals(0, tempoMap.tickToMicros(0));
+		assertEquals(TempoMap.DEFAULT_MICROS_PER_QUARTER, tempoMap.tickToMicros(TempoMapTest.RESOLUTION));
+		assertEquals(TempoMapTest.RESOLUTION, tempoMap.microsToTick(TempoMap.DEFAULT_MICROS_PER_QUARTER));
+	}
+
+	@Test
+	public void testTempoChanges() throws InvalidMidiDataException {
+		Sequence sequence = new Sequence(Sequence.PPQ, TempoMapTest.RESOLUTION);
+		Track track = sequence.createTrack();
+		track.add(createTempo(1000000, 0)); // 60 bpm
+		track.add(createTempo(250000, 2 * TempoMapTest.RESOLUTION)); // 240 bpm
+
+		// the second change on another track: all tracks count
+		sequence.createTrack().add(createTempo(500000, 4 * TempoMapTest.RESOLUTION));
+		TempoMap tempoMap = new TempoMap(sequence);
+
+		long[] ticks = { 0, 480, 960, 1440, 1920, 2400 };
+		long[] micros = { 0, 1000000, 2000000, 2250000, 2500000, 3000000 };
+		for (int i = 0; i < ticks.length; i++) {
+			assertEquals("tick " + ticks[i], micros[i], tempoMap.tickToMicros(ticks[i]));
+			assertEquals("micros " + micros[i], ticks[i], tempoMap.microsToTick(micros[i]));
+		}
+	}
+
+	@Test
+	public void testRoundTrip() throws InvalidMidiDataException {
+		Sequence sequence = new Sequence(Sequence.PPQ, TempoMapTest.RESOLUTION);
+		Track track = sequence.createTrack();
+		track.add(createTempo(600000, 100));
+		track.add(createTempo(400000, 1000));
+		TempoMap tempoMap = new TempoMap(sequence);
+
+		// both round down: at most a tick is lost
+		for (long tick = 0; tick < 3000; tick += 7) {
+			long roundTrip = tempoMap.microsToTick(tempoMap.tickToMicros(tick));
+			assertTrue("tick " + tick + " came back as " + roundTrip, roundTrip == tick || roundTrip == tick - 1);
+		}
+	}
+
+	@Test
+	public void testZeroTempoSkipped() throws InvalidMidiDataException {
+		Sequence sequence = new Sequence(Sequence.PPQ, TempoMapTest.RESOLUTION);
+		Track track = sequence.createTrack();
+		track.add(createTempo(0, 0));
+		track.add(createTempo(0, 960));
+		TempoMap tempoMap = new TempoMap(sequence);
+
+		assertEquals(TempoMap.DEFAULT_MICROS_PER_QUARTER, tempoMap.tickToMicros(TempoMapTest.RESOLUTION));
+		assertEquals(2 * TempoMapTest.RESOLUTION, tempoMap.microsToTick(2 * TempoMap.DEFAULT_MICROS_PER_QUARTER));
+	}
+
+	@Test
+	public void testSmpte() throws InvalidMidiDataException {
+		Sequence sequence = new Sequence(Sequence.SMPTE_25, 40); // 1000 ticks per second
+		Track track = sequence.createTrack();
+		track.add(createTempo(250000, 0)); // ignored
+		TempoMap tempoMap = new TempoMap(sequence);
+
+		assertEquals(1000000, tempoMap.tickToMicros(1000));
+		assertEquals(2500, tempoMap.microsToTick(2500000));
+	}
+
+	private static MidiEvent createTempo(int microsPerQuarter, long tick) throws InvalidMidiDataException {
+		byte[] data = { (byte)(microsPerQuarter >> 16), (byte)(microsPerQuarter >> 8), (byte) microsPerQuarter };
+		return new MidiEvent(new MetaMessage(TempoMap.META_TEMPO, data, data.length), tick);
+	}
+}
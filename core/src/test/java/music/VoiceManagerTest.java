@@ -0,0 +1,235 @@
+package music;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+
+import javax.sound.midi.MidiChannel;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests the VoiceManager against fake synthesizer channels that keep track
+ * of the notes they sound, the pedal included.
+ *
+ * @author Derianto Kusuma
+ *
+ */
+public class VoiceManagerTest {
+
+	private static final int MAX_VOICES = 4;
+
+	private FakeChannel[] fakes;
+	private VoiceManager voiceManager;
+
+	@Before
+	public void setUp() {
+		fakes = new FakeChannel[MusicManager.NUM_CHANNELS];
+		MidiChannel[] channels = new MidiChannel[MusicManager.NUM_CHANNELS];
+		for (int i = 0; i < channels.length; i++) {
+			fakes[i] = new FakeChannel();
+			channels[i] = fakes[i].createChannel();
+		}
+		voiceManager = new VoiceManager(channels, VoiceManagerTest.MAX_VOICES);
+	}
+
+	@Test
+	public void testNoteOnOff() {
+		voiceManager.noteOn(0, 60, 100);
+		assertTrue(voiceManager.isActive(0, 60));
+		assertTrue(fakes[0].isSounding(60));
+		assertEquals(1, voiceManager.getNumVoices());
+
+		voiceManager.noteOff(0, 60, 0);
+		assertFalse(voiceManager.isActive(0, 60));
+		assertFalse(fakes[0].isSounding(60));
+		assertEquals(0, voiceManager.getNumVoices());
+	}
+
+	@Test
+	public void testRestartIsOneVoice() {
+		voiceManager.noteOn(0, 60, 100);
+		voiceManager.noteOn(0, 60, 100);
+		assertEquals(1, voiceManager.getNumVoices());
+		assertEquals(1, fakes[0].getNumSounding());
+	}
+
+	@Test
+	public void testStealsOldest() {
+		for (int pitch = 60; pitch < 60 + VoiceManagerTest.MAX_VOICES + 1; pitch++)
+			voiceManager.noteOn(0, pitch, 100);
+
+		assertEquals(VoiceManagerTest.MAX_VOICES, voiceManager.getNumVoices());
+		assertFalse("the oldest voice is stolen", voiceManager.isActive(0, 60));
+		assertFalse(fakes[0].isSounding(60));
+		assertTrue(voiceManager.isActive(0, 60 + VoiceManagerTest.MAX_VOICES));
+	}
+
+	@Test
+	public void testSetMaxVoices() {
+		voiceManager.setMaxVoices(2);
+		voiceManager.noteOn(0, 60, 100);
+		voiceManager.noteOn(1, 62, 100);
+		voiceManager.noteOn(2, 64, 100);
+
+		assertEquals(2, voiceManager.getNumVoices());
+		assertFalse(voiceManager.isActive(0, 60));
+		assertEquals(2, getNumSounding());
+	}
+
+	@Test
+	public void testLayer() {
+		voiceManager.setLayer(0, 1, true);
+		voiceManager.noteOn(0, 60, 100);
+		assertTrue(fakes[0].isSounding(60));
+		assertTrue(fakes[1].isSounding(60));
+		assertEquals(2, voiceManager.getNumVoices());
+
+		voiceManager.noteOff(0, 60, 0);
+		assertFalse(fakes[0].isSounding(60));
+		assertFalse(fakes[1].isSounding(60));
+		assertEquals(0, voiceManager.getNumVoices());
+	}
+
+	@Test
+	public void testRemovingLayerReleasesIt() {
+		voiceManager.setLayer(0, 1, true);
+		voiceManager.noteOn(0, 60, 100);
+		voiceManager.setLayer(0, 1, false);
+
+		assertTrue(fakes[0].isSounding(60));
+		assertFalse(fakes[1].isSounding(60));
+		assertEquals(1, voiceManager.getNumVoices());
+
+		voiceManager.noteOn(0, 62, 100);
+		assertFalse("no longer layered", fakes[1].isSounding(62));
+	}
+
+	@Test
+	public void testPedalSustains() {
+		voiceManager.controlChange(0, MusicManager.PEDAL_ID, MusicManager.PEDAL_ON);
+		voiceManager.noteOn(0, 60, 100);
+		voiceManager.noteOff(0, 60, 0);
+
+		assertTrue(fakes[0].isSounding(60));
+		assertEquals(1, voiceManager.getNumVoices());
+		assertEquals(1, voiceManager.getNumSustained());
+
+		voiceManager.controlChange(0, MusicManager.PEDAL_ID, MusicManager.PEDAL_OFF);
+		assertFalse(fakes[0].isSounding(60));
+		assertEquals(0, voiceManager.getNumVoices());
+		assertEquals(0, voiceManager.getNumSustained());
+	}
+
+	@Test
+	public void testSustainedAreStolenFirst() {
+		voiceManager.controlChange(0, MusicManager.PEDAL_ID, MusicManager.PEDAL_ON);
+		voiceManager.noteOn(1, 50, 100); // oldest, held on another channel
+		voiceManager.noteOn(0, 60, 100);
+		voiceManager.noteOff(0, 60, 0);
+		for (int pitch = 61; pitch < 61 + VoiceManagerTest.MAX_VOICES - 1; pitch++)
+			voiceManager.noteOn(0, pitch, 100);
+
+		assertTrue("the held voice is kept", voiceManager.isActive(1, 50));
+		assertFalse(fakes[0].isSounding(60));
+		assertEquals(VoiceManagerTest.MAX_VOICES, voiceManager.getNumVoices());
+		assertTrue("the pedal is down again", fakes[0].isPedalDown());
+	}
+
+	@Test
+	public void testCapHoldsUnderPedal() {
+		voiceManager.controlChange(0, MusicManager.PEDAL_ID, MusicManager.PEDAL_ON);
+		for (int i = 0; i < 200; i++) {
+			int pitch = 40 + (i * 7) % 48;
+			voiceManager.noteOn(0, pitch, 100);
+			if (i % 3 != 0)
+				voiceManager.noteOff(0, pitch, 0);
+			assertTrue(getNumSounding() <= VoiceManagerTest.MAX_VOICES);
+			assertEquals(getNumSounding(), voiceManager.getNumVoices());
+		}
+	}
+
+	@Test
+	public void testReleaseChannel() {
+		voiceManager.controlChange(0, MusicManager.PEDAL_ID, MusicManager.PEDAL_ON);
+		voiceManager.noteOn(0, 60, 100);
+		voiceManager.noteOff(0, 60, 0);
+		voiceManager.noteOn(0, 62, 100);
+		voiceManager.noteOn(1, 64, 100);
+
+		voiceManager.releaseChannel(0);
+		assertEquals(0, fakes[0].getNumSounding());
+		assertFalse(fakes[0].isPedalDown());
+		assertEquals(1, voiceManager.getNumVoices());
+		assertEquals(0, voiceManager.getNumSustained());
+	}
+
+	private int getNumSounding() {
+		int numSounding = 0;
+		for (FakeChannel fake: fakes)
+			numSounding += fake.getNumSounding();
+		return numSounding;
+	}
+
+	/**
+	 * A synthesizer channel that only keeps track of its notes: a note
+	 * released while the pedal is down sounds until the pedal goes up.
+	 */
+	private static class FakeChannel implements InvocationHandler {
+
+		private boolean[] isHeld = new boolean[MusicManager.NUM_PITCHES]; // key down
+		private boolean[] isSustained = new boolean[MusicManager.NUM_PITCHES]; // by the pedal
+		private boolean isPedalDown;
+
+		public MidiChannel createChannel() {
+			return (MidiChannel) Proxy.newProxyInstance(MidiChannel.class.getClassLoader(),
+					new Class<?>[] { MidiChannel.class }, this);
+		}
+
+		public Object invoke(Object proxy, Method method, Object[] args) {
+			String name = method.getName();
+			if (name.equals("noteOn")) {
+				int pitch = (Integer) args[0];
+				isHeld[pitch] = (Integer) args[1] > 0;
+			} else if (name.equals("noteOff")) {
+				int pitch = (Integer) args[0];
+				if (isHeld[pitch] && isPedalDown)
+					isSustained[pitch] = true;
+				isHeld[pitch] = false;
+			} else if (name.equals("controlChange") && (Integer) args[0] == MusicManager.PEDAL_ID) {
+				isPedalDown = (Integer) args[1] >= MusicManager.PEDAL_HALF;
+				if (!isPedalDown) {
+					for (int pitch = 0; pitch < isSustained.length; pitch++)
+						isSustained[pitch] = false;
+				}
+			}
+
+			Class<?> type = method.getReturnType();
+			if (type == boolean.class) return Boolean.FALSE;
+			if (type == int.class) return Integer.valueOf(0);
+			return null;
+		}
+
+		public boolean isSounding(int pitch) {
+			return isHeld[pitch] || isSustained[pitch];
+		}
+
+		public int getNumSounding() {
+			int numSounding = 0;
+			for (int pitch = 0; pitch < isHeld.length; pitch++) {
+				if (isSounding(pitch))
+					numSounding++;
+			}
+			return numSounding;
+		}
+
+		public boolean isPedalDown() {
+			return isPedalDown;
+		}
+	}
+}
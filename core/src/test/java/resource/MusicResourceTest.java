@@ -0,0 +1,59 @@
+package resource;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+import music.MusicManager;
+
+import org.junit.After;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * Tests which music is streamed instead of parsed whole, and that playing
+ * it streams it.
+ *
+ * @author Derianto Kusuma
+ *
+ */
+public class MusicResourceTest {
+
+	@BeforeClass
+	public static void setUpClass() {
+		MusicManager.init();
+		MusicResource.initFactory();
+	}
+
+	@After
+	public void tearDown() {
+		System.clearProperty(MusicResource.STREAM_THRESHOLD_PROPERTY);
+		MusicManager.getInstance().stop();
+	}
+
+	@Test
+	public void testSmallFileNotStreamed() {
+		assertFalse(MusicResource.getInstance(MusicResource.BACKGROUND).isStreamed());
+	}
+
+	@Test
+	public void testThreshold() {
+		System.setProperty(MusicResource.STREAM_THRESHOLD_PROPERTY, "0");
+		assertTrue(MusicResource.getInstance(MusicResource.BACKGROUND).isStreamed());
+
+		System.setProperty(MusicResource.STREAM_THRESHOLD_PROPERTY, String.valueOf(Long.MAX_VALUE));
+		assertFalse(MusicResource.getInstance(MusicResource.BACKGROUND).isStreamed());
+	}
+
+	@Test
+	public void testPlayStreams() {
+		assumeTrue(MusicManager.getInstance().canStream()); // needs a synthesizer
+
+		System.setProperty(MusicResource.STREAM_THRESHOLD_PROPERTY, "0");
+		MusicResource.getInstance(MusicResource.BACKGROUND).play();
+		assertTrue(MusicManager.getInstance().isStreaming());
+
+		MusicManager.getInstance().stop();
+		assertFalse(MusicManager.getInstance().isStreaming());
+	}
+}
@@ -4,25 +4,29 @@ import java.awt.Graphics;
 import java.awt.Point;
 import java.awt.Rectangle;
 import java.awt.image.ImageObserver;
-import java.util.ArrayList;
-import java.util.Arrays;
-import java.util.List;
 
 import main.sprite.ButtonSprite;
-import main.sprite.SnowFlakeSprite;
+import main.sprite.ParticleSystem;
 import main.sprite.StillSprite;
-import main.thread.Scenario;
-import main.thread.ScenarioThread;
+import main.thread.ScheduledTask;
+import main.thread.Scheduler;
 import main.thread.TimedEvent;
-import main.thread.TimerThread;
+import main.thread.TripleBuffer;
 import resource.AnimationConstant;
 import resource.ImageResource;
 import resource.LayoutConstant;
-import util.Utilities;
+import util.Log;
 
 /**
  * Encapsulates various sprites that can animate.  Contains methods pertaining
  * to the specific animation design of this e-card.
+ * 
+ * The sprites are moved by the Scheduler Thread but drawn by another Thread
+ * (the Swing Thread, or the render loop).  After each step, the state to draw
+ * is copied into a Snapshot and published through a TripleBuffer; draw only
+ * reads the latest Snapshot, so a frame never mixes two steps, and neither
+ * Thread waits for the other.
+ * 
  * @author Derianto Kusuma
  *
  */
@@ -30,13 +34,35 @@ public class Animation {
 
 	private StillSprite text;
 	private ButtonSprite button;	
-	private List<SnowFlakeSprite> snowFlakes;
+	private ParticleSystem snowFlakes;
 	private Rectangle canvasBounds;
 	
-	private Thread snowFlakeThread;
-	private Thread textThread;
-	private Thread buttonThread;
-	private Thread launcherThread;
+	private TripleBuffer<Snapshot> snapshots;
+	private volatile float publishedButtonAlpha; // for isReplayHovered
+	
+	private TimedEvent snowFlakeEvent;
+	private TimedEvent textEvent;
+	private TimedEvent buttonEvent;
+	
+	// null while not running
+	private ScheduledTask snowFlakeTask;
+	private ScheduledTask textTask;
+	private ScheduledTask buttonTask;
+	
+	/**
+	 * The state needed to draw one frame.
+	 */
+	private static class Snapshot {
+		private float[] snowFlakeXs;
+		private float[] snowFlakeYs;
+		private float textAlpha;
+		private float buttonAlpha;
+		
+		public Snapshot(int numSnowFlakes) {
+			snowFlakeXs = new float[numSnowFlakes];
+			snowFlakeYs = new float[numSnowFlakes];
+		}
+	}
 	
 	/**
 	 * Creates a new Animation.  Populates all the sprites.
@@ -69,130 +95,131 @@ public class Animation {
 				AnimationConstant.buttonEndAlpha,
 				AnimationConstant.buttonVelAlpha);
 
-		// snowFlakes
-		snowFlakes = new ArrayList<SnowFlakeSprite>();
-		for (int i = 0; i < AnimationConstant.NUM_SNOWFLAKES; i++) {
-			SnowFlakeSprite snowFlake = new SnowFlakeSprite(canvasBounds);
-			snowFlakes.add(snowFlake);
-		}
+		// snowFlakes: a particle system, so there can be thousands
+		snowFlakes = new ParticleSystem(ImageResource.getInstance(ImageResource.SNOWFLAKE),
+				AnimationConstant.snowFlakeAlpha, canvasBounds,
+				Integer.getInteger(AnimationConstant.snowFlakeCountProperty, AnimationConstant.NUM_SNOWFLAKES));
+		
+		int count = snowFlakes.getCount();
+		snapshots = new TripleBuffer<Snapshot>(new Snapshot(count), new Snapshot(count), new Snapshot(count));
+		publish(); // so there is always a Snapshot to draw
 		
-		initThread();
+		initEvents();
 	}
 	
 	/**
-	 * Initializes all the animation threads (creates them).
+	 * Initializes all the animation events (creates them).  The events are
+	 * run by the Scheduler.
 	 */
-	private void initThread() {
+	private void initEvents() {
 		// snowflake
-		snowFlakeThread = new TimerThread(new TimedEvent(new Runnable() {
+		snowFlakeEvent = new TimedEvent(new Runnable() {
 			public void run() {
-				for (SnowFlakeSprite snowFlake: snowFlakes)
-					snowFlake.move();
+				snowFlakes.move();
+				publish();
 			}
-		}, AnimationConstant.snowFlakeDelay));
-		snowFlakeThread.setName("Snowflake Thread"); // for bookkeeping
+		}, AnimationConstant.snowFlakeDelay);
 		
 		// text
-		textThread = new TimerThread(new TimedEvent(new Runnable() {
+		textEvent = new TimedEvent(new Runnable() {
 			public void run() {
 				text.fadeInStep();
+				publish();
 			}
-		}, AnimationConstant.textFadeInDelay));
-		textThread.setName("Text Thread"); // for bookkeeping
+		}, AnimationConstant.textFadeInDelay);
 		
 		// button
-		buttonThread = new TimerThread(new TimedEvent(new Runnable() {
+		buttonEvent = new TimedEvent(new Runnable() {
 			public void run() {
 				button.fadeInStep();
+				publish();
 			}
-		}, AnimationConstant.buttonFadeInDelay));
-		buttonThread.setName("Button Thread"); // for bookkeeping
-		
-		// launcher: launching snowflakes, text, button
-		launcherThread = new ScenarioThread(new Scenario(Arrays.asList(
-				new TimedEvent(new Runnable() {
-					public void run() {
-						snowFlakeThread.start();
-					}
-				}, AnimationConstant.snowFlakeInitDelay),
-				new TimedEvent(new Runnable() {
-					public void run() {
-						textThread.start();
-					}
-				}, AnimationConstant.textInitDelay),
-				new TimedEvent(new Runnable() {
-					public void run() {
-						buttonThread.start();
-					}
-				}, AnimationConstant.buttonInitDelay)
-		)));
-		launcherThread.setName("Animation Launcher Thread"); // for bookkeeping
+		}, AnimationConstant.buttonFadeInDelay);
 	}
 	
 	/**
 	 * Replays the animation.  Resets the sprites to their original states.
-	 * The sprites are not recreated though, but only reset.  Terminates all
-	 * running threads started by this instance.
+	 * The sprites are not recreated though, but only reset.  Cancels all
+	 * running events scheduled by this instance.
 	 */
 	public void replay() {
-		terminateThreads();
+		cancelEvents();
 	
 		text.replay();
 		button.replay();
-		for (SnowFlakeSprite snowFlake: snowFlakes)
-			snowFlake.replay();
+		snowFlakes.replay();
+		publish();
 		
-		launchThreads();
+		scheduleEvents();
 	}
 	
 	/**
-	 * Launches all animation threads.  Before this method is call,
-	 * all threads must not be running.
+	 * Schedules all animation events: launches snowflakes, then text after
+	 * the snowflakes, then button after the text.  Before this method is
+	 * called, all events must not be running.
 	 */
-	private void launchThreads() {
-		initThread(); // must create new Threads!
-		launcherThread.start(); // will finally launch all other threads
+	private void scheduleEvents() {
+		Scheduler scheduler = Scheduler.getInstance();
+		
+		int snowFlakeStart = AnimationConstant.snowFlakeInitDelay;
+		int textStart = snowFlakeStart + AnimationConstant.textInitDelay;
+		int buttonStart = textStart + AnimationConstant.buttonInitDelay;
+		
+		snowFlakeTask = scheduler.scheduleRepeating(snowFlakeEvent,
+				snowFlakeStart + AnimationConstant.snowFlakeDelay);
+		textTask = scheduler.scheduleRepeating(textEvent,
+				textStart + AnimationConstant.textFadeInDelay);
+		buttonTask = scheduler.scheduleRepeating(buttonEvent,
+				buttonStart + AnimationConstant.buttonFadeInDelay);
 	}
 	
 	/**
-	 * Terminates all threads launched by this.
+	 * Cancels all events scheduled by this.  When this returns, none of the
+	 * events is running.
 	 */
-	private void terminateThreads() {
-		launcherThread.interrupt(); // launcher first so it doesn't launch anything!
+	private void cancelEvents() {
+		if (snowFlakeTask != null) snowFlakeTask.cancel();
+		if (textTask != null) textTask.cancel();
+		if (buttonTask != null) buttonTask.cancel();
 		
-		snowFlakeThread.interrupt();
-		textThread.interrupt();
-		buttonThread.interrupt();
+		snowFlakeTask = null;
+		textTask = null;
+		buttonTask = null;
+	}
+	
+	/**
+	 * Copies the current state into the back Snapshot and publishes it.
+	 * Called by the Thread moving the sprites (or by replay, while no event
+	 * runs).
+	 */
+	private void publish() {
+		Snapshot snapshot = snapshots.getBack();
+		snowFlakes.copyPositions(snapshot.snowFlakeXs, snapshot.snowFlakeYs);
+		snapshot.textAlpha = text.getAlpha();
+		snapshot.buttonAlpha = button.getAlpha();
+		snapshots.publish();
 		
-		try {
-			launcherThread.join();
-
-			snowFlakeThread.join();
-			textThread.join();
-			buttonThread.join();
-
-		} catch (InterruptedException e) {
-			// ignored!  this is Swing Thread running
-		}
+		publishedButtonAlpha = snapshot.buttonAlpha;
 	}
 	
 	/**
-	 * Draws itself in the given Graphics.
+	 * Draws the latest Snapshot in the given Graphics.  Must always be called
+	 * from the same Thread.
 	 * @param g
 	 * @param observer
 	 */
 	public void draw(Graphics g, ImageObserver observer) {
-		//Utilities.trace("Animation draw() text alpha = " + text.getAlpha());
+		Snapshot snapshot = snapshots.getFront();
+		Log.trace("Animation draw() text alpha = %f", snapshot.textAlpha);
 		
 		// snowflake
-		for (SnowFlakeSprite snowFlake: snowFlakes)
-			snowFlake.draw(g, observer);
+		snowFlakes.draw(g, snapshot.snowFlakeXs, snapshot.snowFlakeYs, observer);
 		
 		// text
-		text.draw(g, observer);
+		text.draw(g, snapshot.textAlpha, observer);
 		
 		// button
-		button.draw(g, observer);
+		button.draw(g, snapshot.buttonAlpha, observer);
 	}
 
 	/**
@@ -202,7 +229,7 @@ public class Animation {
 	 * @return true if yes, false otherwise
 	 */
 	public boolean isReplayHovered(Point point) {
-		return button.isHovered(point);
+		return button.contains(point) && publishedButtonAlpha >= AnimationConstant.buttonVisibilityAlpha;
 	}
 
 }
@@ -1,10 +1,15 @@
 package main;
 
 import java.awt.Graphics;
+import java.awt.Graphics2D;
+import java.awt.GraphicsConfiguration;
 import java.awt.Image;
 import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
 import java.awt.image.ImageObserver;
+import java.awt.image.VolatileImage;
 
+import main.sprite.ScaledImageCache;
 import resource.ImageResource;
 
 /**
@@ -12,7 +17,10 @@ import resource.ImageResource;
  * etc.  This is a model class.  The view class is Canvas.
  * This class contains methods pertaining to the specific animation to run.
  * 
- * The Image is scaled according to the specified width and height.
+ * The Image is scaled according to the specified width and height, once per
+ * size (see ScaledImageCache).  The scaled image is copied into a
+ * VolatileImage in video memory, so drawing the background every frame is an
+ * accelerated blit.  The VolatileImage is restored when its surface is lost.
  * 
  * @author Derianto Kusuma
  *
@@ -20,9 +28,13 @@ import resource.ImageResource;
 public class BackgroundImage {
 
 	private ImageResource imageRes;
-	private Image scaledImage;
+	private ScaledImageCache scaledImageCache;
 	private Rectangle canvasBounds;
 	
+	// only used by the Swing Thread
+	private VolatileImage volatileImage;
+	private BufferedImage volatileSource; // what volatileImage holds
+	
 	/**
 	 * Default constructor.  Initializes the background image.
 	 * The Image will be scaled according to the specified width and height
@@ -36,16 +48,16 @@ public class BackgroundImage {
 	}
 
 	/**
-	 * Initializes the image resource.
+	 * Initializes the image resource, and starts scaling it.
 	 */
 	public void init() {
 		imageRes = ImageResource.getInstance(ImageResource.BACKGROUND);
 		
 		if (imageRes == null) {
-			scaledImage = null;
+			scaledImageCache = null;
 		} else {
-			scaledImage = imageRes.getImage().
-				getScaledInstance(canvasBounds.width, canvasBounds.height, Image.SCALE_DEFAULT);
+			scaledImageCache = ScaledImageCache.getInstance(imageRes);
+			scaledImageCache.getScaled(canvasBounds.width, canvasBounds.height);
 		}			
 	}
 
@@ -58,18 +70,68 @@ public class BackgroundImage {
 
 	/**
 	 * Returns the Image to draw (with the specified width and height).
-	 * @return null if the Image doesn't exist.	 
+	 * @return null if the Image doesn't exist or is not scaled yet.
 	 */
 	public Image getImage() {
-		return scaledImage;
+		if (scaledImageCache == null) return null;
+		
+		return scaledImageCache.getScaled(canvasBounds.width, canvasBounds.height);
 	}
 	
 	/**
-	 * Draws itself.
+	 * Draws itself.  Until the scaled image is ready, draws the original
+	 * image scaled on the fly.
 	 * @param g
 	 * @param observer
 	 */
 	public void draw(Graphics g, ImageObserver observer) {
-		g.drawImage(getImage(), canvasBounds.x, canvasBounds.y, observer);
+		if (imageRes == null) return;
+		
+		BufferedImage scaled = (BufferedImage) getImage();
+		if (scaled == null) {
+			g.drawImage(imageRes.getImage(), canvasBounds.x, canvasBounds.y,
+					canvasBounds.width, canvasBounds.height, observer);
+			return;
+		}
+		
+		if (!(g instanceof Graphics2D)) {
+			g.drawImage(scaled, canvasBounds.x, canvasBounds.y, observer);
+			return;
+		}
+		
+		// the usual VolatileImage loop: redo if the contents got lost
+		GraphicsConfiguration gc = ((Graphics2D) g).getDeviceConfiguration();
+		do {
+			validateVolatileImage(gc, scaled);
+			g.drawImage(volatileImage, canvasBounds.x, canvasBounds.y, observer);
+		} while (volatileImage.contentsLost());
+	}
+	
+	/**
+	 * Makes sure the VolatileImage exists, is compatible with the device and
+	 * holds the scaled image.
+	 * @param gc the device drawn on
+	 * @param scaled the scaled image
+	 */
+	private void validateVolatileImage(GraphicsConfiguration gc, BufferedImage scaled) {
+		int status = (volatileImage == null || volatileImage.getWidth() != scaled.getWidth() ||
+				volatileImage.getHeight() != scaled.getHeight()) ?
+				VolatileImage.IMAGE_INCOMPATIBLE : volatileImage.validate(gc);
+		
+		if (status == VolatileImage.IMAGE_INCOMPATIBLE) {
+			if (volatileImage != null)
+				volatileImage.flush();
+			volatileImage = gc.createCompatibleVolatileImage(scaled.getWidth(), scaled.getHeight());
+			volatileSource = null;
+		} else if (status == VolatileImage.IMAGE_RESTORED) {
+			volatileSource = null; // surface lost: the contents are garbage
+		}
+		
+		if (volatileSource != scaled) {
+			Graphics2D vg = volatileImage.createGraphics();
+			vg.drawImage(scaled, 0, 0, null);
+			vg.dispose();
+			volatileSource = scaled;
+		}
 	}
 }
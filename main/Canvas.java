@@ -1,20 +1,25 @@
 package main;
 
+import java.awt.BorderLayout;
 import java.awt.Color;
 import java.awt.Dimension;
 import java.awt.Graphics;
 import java.awt.Rectangle;
 import java.awt.event.MouseAdapter;
 import java.awt.event.MouseEvent;
+import java.awt.image.BufferStrategy;
 
 import javax.swing.JPanel;
 
+import main.thread.RenderLoop;
+import main.thread.ScheduledTask;
+import main.thread.Scheduler;
 import main.thread.TimedEvent;
-import main.thread.TimerThread;
 import main.util.NullImageObserver;
 import resource.AnimationConstant;
 import resource.LayoutConstant;
-import util.Utilities;
+import util.ErrorHandler;
+import util.Log;
 
 /**
  * Encapsulates the canvas in the main frame, where animations and background
@@ -24,7 +29,15 @@ import util.Utilities;
  * Canvas directly handles background image and background music, but not
  * the animations.  All the visual animations are taken care by Animation class.
  * 
- * Canvas is repaint regularly at a constant interval by a specialized Thread.
+ * Canvas is repaint regularly at a constant interval by the Scheduler
+ * (passive mode).  In active mode (system property
+ * virtualpiano.activeRendering=true), a RenderLoop draws the frames itself at
+ * the target frame rate (virtualpiano.targetFps) into the BufferStrategy of a
+ * heavyweight surface covering the Canvas: a JPanel cannot have a
+ * BufferStrategy of its own.
+ * 
+ * While a Canvas is shown, errors are shown in an ErrorBanner over it instead
+ * of in dialogs.
  * 
  * @author Derianto Kusuma
  */
@@ -33,13 +46,20 @@ public class Canvas extends JPanel {
 	private BackgroundMusic backgroundMusic;
 	private BackgroundImage backgroundImage;
 	private Animation animation;
+	private ErrorBanner errorBanner;
 	
 	private int width;
 	private int height;
 	
 	private Rectangle bounds;
 	
-	private Thread repaintThread;
+	private TimedEvent repaintEvent;
+	private ScheduledTask repaintTask; // null while not running
+	
+	// active mode
+	private boolean isActiveRendering;
+	private java.awt.Canvas surface; // null in passive mode
+	private RenderLoop renderLoop; // null while not displayed
 	
 	/**
 	 * Default constructor.  Sets its width according to the width of Piano.
@@ -57,11 +77,19 @@ public class Canvas extends JPanel {
 		backgroundMusic = new BackgroundMusic();
 		backgroundImage = new BackgroundImage(bounds);
 		animation = new Animation(bounds);
+		errorBanner = new ErrorBanner();
+		ErrorHandler.removeSinks(ErrorHandler.DialogSink.class);
+		ErrorHandler.addSink(errorBanner);
 		
 		addMouseListener(new CanvasMouseListener());
 
-		// launch thread
-		initRepaintThread();
+		// repaint event, or the surface for the render loop
+		isActiveRendering = Boolean.getBoolean(AnimationConstant.activeRenderingProperty);
+		if (isActiveRendering) {
+			initSurface();
+		} else {
+			initRepaintEvent();
+		}
 		
 		replay();
 	}
@@ -71,20 +99,31 @@ public class Canvas extends JPanel {
 	 */
 	@Override
 	protected void paintComponent(Graphics g) {
-		//Utilities.trace("Canvas paintComponent");
+		Log.trace("Canvas paintComponent");
 		
 		super.paintComponent(g);
-
+		if (isActiveRendering) return; // the surface covers it all
+		
+		drawFrame(g);
+	}
+	
+	/**
+	 * Draws the background image, the animation and the error banner.
+	 * @param g
+	 */
+	private void drawFrame(Graphics g) {
 		// background image
 		backgroundImage.draw(g, null);
 
 		// all the animations
 		animation.draw(g, null);
+		
+		errorBanner.draw(g, width);
 	}
 	
 	@Override
 	public void repaint() {
-		//Utilities.trace("Canvas repaint");
+		Log.trace("Canvas repaint");
 		super.repaint();
 	}
 	
@@ -92,46 +131,93 @@ public class Canvas extends JPanel {
 	 * Replays the animation.  Resets everything.
 	 */
 	public void replay() {
-		terminateRepaintThread();
+		cancelRepaintEvent();
 		
 		backgroundMusic.play();
 		backgroundImage.replay();
 		animation.replay();
 		
-		launchRepaintThread();
+		if (!isActiveRendering)
+			scheduleRepaintEvent();
+	}
+	
+	/**
+	 * Starts the render loop in active mode, once the surface can have a
+	 * BufferStrategy.
+	 */
+	@Override
+	public void addNotify() {
+		super.addNotify();
+		
+		if (isActiveRendering && renderLoop == null) {
+			surface.createBufferStrategy(2);
+			renderLoop = new RenderLoop(new RenderLoop.Renderer() {
+				public BufferStrategy getBufferStrategy() {
+					return surface.isDisplayable() ? surface.getBufferStrategy() : null;
+				}
+				
+				public void render(Graphics g) {
+					g.setColor(getBackground());
+					g.fillRect(0, 0, width, height);
+					drawFrame(g);
+				}
+			}, Integer.getInteger(AnimationConstant.targetFpsProperty, AnimationConstant.defaultTargetFps));
+			renderLoop.start();
+		}
+	}
+	
+	/**
+	 * Stops the render loop in active mode.
+	 */
+	@Override
+	public void removeNotify() {
+		if (renderLoop != null) {
+			renderLoop.interrupt();
+			renderLoop = null;
+		}
+		
+		super.removeNotify();
+	}
+	
+	/**
+	 * Creates the heavyweight surface the render loop draws on, covering the
+	 * Canvas.
+	 */
+	private void initSurface() {
+		surface = new java.awt.Canvas();
+		surface.setIgnoreRepaint(true); // only the render loop draws on it
+		surface.setPreferredSize(new Dimension(width, height));
+		surface.addMouseListener(new CanvasMouseListener());
+		
+		setLayout(new BorderLayout());
+		add(surface, BorderLayout.CENTER);
 	}
 
 	/**
-	 * Initializes and creates the repaint Thread.
+	 * Initializes and creates the repaint event.
 	 */
-	private void initRepaintThread() {
-		repaintThread = new TimerThread(new TimedEvent(new Runnable() {
+	private void initRepaintEvent() {
+		repaintEvent = new TimedEvent(new Runnable() {
 			public void run() {
 				repaint();
 			}
-		}, AnimationConstant.canvasRepaintDelay));
-		repaintThread.setName("Repaint Thread"); // for bookkeeping
-		
+		}, AnimationConstant.canvasRepaintDelay);
 	}
 	
 	/**
-	 * Launches the Thread to constantly repaint.  Only called once. 
+	 * Schedules the event to constantly repaint.
 	 */
-	private void launchRepaintThread() {
-		initRepaintThread(); // must create new Thread!
-		repaintThread.start();
+	private void scheduleRepaintEvent() {
+		repaintTask = Scheduler.getInstance().scheduleRepeating(repaintEvent);
 	}
 
 	/**
-	 * Terminates the repaint Thread.
-	 *
+	 * Cancels the repaint event.
 	 */
-	private void terminateRepaintThread() {
-		repaintThread.interrupt();
-		try {
-			repaintThread.join();
-		} catch (InterruptedException e) {
-			// ignore.  this is Swing Thread
+	private void cancelRepaintEvent() {
+		if (repaintTask != null) {
+			repaintTask.cancel();
+			repaintTask = null;
 		}
 	}
 
@@ -150,18 +236,5 @@ public class Canvas extends JPanel {
 			}
 		}
 	}
-
-	/**
-	 * Waits for the Thread to quit.
-	 */
-	@Override
-	protected void finalize() throws Throwable {
-		if (repaintThread != null) {
-			repaintThread.interrupt();
-			repaintThread.join();
-		}
-		
-		super.finalize();
-	}
 	
 }
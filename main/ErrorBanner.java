@@ -0,0 +1,90 @@
+package main;
+
+import java.awt.Color;
+import java.awt.Graphics;
+
+import javax.swing.JComponent;
+
+import main.thread.Scheduler;
+import main.thread.TimedEvent;
+import util.ErrorHandler;
+
+/**
+ * An ErrorHandler sink that shows the latest error as a banner over the top
+ * of a component for a few seconds, instead of a dialog.  Either the
+ * component calls draw in its paint and is repainted regularly (like the
+ * Canvas), or the banner is drawn by its own pane (see createPane), e.g. the
+ * glass pane of a frame, repainted when an error comes and goes.
+ * @author Derianto Kusuma
+ *
+ */
+public class ErrorBanner implements ErrorHandler.Sink {
+
+	public static final Color COLOR_BACKGROUND = new Color(0.6f, 0.0f, 0.0f, 0.8f); // translucent dark red
+	public static final Color COLOR_TEXT = new Color(1.0f, 1.0f, 1.0f);
+	public static final int HEIGHT = 20;
+	public static final int TEXT_LEFT = 6;
+	public static final int TEXT_BASELINE = 15;
+	public static final long SHOW_MILLIS = 5000;
+
+	// written by the Error Handler Thread, read by the Swing Thread
+	private volatile String message;
+	private volatile long hideTime;
+	private volatile JComponent pane; // null if the owner repaints regularly
+
+	/**
+	 * Shows the error from now on.  Called from the Error Handler Thread.
+	 */
+	public void report(String message, int numSuppressed) {
+		this.message = ErrorHandler.format(message, numSuppressed);
+		this.hideTime = System.currentTimeMillis() + ErrorBanner.SHOW_MILLIS;
+
+		final JComponent pane = this.pane;
+		if (pane == null) return;
+
+		pane.repaint(); // can be called from any Thread
+		Scheduler.getInstance().schedule(new TimedEvent(new Runnable() {
+			public void run() {
+				pane.repaint(); // hides it
+			}
+		}, (int) ErrorBanner.SHOW_MILLIS + 1));
+	}
+
+	/**
+	 * Creates a transparent pane showing only the banner, to lay over other
+	 * components (e.g. as a glass pane).  The pane is repainted when an error
+	 * is reported and when it is hidden.  At most one pane per ErrorBanner.
+	 * @return the pane
+	 */
+	public JComponent createPane() {
+		pane = new Pane();
+		return pane;
+	}
+
+	/**
+	 * Draws the banner, if an error is being shown.
+	 * @param g
+	 * @param width the width of the component
+	 */
+	public void draw(Graphics g, int width) {
+		String message = this.message;
+		if (message == null || System.currentTimeMillis() > hideTime) return;
+
+		g.setColor(ErrorBanner.COLOR_BACKGROUND);
+		g.fillRect(0, 0, width, ErrorBanner.HEIGHT);
+		g.setColor(ErrorBanner.COLOR_TEXT);
+		g.drawString(message, ErrorBanner.TEXT_LEFT, ErrorBanner.TEXT_BASELINE);
+	}
+
+	/**
+	 * A transparent component drawing the banner.
+	 */
+	private class Pane extends JComponent {
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		protected void paintComponent(Graphics g) {
+			draw(g, getWidth());
+		}
+	}
+}
@@ -0,0 +1,198 @@
+package main;
+
+import java.awt.Dimension;
+import java.awt.Graphics;
+import java.awt.event.MouseAdapter;
+import java.awt.event.MouseEvent;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.TimeUnit;
+
+import javax.sound.midi.Sequence;
+import javax.swing.JPanel;
+
+import main.thread.ScheduledTask;
+import main.thread.Scheduler;
+import main.thread.TimedEvent;
+import music.MusicManager;
+import music.NoteTimeline;
+import music.TempoMap;
+import resource.AnimationConstant;
+import resource.LayoutConstant;
+import resource.MusicResource;
+
+/**
+ * Shows the notes of the music playing as bars falling onto the keys of a
+ * Piano: a note reaches the keys when it sounds.  The bars are aligned with
+ * the KeyGeometry of the Piano, and only the notes within its range are
+ * shown.
+ *
+ * The notes of each Sequence are indexed once in a NoteTimeline, in the
+ * background, so a frame only touches the notes visible.  Repainted
+ * regularly by the Scheduler while it is displayed.  Clicking it plays the
+ * background music.
+ *
+ * @author Derianto Kusuma
+ */
+public class FallingNotesView extends JPanel {
+
+	private static final long serialVersionUID = 1L;
+
+	private Piano piano;
+	private int width;
+	private int height;
+	private long lookAheadMicros;
+	private ScheduledTask repaintTask; // null while not displayed
+
+	// guarded by this.  a null value means indexing
+	private Map<Sequence, NoteTimeline> timelines = new WeakHashMap<Sequence, NoteTimeline>();
+
+	/**
+	 * Creates a FallingNotesView above the specified Piano.
+	 * @param piano
+	 */
+	public FallingNotesView(Piano piano) {
+		this.piano = piano;
+		this.width = piano.getPianoWidth();
+		this.height = LayoutConstant.fallingNotesHeight;
+		this.lookAheadMicros = TimeUnit.MILLISECONDS.toMicros(AnimationConstant.fallingNotesLookAhead);
+
+		setPreferredSize(new Dimension(width, height));
+		setBackground(LayoutConstant.fallingNotesBackgroundColor);
+		addMouseListener(new FallingNotesMouseListener());
+	}
+
+	/**
+	 * Starts repainting the notes regularly.
+	 */
+	@Override
+	public void addNotify() {
+		super.addNotify();
+
+		if (repaintTask == null) {
+			repaintTask = Scheduler.getInstance().scheduleRepeating(new TimedEvent(new Runnable() {
+				public void run() {
+					repaint();
+				}
+			}, AnimationConstant.canvasRepaintDelay));
+		}
+	}
+
+	/**
+	 * Stops repainting: the Scheduler doesn't keep a view not shown.
+	 */
+	@Override
+	public void removeNotify() {
+		if (repaintTask != null) {
+			repaintTask.cancel();
+			repaintTask = null;
+		}
+
+		super.removeNotify();
+	}
+
+	/**
+	 * Paints the notes coming up in the music playing.
+	 */
+	@Override
+	protected void paintComponent(Graphics g) {
+		super.paintComponent(g);
+
+		MusicManager musicManager = MusicManager.getInstance();
+		Sequence sequence = musicManager.getSequence();
+		if (sequence == null) return;
+
+		NoteTimeline timeline = getTimeline(sequence);
+		if (timeline == null) return; // not indexed yet
+
+		drawNotes(g, timeline, musicManager.getTickPosition());
+	}
+
+	/**
+	 * Draws the notes from the tick to the look-ahead: the plain keys first,
+	 * the chromatic keys over them.
+	 * @param g
+	 * @param timeline
+	 * @param tick the position in the music, at the bottom
+	 */
+	public void drawNotes(Graphics g, NoteTimeline timeline, long tick) {
+		TempoMap tempoMap = timeline.getTempoMap();
+		long now = tempoMap.tickToMicros(tick);
+		long endTick = tempoMap.microsToTick(now + lookAheadMicros);
+
+		KeyGeometry geometry = piano.getKeyGeometry();
+		int basePitch = piano.getBasePitch();
+		int numKeys = Math.min(geometry.getNumKeys(), MusicManager.NUM_PITCHES - basePitch);
+
+		for (int pass = 0; pass < 2; pass++) {
+			boolean isChromatic = pass == 1;
+			g.setColor((isChromatic) ? LayoutConstant.fallingNoteChromaticColor : LayoutConstant.fallingNotePlainColor);
+
+			for (int no = 0; no < numKeys; no++) {
+				if (geometry.isChromatic(no) != isChromatic) continue;
+
+				int pitch = basePitch + no;
+				int left = geometry.getLeft(no) + 1;
+				int barWidth = Math.max(geometry.getWidth(no) - 2, 1);
+				int numNotes = timeline.getNumNotes(pitch);
+				for (int i = timeline.findFirst(pitch, tick); i < numNotes; i++) {
+					long start = timeline.getStart(pitch, i);
+					if (start >= endTick) break;
+					long end = timeline.getEnd(pitch, i);
+					if (end <= tick) continue; // overlapped by a longer note
+
+					int bottom = toY(tempoMap.tickToMicros(Math.max(start, tick)) - now);
+					int top = toY(tempoMap.tickToMicros(Math.min(end, endTick)) - now);
+					g.fillRect(left, top, barWidth, Math.max(bottom - top - 1, 1)); // a gap between repeated notes
+				}
+			}
+		}
+	}
+
+	/**
+	 * Returns the y of a time ahead: the bottom is now, the top is the
+	 * look-ahead.
+	 */
+	private int toY(long microsAhead) {
+		return height - (int)(microsAhead * height / lookAheadMicros);
+	}
+
+	/**
+	 * Returns the NoteTimeline of the Sequence.  Starts indexing it in the
+	 * background at the first call.
+	 * @return the NoteTimeline, or null if it is not ready yet
+	 */
+	private synchronized NoteTimeline getTimeline(final Sequence sequence) {
+		if (timelines.containsKey(sequence))
+			return timelines.get(sequence);
+
+		timelines.put(sequence, null); // indexing
+		Thread thread = new Thread("Note Timeline Thread") { // for bookkeeping
+			@Override
+			public void run() {
+				NoteTimeline timeline = new NoteTimeline(sequence);
+				synchronized (FallingNotesView.this) {
+					timelines.put(sequence, timeline);
+				}
+			}
+		};
+		thread.setDaemon(true);
+		thread.setPriority(Thread.MIN_PRIORITY);
+		thread.start();
+		return null;
+	}
+
+	/*########################################################################
+	 *  L I S T E N E R   I N T E R F A C E S
+	 *########################################################################*/
+
+	/**
+	 * Plays the background music on click.
+	 */
+	private class FallingNotesMouseListener extends MouseAdapter {
+		@Override
+		public void mouseClicked(MouseEvent e) {
+			MusicResource.getInstance(MusicResource.BACKGROUND).play();
+		}
+	}
+}
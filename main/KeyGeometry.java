@@ -0,0 +1,247 @@
+package main;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import music.MusicalNote;
+import resource.LayoutConstant;
+
+/**
+ * The layout of a row of piano keys: the position and size of every key, kept
+ * in primitive arrays indexed by key number, plus per-column lookup tables for
+ * hit testing.  Depends only on the number of keys and the pitch class of the
+ * first key, so it is shared by all Pianos (manuals) with the same range, and
+ * shifting octaves doesn't change it.
+ *
+ * If the keys would make the piano wider than LayoutConstant.maxPianoWidth,
+ * they are narrowed, so a full 128-key range still fits.
+ *
+ * Implements factory pattern.
+ *
+ * @author Derianto Kusuma
+ *
+ */
+public class KeyGeometry {
+
+	public static final int KEY_NOT_FOUND = -1;
+
+	// factory: keyed by numKeys * OCTAVE_PITCH_DELTA + first pitch class
+	private static Map<Integer, KeyGeometry> geometries = new HashMap<Integer, KeyGeometry>();
+
+	private int numKeys;
+	private boolean[] isChromatic;
+	private int[] left;
+	private int[] top;
+	private int[] width;
+	private int[] height;
+
+	private int keyLeftOffset; // distance between two plain keys
+	private int numPlainKeys;
+	private int totalWidth;
+
+	// hit testing: the candidate key number at each pixel column, or KEY_NOT_FOUND
+	private int[] plainKeyAtColumn;
+	private int[] chromaticKeyAtColumn;
+
+	/**
+	 * Returns the geometry of a row of keys.
+	 * @param numKeys
+	 * @param firstPitch the pitch of the leftmost key (only its pitch class
+	 * matters)
+	 * @return the shared KeyGeometry
+	 */
+	public static synchronized KeyGeometry getInstance(int numKeys, int firstPitch) {
+		int pitchClass = firstPitch % MusicalNote.OCTAVE_PITCH_DELTA;
+		Integer id = numKeys * MusicalNote.OCTAVE_PITCH_DELTA + pitchClass;
+
+		KeyGeometry geometry = geometries.get(id);
+		if (geometry == null) {
+			geometry = new KeyGeometry(numKeys, pitchClass);
+			geometries.put(id, geometry);
+		}
+		return geometry;
+	}
+
+	/**
+	 * Computes the geometry.
+	 * @param numKeys
+	 * @param firstPitchClass 0..11
+	 */
+	private KeyGeometry(int numKeys, int firstPitchClass) {
+		this.numKeys = numKeys;
+		isChromatic = new boolean[numKeys];
+		left = new int[numKeys];
+		top = new int[numKeys];
+		width = new int[numKeys];
+		height = new int[numKeys];
+
+		numPlainKeys = 0;
+		for (int i = 0; i < numKeys; i++) {
+			isChromatic[i] = MusicalNote.isChromatic(firstPitchClass + i);
+			if (!isChromatic[i])
+				numPlainKeys++;
+		}
+
+		// narrow the keys if the piano would be too wide
+		int plainKeyWidth = LayoutConstant.plainKeyWidth;
+		int chromaticKeyWidth = LayoutConstant.chromaticKeyWidth;
+		int maxOffset = (LayoutConstant.maxPianoWidth - LayoutConstant.pianoKeyLeft) / Math.max(numPlainKeys, 1);
+		if (plainKeyWidth + 1 > maxOffset) {
+			plainKeyWidth = Math.max(maxOffset - 1, LayoutConstant.minPlainKeyWidth);
+			chromaticKeyWidth = plainKeyWidth * LayoutConstant.chromaticKeyWidth / LayoutConstant.plainKeyWidth;
+		}
+		keyLeftOffset = plainKeyWidth + 1;
+
+		// the left coordinate of the next plain key.  room for a leading chromatic key
+		int pianoKeyCurLeft = LayoutConstant.pianoKeyLeft;
+		if (numKeys > 0 && isChromatic[0])
+			pianoKeyCurLeft += keyLeftOffset / 2;
+
+		// position the keys
+		for (int i = 0; i < numKeys; i++) {
+			top[i] = LayoutConstant.pianoKeyTop;
+			if (isChromatic[i]) {
+				left[i] = pianoKeyCurLeft - chromaticKeyWidth / 2;
+				width[i] = chromaticKeyWidth;
+				height[i] = LayoutConstant.chromaticKeyHeight;
+			} else {
+				left[i] = pianoKeyCurLeft;
+				width[i] = plainKeyWidth;
+				height[i] = LayoutConstant.plainKeyHeight;
+				pianoKeyCurLeft += keyLeftOffset; // move next plain left
+			}
+		}
+
+		// precisely the width of Piano JPanel, including a trailing chromatic key
+		totalWidth = pianoKeyCurLeft;
+		if (numKeys > 0 && isChromatic[numKeys - 1])
+			totalWidth += keyLeftOffset / 2;
+
+		initColumnIndex();
+	}
+
+	/**
+	 * Builds the per-column lookup tables.  Plain keys don't overlap each
+	 * other and neither do chromatic keys, so each column has at most one
+	 * candidate of each kind.
+	 */
+	private void initColumnIndex() {
+		plainKeyAtColumn = new int[totalWidth];
+		chromaticKeyAtColumn = new int[totalWidth];
+		Arrays.fill(plainKeyAtColumn, KeyGeometry.KEY_NOT_FOUND);
+		Arrays.fill(chromaticKeyAtColumn, KeyGeometry.KEY_NOT_FOUND);
+
+		for (int i = 0; i < numKeys; i++) {
+			int[] column = (isChromatic[i]) ? chromaticKeyAtColumn : plainKeyAtColumn;
+			int from = Math.max(left[i], 0);
+			int to = Math.min(left[i] + width[i], totalWidth);
+			for (int x = from; x < to; x++)
+				column[x] = i;
+		}
+	}
+
+	/**
+	 * Returns the key number at the supplied point.  Constant time.
+	 * @param x
+	 * @param y
+	 * @return the key number or KEY_NOT_FOUND
+	 */
+	public int getKeyNoAt(int x, int y) {
+		if (x < 0 || x >= totalWidth)
+			return KeyGeometry.KEY_NOT_FOUND;
+
+		// chromatic first
+		int no = chromaticKeyAtColumn[x];
+		if (no != KeyGeometry.KEY_NOT_FOUND && contains(no, x, y))
+			return no;
+
+		// plain second
+		no = plainKeyAtColumn[x];
+		if (no != KeyGeometry.KEY_NOT_FOUND && contains(no, x, y))
+			return no;
+
+		return KeyGeometry.KEY_NOT_FOUND;
+	}
+
+	/**
+	 * Returns whether the key contains the point.
+	 * @param no the key number
+	 * @param x
+	 * @param y
+	 * @return true if yes, false otherwise
+	 */
+	public boolean contains(int no, int x, int y) {
+		return x >= left[no] && x < left[no] + width[no] &&
+			   y >= top[no] && y < top[no] + height[no];
+	}
+
+	/**
+	 * Returns the first key whose right edge is after x.  Keys are ordered
+	 * left to right, and so are their right edges.
+	 * @param x
+	 * @return the key number, or numKeys if none
+	 */
+	public int getFirstKeyEndingAfter(int x) {
+		int lo = 0;
+		int hi = numKeys;
+		while (lo < hi) {
+			int mid = (lo + hi) >>> 1;
+			if (left[mid] + width[mid] <= x)
+				lo = mid + 1;
+			else
+				hi = mid;
+		}
+		return lo;
+	}
+
+	/**
+	 * Returns the first key whose left edge is at or after x.
+	 * @param x
+	 * @return the key number, or numKeys if none
+	 */
+	public int getFirstKeyStartingAt(int x) {
+		int lo = 0;
+		int hi = numKeys;
+		while (lo < hi) {
+			int mid = (lo + hi) >>> 1;
+			if (left[mid] < x)
+				lo = mid + 1;
+			else
+				hi = mid;
+		}
+		return lo;
+	}
+
+	public int getNumKeys() {
+		return numKeys;
+	}
+
+	public boolean isChromatic(int no) {
+		return isChromatic[no];
+	}
+
+	public int getLeft(int no) {
+		return left[no];
+	}
+
+	public int getTop(int no) {
+		return top[no];
+	}
+
+	public int getWidth(int no) {
+		return width[no];
+	}
+
+	public int getHeight(int no) {
+		return height[no];
+	}
+
+	/**
+	 * Returns the width of the whole row of keys.
+	 * @return the width
+	 */
+	public int getTotalWidth() {
+		return totalWidth;
+	}
+}
@@ -3,13 +3,17 @@ package main;
 import java.awt.GridBagLayout;
 import java.awt.event.WindowAdapter;
 import java.awt.event.WindowEvent;
+import java.util.ArrayList;
+import java.util.List;
 
 import javax.swing.JFrame;
 import javax.swing.JOptionPane;
 import javax.swing.JPanel;
 
 import main.util.CustomGridBagConstraints;
+import music.MusicManager;
 import resource.LayoutConstant;
+import util.ErrorHandler;
 
 
 /**
@@ -21,7 +25,8 @@ import resource.LayoutConstant;
 public class MainFrame extends JFrame {
 	
 	private Canvas canvas;
-	private Piano piano;
+	private FallingNotesView fallingNotesView; // null if not shown
+	private List<Piano> pianos; // the manuals, top to bottom
 	
 	/**
 	 * Returns the content panel.  The content panel contains the canvas and
@@ -29,17 +34,76 @@ public class MainFrame extends JFrame {
 	 * @return
 	 */
 	private JPanel createContentPanel() {
-		piano = new Piano();
-		//canvas = new Canvas(piano.getPianoWidth());
+		pianos = createPianos();
+		//canvas = new Canvas(pianos.get(0).getPianoWidth());
 		
 		JPanel contentPanel = new JPanel();
 		contentPanel.setLayout(new GridBagLayout());
 		//contentPanel.add(canvas, new CustomGridBagConstraints(0, 0));
-		contentPanel.add(piano, new CustomGridBagConstraints(0, 1));
+		if (Boolean.getBoolean(LayoutConstant.fallingNotesProperty)) {
+			fallingNotesView = new FallingNotesView(pianos.get(0));
+			contentPanel.add(fallingNotesView, new CustomGridBagConstraints(0, 0));
+		}
+		for (int i = 0; i < pianos.size(); i++)
+			contentPanel.add(pianos.get(i), new CustomGridBagConstraints(0, 1 + i));
 		
 		return contentPanel;
 	}
 	
+	/**
+	 * Shows the errors in an ErrorBanner over the top of the frame instead
+	 * of in dialogs, unless the Canvas shows them.
+	 */
+	private void initErrorBanner() {
+		if (canvas != null) return; // the Canvas has its own
+		
+		ErrorBanner errorBanner = new ErrorBanner();
+		setGlassPane(errorBanner.createPane());
+		getGlassPane().setVisible(true); // transparent, and lets the mouse through
+		ErrorHandler.removeSinks(ErrorHandler.DialogSink.class);
+		ErrorHandler.addSink(errorBanner);
+	}
+	
+	/**
+	 * Creates the manuals described by the manuals system property (or the
+	 * default).  Each manual plays on its own channel, counting down from the
+	 * synth channel.  A manual may be layered with a second instrument, which
+	 * takes a free channel below those of the manuals.
+	 * @return the Pianos, top to bottom
+	 */
+	private List<Piano> createPianos() {
+		String manuals = System.getProperty(LayoutConstant.manualsProperty, LayoutConstant.defaultManuals);
+		
+		List<Piano> pianos = new ArrayList<Piano>();
+		List<Integer> layerInstruments = new ArrayList<Integer>();
+		for (String manual: manuals.split(",")) {
+			String[] parts = manual.trim().split(":");
+			try {
+				int basePitch = Integer.parseInt(parts[0].trim());
+				int numKeys = (parts.length > 1) ? Integer.parseInt(parts[1].trim()) : Piano.DEFAULT_NUM_KEYS;
+				int layerInstrument = (parts.length > 2) ? Integer.parseInt(parts[2].trim()) : -1;
+				pianos.add(new Piano(basePitch, numKeys, MusicManager.SYNTH_CHANNEL_NO - pianos.size()));
+				layerInstruments.add(layerInstrument);
+			} catch (NumberFormatException e) {
+				ErrorHandler.display("Wrong manual description: " + manual);
+			}
+			if (pianos.size() == LayoutConstant.maxManuals)
+				break;
+		}
+		
+		if (pianos.isEmpty())
+			pianos.add(new Piano());
+		
+		// layers last, so they don't take the channels of the manuals
+		for (int i = 0; i < layerInstruments.size(); i++) {
+			int layerInstrument = layerInstruments.get(i);
+			if (layerInstrument >= 0 && layerInstrument < MusicManager.NUM_INSTRUMENT)
+				MusicManager.getInstance().addLayer(pianos.get(i).getChannel(), layerInstrument);
+		}
+		
+		return pianos;
+	}
+	
 	/**
 	 * Constructs a default EditFrame.
 	 */
@@ -47,6 +111,7 @@ public class MainFrame extends JFrame {
 		super("Virtual Piano");
 		
 		add(createContentPanel());
+		initErrorBanner();
 		
 		// housekeeping
 		setLocationByPlatform(true);
@@ -15,15 +15,18 @@ import resource.ImageResource;
 public class Pedal {
 
 	private boolean isDown;
+	private int channel;
 
 	// listener list
 	private List<PedalListener> listeners;
 
 	/**
 	 * Creates a unpressed pedal (default position).  
+	 * @param channel the synthesizer channel this pedal controls
 	 */
-	public Pedal() {
+	public Pedal(int channel) {
 		isDown = false;
+		this.channel = channel;
 
 		this.listeners = new ArrayList<PedalListener>();
 	}
@@ -52,9 +55,9 @@ public class Pedal {
 	 */
 	public void setDown(boolean isDown) {			
 		if (!this.isDown && isDown) {
-			MusicManager.getInstance().pedalDown();
+			MusicManager.getInstance().pedalDown(channel);
 		} else if (this.isDown && !isDown) {
-			MusicManager.getInstance().pedalUp();
+			MusicManager.getInstance().pedalUp(channel);
 		}
 
 		this.isDown = isDown;
@@ -1,5 +1,6 @@
 package main;
 
+import java.awt.Color;
 import java.awt.Dimension;
 import java.awt.Graphics;
 import java.awt.Point;
@@ -9,54 +10,117 @@ import java.awt.event.KeyEvent;
 import java.awt.event.MouseAdapter;
 import java.awt.event.MouseEvent;
 import java.awt.event.MouseMotionAdapter;
+import java.io.File;
+import java.io.IOException;
+import java.text.SimpleDateFormat;
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Date;
 import java.util.List;
-import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
 
+import javax.sound.midi.MidiSystem;
 import javax.swing.JPanel;
+import javax.swing.SwingUtilities;
 
+import main.thread.ScheduledTask;
+import main.thread.Scheduler;
+import main.thread.TimedEvent;
 import music.MusicManager;
 import music.MusicalNote;
+import music.NoteActivity;
+import music.PerformanceRecorder;
+import resource.AnimationConstant;
+import resource.KeyboardLayout;
 import resource.LayoutConstant;
+import util.ErrorHandler;
+import util.Log;
 
 /**
  * The piano panel contains clickable piano keys and pedal.
+ * 
+ * A Piano is one manual: a range of keys (up to the full 128-note MIDI range)
+ * playing on its own synthesizer channel, so several Pianos can be stacked,
+ * each with its own instrument.  The position of the keys is kept in a
+ * KeyGeometry shared by all manuals with the same range.
+ * 
+ * While displayed, the keys sounded by the music are lit.  The NoteActivity
+ * of the music is polled once per frame by the Scheduler, and the keys are
+ * only updated (on the Swing Thread) if it has changed: however many notes
+ * the music plays in a frame, the keys are updated once, and only the keys
+ * that change are repainted.
+ * 
  * @author Derianto Kusuma
  */
 public class Piano extends JPanel {
 
 	private static final int NUM_OCTAVES = 3;
-	private static final int NUM_KEYS = MusicalNote.OCTAVE_PITCH_DELTA * Piano.NUM_OCTAVES + 1;
 	private static final int NUM_KEYS_PER_OCTAVE = 12;
-	private static final int KEY_NOT_FOUND = -1;
+	private static final int KEY_NOT_FOUND = KeyGeometry.KEY_NOT_FOUND;
 
-	// Default base pitch (lowest playable C)
-	private static final int DEFAULT_BASE_PITCH = 48;
-	private static final int MIN_BASE_PITCH = 0;
-	private static final int MAX_BASE_PITCH = 216;
+	// Default range: 3 octaves from C4 (lowest playable C)
+	public static final int DEFAULT_NUM_KEYS = MusicalNote.OCTAVE_PITCH_DELTA * Piano.NUM_OCTAVES + 1;
+	public static final int DEFAULT_BASE_PITCH = 48;
+	public static final int MIN_PITCH = 0;
+	public static final int MAX_PITCH = 127;
+
+	// recordings are saved in the working directory
+	private static final String RECORDING_FILE_FORMAT = "'performance-'yyyyMMdd-HHmmss";
+	private static final String RECORDING_EXTENSION = ".vpr";
+	private static final String EXPORT_EXTENSION = ".mid";
 
 	private List<PianoKey> pianoKeys;
 	private Pedal pedal;
+	private KeyGeometry keyGeometry;
+	private int numKeys;
+	private int channel;
 	
 	// of the Piano JPanel
 	private int width;
 	private int height;
 	private Point pedalPos;
+	private Rectangle pedalBounds;
 	
 	private int currentHovered = KEY_NOT_FOUND;
 	
-	private int basePitch = DEFAULT_BASE_PITCH;
+	private int basePitch; // the pitch of the leftmost key
+	private int typingOffset; // the key number where the keyboard layout starts
+	
+	private KeyboardLayout keyboardLayout;
+	private int keyboardLayoutId;
 	
-	private Map<Integer, Integer> keyMap;
+	private VelocitySensor velocitySensor = new VelocitySensor();
+	private boolean isMousePlaying =
+		!"false".equalsIgnoreCase(System.getProperty(LayoutConstant.mousePlayingProperty));
+
+	// keys lit by the music
+	private NoteActivity noteActivity;
+	private ScheduledTask keyLightTask; // null while not displayed
+	private Runnable keyLighter; // reused: nothing allocated per frame but the Swing event
+	private AtomicBoolean isKeyLightPending = new AtomicBoolean();
+	private volatile int litVersion; // the version of the NoteActivity the keys show
 	
 	/**
-	 * Default constructor.
+	 * Default constructor.  3 octaves from C4, on the synth channel.
 	 */
 	public Piano() {
+		this(Piano.DEFAULT_BASE_PITCH, Piano.DEFAULT_NUM_KEYS, MusicManager.SYNTH_CHANNEL_NO);
+	}
+	
+	/**
+	 * Creates a Piano (manual) with the specified range.
+	 * @param basePitch the pitch of the leftmost key
+	 * @param numKeys the number of keys.  The range is clamped to 0..127
+	 * @param channel the synthesizer channel to play on
+	 */
+	public Piano(int basePitch, int numKeys, int channel) {
+		this.basePitch = Math.max(Math.min(basePitch, Piano.MAX_PITCH), Piano.MIN_PITCH);
+		this.numKeys = Math.max(Math.min(numKeys, Piano.MAX_PITCH - this.basePitch + 1), 1);
+		this.channel = channel;
+		
 		createKeys();		
 		createPedal();
-		initKeyMap();
+		setKeyboardLayout(KeyboardLayout.QWERTY);
+		MusicManager.getInstance().setSynthInstrument(channel, MusicManager.SYNTH_INSTRUMENT);
 		
 		// width already assigned in createKeys()
 		height = LayoutConstant.keyFrameHeight + LayoutConstant.pedalPadding +
@@ -68,87 +132,44 @@ public class Piano extends JPanel {
 		addMouseMotionListener(new PianoMouseMotionListener());
 		addMouseListener(new PianoMouseListener());
 		addKeyListener(new PianoViewKeyListener());
+		
+		noteActivity = MusicManager.getInstance().getNoteActivity();
+		litVersion = noteActivity.getVersion() - 1; // lights the keys at the first frame
+		keyLighter = new Runnable() {
+			public void run() {
+				isKeyLightPending.set(false);
+				lightKeys();
+			}
+		};
 	}
 
-	/**
-	 * A bootstrap method to initialize the key map.  The key map is a map
-	 * from virtual key codes (VK_blablabla) to the key number.
-	 */
-	private void initKeyMap() {
-		keyMap = new HashMap<Integer, Integer>();
-		keyMap.put(KeyEvent.VK_Z, 12 * 0 + 0); // C4
-		keyMap.put(KeyEvent.VK_S, 12 * 0 + 1);
-		keyMap.put(KeyEvent.VK_X, 12 * 0 + 2);
-		keyMap.put(KeyEvent.VK_D, 12 * 0 + 3);
-		keyMap.put(KeyEvent.VK_C, 12 * 0 + 4);
-		keyMap.put(KeyEvent.VK_V, 12 * 0 + 5);
-		keyMap.put(KeyEvent.VK_G, 12 * 0 + 6);
-		keyMap.put(KeyEvent.VK_B, 12 * 0 + 7);    
-		keyMap.put(KeyEvent.VK_H, 12 * 0 + 8);
-		keyMap.put(KeyEvent.VK_N, 12 * 0 + 9);
-		keyMap.put(KeyEvent.VK_J, 12 * 0 + 10);
-		keyMap.put(KeyEvent.VK_M, 12 * 0 + 11);
-		keyMap.put(KeyEvent.VK_Q, 12 * 1 + 0); // C5
-		keyMap.put(KeyEvent.VK_2, 12 * 1 + 1);
-		keyMap.put(KeyEvent.VK_W, 12 * 1 + 2);
-		keyMap.put(KeyEvent.VK_3, 12 * 1 + 3);
-		keyMap.put(KeyEvent.VK_E, 12 * 1 + 4);
-		keyMap.put(KeyEvent.VK_R, 12 * 1 + 5);
-		keyMap.put(KeyEvent.VK_5, 12 * 1 + 6);
-		keyMap.put(KeyEvent.VK_T, 12 * 1 + 7);
-		keyMap.put(KeyEvent.VK_6, 12 * 1 + 8);
-		keyMap.put(KeyEvent.VK_Y, 12 * 1 + 9);
-		keyMap.put(KeyEvent.VK_7, 12 * 1 + 10);
-		keyMap.put(KeyEvent.VK_U, 12 * 1 + 11);
-		keyMap.put(KeyEvent.VK_I, 12 * 2 + 0); // C6
-		keyMap.put(KeyEvent.VK_9, 12 * 2 + 1);
-		keyMap.put(KeyEvent.VK_O, 12 * 2 + 2);
-		keyMap.put(KeyEvent.VK_0, 12 * 2 + 3);
-		keyMap.put(KeyEvent.VK_P, 12 * 2 + 4);
-		keyMap.put(KeyEvent.VK_OPEN_BRACKET, 12 * 2 + 5);
-		keyMap.put(KeyEvent.VK_EQUALS, 12 * 2 + 6);
-		keyMap.put(KeyEvent.VK_CLOSE_BRACKET, 12 * 2 + 7);
-		keyMap.put(KeyEvent.VK_BACK_SPACE, 12 * 2 + 8);
-		keyMap.put(KeyEvent.VK_BACK_SLASH, 12 * 2 + 9);
-	}
-	
 	/**
 	 * Create the piano keys, initializes them, registers listeners.
 	 * Also populates width.
 	 */
 	private void createKeys() {
-		pianoKeys = new ArrayList<PianoKey>();
-		
-		// the left coordinate of the next plain key
-		int pianoKeyCurLeft = LayoutConstant.pianoKeyLeft;
+		keyGeometry = KeyGeometry.getInstance(numKeys, basePitch);
+		pianoKeys = new ArrayList<PianoKey>(numKeys);
+		PianoKeyListener listener = new PianoPianoKeyListener();
 		
-		// creates the PianoKey's and position them correctly
-		for (int i = 0; i < Piano.NUM_KEYS; i++) {
+		// creates the PianoKey's.  their position is in the KeyGeometry
+		for (int i = 0; i < numKeys; i++) {
 			PianoKey pianoKey = new PianoKey(this, i);
-			
-			// position it
-			if (pianoKey.isChromatic()) {
-				pianoKey.setBounds(new Rectangle(
-						pianoKeyCurLeft - LayoutConstant.chromaticKeyWidth / 2,
-						LayoutConstant.pianoKeyTop,
-						LayoutConstant.chromaticKeyWidth,
-						LayoutConstant.chromaticKeyHeight));
-			} else {
-				pianoKey.setBounds(new Rectangle(
-						pianoKeyCurLeft,
-						LayoutConstant.pianoKeyTop,
-						LayoutConstant.plainKeyWidth,
-						LayoutConstant.plainKeyHeight));
-				pianoKeyCurLeft += LayoutConstant.keyLeftOffset; // move next plain left
-			}
-			
-			// register listener
-			pianoKey.addListener(new PianoPianoKeyListener());
-			
+			pianoKey.addListener(listener);
 			pianoKeys.add(pianoKey);
 		}
 		
-		width = pianoKeyCurLeft; // precisely the width of Piano JPanel!
+		width = keyGeometry.getTotalWidth(); // precisely the width of Piano JPanel!
+		typingOffset = getFirstCOffset();
+	}
+	
+	/**
+	 * Returns the key number of the leftmost C.
+	 * @return the key number
+	 */
+	private int getFirstCOffset() {
+		int pitchClass = basePitch % MusicalNote.OCTAVE_PITCH_DELTA;
+		return (MusicalNote.OCTAVE_PITCH_DELTA - pitchClass) % MusicalNote.OCTAVE_PITCH_DELTA;
 	}
 
 	/**
@@ -156,7 +177,7 @@ public class Piano extends JPanel {
 	 * pedalPos.
 	 */
 	private void createPedal() {
-		pedal = new Pedal();
+		pedal = new Pedal(channel);
 
 		// register listener
 		pedal.addListener(new PianoPedalListener());
@@ -164,6 +185,8 @@ public class Piano extends JPanel {
 		// we can assume that Piano width is already determined
 		pedalPos = new Point((width - LayoutConstant.pedalWidth) / 2,
 							  LayoutConstant.keyFrameHeight + LayoutConstant.pedalPadding);
+		pedalBounds = new Rectangle(pedalPos.x, pedalPos.y,
+				LayoutConstant.pedalWidth, LayoutConstant.pedalHeight);
 	}
 	
 	/**
@@ -177,53 +200,129 @@ public class Piano extends JPanel {
 	}
 	
 	/**
-	 * Paints the whole Piano JPanel.
+	 * Paints the Piano JPanel.  Only the parts intersecting the clip (the
+	 * dirty region) are painted: a key change only repaints that key and the
+	 * keys overlapping it, and a pedal change only repaints the pedal.
 	 * @param g
 	 */
 	@Override
 	protected void paintComponent(Graphics g) {
+		Rectangle clip = g.getClipBounds();
+		if (clip == null)
+			clip = new Rectangle(0, 0, width, height);
+		
+		if (pedalBounds.contains(clip)) {
+			paintPedal(g);
+			return;
+		}
+		
 		super.paintComponent(g);
-		paintKeys(g);
-		paintPedalArea(g);
+		if (clip.y < LayoutConstant.keyFrameHeight)
+			paintKeys(g, clip);
+		if (clip.y + clip.height > LayoutConstant.keyFrameHeight)
+			paintPedalArea(g);
 	}
 
 	@Override
 	public void repaint() {
-		//Utilities.trace("Piano repaint()");
+		Log.trace("Piano repaint()");
 		super.repaint();
 	}
-	
+
 	/**
-	 * Paints all the piano keys with its frames.
-	 * @param g
+	 * Starts lighting the keys sounded by the music.
 	 */
-	private void paintKeys(Graphics g) {		
-		// paint key frames
-		for (int i = 0; i < Piano.NUM_KEYS; i++) {
-			g.setColor(PianoKey.COLOR_KEY_FRAME);
-			g.drawRect(LayoutConstant.keyFrameLeft + i * LayoutConstant.keyLeftOffset,
-					   LayoutConstant.keyFrameTop, LayoutConstant.keyFrameWidth - 1,
-					   LayoutConstant.keyFrameHeight - 1);
+	@Override
+	public void addNotify() {
+		super.addNotify();
+		
+		if (keyLightTask == null) {
+			keyLightTask = Scheduler.getInstance().scheduleRepeating(new TimedEvent(new Runnable() {
+				public void run() {
+					// at most one update queued, whatever the Swing Thread is doing
+					if (noteActivity.getVersion() != litVersion && isKeyLightPending.compareAndSet(false, true))
+						SwingUtilities.invokeLater(keyLighter);
+				}
+			}, AnimationConstant.keyLightDelay));
+		}
+	}
+
+	/**
+	 * Stops lighting the keys: the Scheduler doesn't keep a Piano not shown.
+	 */
+	@Override
+	public void removeNotify() {
+		if (keyLightTask != null) {
+			keyLightTask.cancel();
+			keyLightTask = null;
 		}
 		
-		// plain first
-		for (PianoKey key: pianoKeys) {
-			if (!key.isChromatic()) {
-				g.setColor(key.getFillColor());
-				Rectangle bounds = key.getBounds();
-				g.fillRect(bounds.x, bounds.y, bounds.width, bounds.height);
-			}
+		super.removeNotify();
+	}
+	
+	/**
+	 * Lights the keys sounded by the music, and only those.  Called on the
+	 * Swing Thread.
+	 */
+	private void lightKeys() {
+		litVersion = noteActivity.getVersion(); // before the pitches: a later change is seen next frame
+		for (int i = 0; i < numKeys; i++) {
+			PianoKey pianoKey = pianoKeys.get(i);
+			pianoKey.setLit(noteActivity.isSounding(pianoKey.getPitch()));
 		}
+	}
+	
+	/**
+	 * Paints the piano keys with its frames that intersect the clip.  The keys
+	 * are filled in batches of the same color, looking up only the keys in
+	 * the clip.
+	 * @param g
+	 * @param clip
+	 */
+	private void paintKeys(Graphics g, Rectangle clip) {		
+		int first = keyGeometry.getFirstKeyEndingAfter(clip.x);
+		int end = keyGeometry.getFirstKeyStartingAt(clip.x + clip.width);
+		
+		// key frames: the gaps between the keys
+		g.setColor(PianoKey.COLOR_KEY_FRAME);
+		g.fillRect(LayoutConstant.keyFrameLeft, LayoutConstant.keyFrameTop,
+				   width, LayoutConstant.keyFrameHeight);
 		
-		// chromatic second
-		for (PianoKey key: pianoKeys) {
-			if (key.isChromatic()) {
-				g.setColor(key.getFillColor());
-				Rectangle bounds = key.getBounds();
-				g.fillRect(bounds.x, bounds.y, bounds.width, bounds.height);
+		// plain first, chromatic second
+		paintKeys(g, first, end, false, PianoKey.COLOR_NORMAL_PLAIN);
+		paintKeys(g, first, end, false, PianoKey.COLOR_LIT_PLAIN);
+		paintKeys(g, first, end, false, PianoKey.COLOR_DOWN_PLAIN);
+		paintKeys(g, first, end, true, PianoKey.COLOR_NORMAL_CHROMATIC);
+		paintKeys(g, first, end, true, PianoKey.COLOR_LIT_CHROMATIC);
+		paintKeys(g, first, end, true, PianoKey.COLOR_DOWN_CHROMATIC);
+	}
+	
+	/**
+	 * Fills the keys in [first, end) of one kind having one fill color.
+	 * @param g
+	 * @param first
+	 * @param end
+	 * @param isChromatic the kind of keys to fill
+	 * @param color the fill color of the keys to fill (see PianoKey.getFillColor)
+	 */
+	private void paintKeys(Graphics g, int first, int end, boolean isChromatic, Color color) {
+		g.setColor(color);
+		for (int i = first; i < end; i++) {
+			if (keyGeometry.isChromatic(i) == isChromatic && pianoKeys.get(i).getFillColor() == color) {
+				g.fillRect(keyGeometry.getLeft(i), keyGeometry.getTop(i),
+						keyGeometry.getWidth(i), keyGeometry.getHeight(i));
 			}
 		}
-		
+	}
+	
+	/**
+	 * Paints only the pedal (with the background behind it).
+	 * @param g
+	 */
+	private void paintPedal(Graphics g) {
+		g.setColor(LayoutConstant.pianoBackgroundColor);
+		g.fillRect(pedalBounds.x, pedalBounds.y, pedalBounds.width, pedalBounds.height);
+		g.drawImage(pedal.getImage(), pedalPos.x, pedalPos.y, null);
 	}
 	
 	/**
@@ -241,36 +340,24 @@ public class Piano extends JPanel {
 		// instrument number and octave number
 		g.setFont(LayoutConstant.instrumentNumberFont);
 		g.setColor(LayoutConstant.instrumentNumberColor);
-		g.drawString(MusicManager.getInstance().getSynthInstrument() + ". " +
-				MusicManager.getInstance().getInstrumentName(),
+		int instrument = MusicManager.getInstance().getSynthInstrument(channel);
+		g.drawString(instrument + ". " + MusicManager.getInstrumentName(instrument),
 				LayoutConstant.instrumentNumberLeft,
 				LayoutConstant.keyFrameHeight + LayoutConstant.instrumentNumberPadding);
 		
-		g.drawString("C" + getBasePitch() / 12,
+		g.drawString("C" + (getBasePitch() + typingOffset) / MusicalNote.OCTAVE_PITCH_DELTA,
 				LayoutConstant.octaveNumberLeft,
 				LayoutConstant.keyFrameHeight + LayoutConstant.instrumentNumberPadding);
-	}
-	
-	/**
-	 * Paints only the given PianoKey and its neighboring keys.
-	 * Currently unused.
-	 * @param g
-	 * @param pianoKey
-	 */
-	private void paintKey(Graphics g, PianoKey pianoKey) {
-		// if the specified key is chromatic, draw neighbors first
-		// otherwise, draw the specified key first
 		
-		// nothing
-	}
-
-	/**
-	 * Paints only the pedal area.
-	 * Currently unused.
-	 * @param g
-	 */
-	private void paintPedal(Graphics g) {
-		// nothing
+		g.drawString(keyboardLayout.getName(),
+				LayoutConstant.keyboardLayoutNameLeft,
+				LayoutConstant.keyFrameHeight + LayoutConstant.instrumentNumberPadding);
+		
+		if (MusicManager.getInstance().getRecorder() != null) {
+			g.drawString(LayoutConstant.recordingLabel,
+					LayoutConstant.recordingLabelLeft,
+					LayoutConstant.keyFrameHeight + LayoutConstant.instrumentNumberPadding);
+		}
 	}
 	
 	/**
@@ -280,22 +367,7 @@ public class Piano extends JPanel {
 	 * @return the key number or KEY_NOT_FOUND
 	 */
 	public int getKeyNoHovered(Point point) {
-		// chromatic first
-		for (PianoKey key: pianoKeys) {
-			if (key.isChromatic())
-				if (key.containPoint(point))
-					return key.getNo();
-		}
-
-		// plain second
-		for (PianoKey key: pianoKeys) {
-			if (!key.isChromatic())
-				if (key.containPoint(point))
-					return key.getNo();
-		}
-		
-		return Piano.KEY_NOT_FOUND;
-		
+		return keyGeometry.getKeyNoAt(point.x, point.y);
 	}
 	
 	/**
@@ -308,6 +380,35 @@ public class Piano extends JPanel {
 		return width;
 	}
 	
+	/**
+	 * Returns the positions of the keys.  Used by the PianoKeys.
+	 * @return the KeyGeometry
+	 */
+	public KeyGeometry getKeyGeometry() {
+		return keyGeometry;
+	}
+	
+	/**
+	 * Returns the synthesizer channel of this manual.  Used by the PianoKeys.
+	 * @return the channel
+	 */
+	public int getChannel() {
+		return channel;
+	}
+	
+	public int getNumKeys() {
+		return numKeys;
+	}
+	
+	/**
+	 * Returns the key of the specified number.
+	 * @param no 0 is the leftmost key
+	 * @return the PianoKey
+	 */
+	public PianoKey getPianoKey(int no) {
+		return pianoKeys.get(no);
+	}
+	
 	/**
 	 * Returns the base pitch number of the Piano.  Used by the PianoKeys.
 	 * @return the base pitch
@@ -321,20 +422,112 @@ public class Piano extends JPanel {
 	 *########################################################################*/
 
 	/**
-	 * Increases the base pitch by one octave.
+	 * Increases the base pitch by one octave, if the range stays in 0..127.
 	 */
 	public void incOctave() {
-		if (basePitch < MAX_BASE_PITCH) {
+		if (basePitch + numKeys - 1 + NUM_KEYS_PER_OCTAVE <= MAX_PITCH) {
 			basePitch += NUM_KEYS_PER_OCTAVE;
+			lightKeys(); // other pitches now
 		}
 	}
 	
 	/**
-	 * Decreases the base pitch by one octave.
+	 * Decreases the base pitch by one octave, if the range stays in 0..127.
 	 */
 	public void decOctave() {
-		if (basePitch > MIN_BASE_PITCH) {
+		if (basePitch - NUM_KEYS_PER_OCTAVE >= MIN_PITCH) {
 			basePitch -= NUM_KEYS_PER_OCTAVE;
+			lightKeys(); // other pitches now
+		}
+	}
+	
+	/**
+	 * Moves the keys played by the computer keyboard one octave up, within
+	 * the keys of this manual.  Useful on manuals wider than the layout.
+	 */
+	public void incTypingOctave() {
+		if (typingOffset + NUM_KEYS_PER_OCTAVE < numKeys) {
+			typingOffset += NUM_KEYS_PER_OCTAVE;
+		}
+	}
+	
+	/**
+	 * Moves the keys played by the computer keyboard one octave down.
+	 */
+	public void decTypingOctave() {
+		if (typingOffset - NUM_KEYS_PER_OCTAVE >= 0) {
+			typingOffset -= NUM_KEYS_PER_OCTAVE;
+		}
+	}
+	
+	/**
+	 * Sets the keyboard layout used to map the computer keyboard to the
+	 * piano keys.  Can be called at any time: the keys currently down are
+	 * released first.
+	 * @param id the id of the KeyboardLayout
+	 */
+	public void setKeyboardLayout(int id) {
+		if (keyboardLayout != null)
+			reset();
+		
+		keyboardLayoutId = id;
+		keyboardLayout = KeyboardLayout.getInstance(id);
+	}
+	
+	/**
+	 * Switches to the next available keyboard layout.
+	 */
+	public void nextKeyboardLayout() {
+		setKeyboardLayout((keyboardLayoutId + 1) % KeyboardLayout.getCount());
+	}
+	
+	/**
+	 * Returns the piano key mapped to the key code by the keyboard layout.
+	 * @param keyCode
+	 * @return the PianoKey, or null if none
+	 */
+	private PianoKey getMappedKey(int keyCode) {
+		int no = keyboardLayout.getKeyNo(keyCode);
+		if (no == KeyboardLayout.KEY_NOT_FOUND)
+			return null;
+		
+		no += typingOffset;
+		if (no < 0 || no >= numKeys)
+			return null;
+		
+		return pianoKeys.get(no);
+	}
+	
+	/**
+	 * Starts recording the performance if not recording, stops it otherwise.
+	 * When stopped, the recording is also exported as a MIDI file next to it.
+	 */
+	public void toggleRecording() {
+		MusicManager musicManager = MusicManager.getInstance();
+		PerformanceRecorder recorder = musicManager.getRecorder();
+		
+		if (recorder == null) {
+			String name = new SimpleDateFormat(Piano.RECORDING_FILE_FORMAT).format(new Date());
+			recorder = new PerformanceRecorder(new File(name + Piano.RECORDING_EXTENSION));
+			try {
+				recorder.start();
+				musicManager.setRecorder(recorder);
+			} catch (IOException e) {
+				ErrorHandler.display("Cannot create " + recorder.getFile());
+			}
+			
+		} else {
+			musicManager.setRecorder(null);
+			File file = recorder.getFile();
+			String path = file.getPath();
+			File export = new File(path.substring(0, path.length() - Piano.RECORDING_EXTENSION.length()) +
+					Piano.EXPORT_EXTENSION);
+			try {
+				recorder.stop();
+				MidiSystem.write(PerformanceRecorder.toSequence(file), 0, export);
+			} catch (IOException e) {
+				ErrorHandler.display("Cannot save the recording " + file);
+			}
 		}
 	}
 	
@@ -377,16 +570,24 @@ public class Piano extends JPanel {
 	private class PianoMouseListener extends MouseAdapter {
 		@Override
 		public void mousePressed(MouseEvent e) {
-			/*int hovered = getKeyNoHovered(e.getPoint());
-			if (hovered != Piano.KEY_NOT_FOUND)
-				pianoKeys.get(hovered).setDown(true);*/
+			requestFocusInWindow(); // the computer keyboard plays the clicked manual
+			if (!isMousePlaying) return;
+			
+			// the velocity depends on how far down the key is pressed
+			int hovered = getKeyNoHovered(e.getPoint());
+			setCurrentHovered(hovered);
+			if (hovered != Piano.KEY_NOT_FOUND && !pianoKeys.get(hovered).isDown())
+				pianoKeys.get(hovered).setDown(true, VelocitySensor.getMouseVelocity(e.getY(),
+						keyGeometry.getTop(hovered), keyGeometry.getHeight(hovered)), e.getWhen());
 		}
 		
 		@Override
 		public void mouseReleased(MouseEvent e) {
-			/*int hovered = getKeyNoHovered(e.getPoint());
+			if (!isMousePlaying) return;
+			
+			int hovered = getKeyNoHovered(e.getPoint());
 			if (hovered != Piano.KEY_NOT_FOUND)
-				pianoKeys.get(hovered).setDown(false);*/
+				pianoKeys.get(hovered).setDown(false);
 		}
 	}
 	
@@ -401,10 +602,18 @@ public class Piano extends JPanel {
 			if (keyCode == LayoutConstant.pedalKey) {
 				pedal.setDown(true);
 			} else if (keyCode == KeyEvent.VK_LEFT) { // instrument --
-				MusicManager.getInstance().decSynthInstrument();
+				MusicManager.getInstance().decSynthInstrument(channel);
 				repaint();
 			} else if (keyCode == KeyEvent.VK_RIGHT) { // instrument ++
-				MusicManager.getInstance().incSynthInstrument();
+				MusicManager.getInstance().incSynthInstrument(channel);
+				repaint();
+			} else if (keyCode == KeyEvent.VK_PAGE_UP && e.isShiftDown()) { // typing octave ++
+				reset();
+				incTypingOctave();
+				repaint();
+			} else if (keyCode == KeyEvent.VK_PAGE_DOWN && e.isShiftDown()) { // typing octave --
+				reset();
+				decTypingOctave();
 				repaint();
 			} else if (keyCode == KeyEvent.VK_PAGE_UP) { // octave ++
 				reset();
@@ -417,9 +626,16 @@ public class Piano extends JPanel {
 			} else if (keyCode == KeyEvent.VK_ENTER) { // reset
 				reset();
 				repaint();
+			} else if (keyCode == LayoutConstant.recordKey) { // start / stop recording
+				toggleRecording();
+				repaint();
+			} else if (keyCode == LayoutConstant.keyboardLayoutKey) { // next layout
+				nextKeyboardLayout();
+				repaint();
 			} else {
-				if (keyMap.containsKey(keyCode))
-					pianoKeys.get(keyMap.get(keyCode)).setDown(true);
+				PianoKey pianoKey = getMappedKey(keyCode);
+				if (pianoKey != null && !pianoKey.isDown()) // a key repeat is not a new note
+					pianoKey.setDown(true, velocitySensor.getKeyVelocity(e.getWhen()), e.getWhen());
 			}
 		}
 		
@@ -430,8 +646,9 @@ public class Piano extends JPanel {
 			if (keyCode == LayoutConstant.pedalKey) {
 				pedal.setDown(false);
 			} else {
-				if (keyMap.containsKey(keyCode))
-					pianoKeys.get(keyMap.get(keyCode)).setDown(false);
+				PianoKey pianoKey = getMappedKey(keyCode);
+				if (pianoKey != null)
+					pianoKey.setDown(false);
 			}
 		}
 	}
@@ -441,7 +658,10 @@ public class Piano extends JPanel {
 	 */
 	private class PianoPianoKeyListener implements PianoKeyListener {
 		public void pianoKeyNeedsRedraw(PianoKey pianoKey) {
-			repaint();
+			// the keys overlapping this key are repainted as they intersect
+			int no = pianoKey.getNo();
+			repaint(keyGeometry.getLeft(no), keyGeometry.getTop(no),
+					keyGeometry.getWidth(no), keyGeometry.getHeight(no));
 		}
 	}
 	
@@ -450,7 +670,7 @@ public class Piano extends JPanel {
 	 */
 	private class PianoPedalListener implements PedalListener {
 		public void pedalNeedsRedraw(Pedal pedal) {
-			repaint();
+			repaint(pedalBounds);
 		}
 	}
 	
@@ -7,11 +7,11 @@ import java.util.ArrayList;
 import java.util.List;
 
 import music.MusicManager;
-import music.MusicalNote;
 
 /**
  * Encapsulates a single piano key which knows its pitch, color to draw,
- * location, etc.
+ * location, etc.  The location is not stored in the key: it is looked up in
+ * the KeyGeometry shared by the Piano.
  * @author Derianto Kusuma
  *
  */
@@ -23,6 +23,8 @@ public class PianoKey {
 	public static final Color COLOR_DOWN_PLAIN = new Color(1.0f, 1.0f, 0.5f); // light yellow
 	public static final Color COLOR_NORMAL_CHROMATIC = new Color(0.0f, 0.0f, 0.0f);
 	public static final Color COLOR_DOWN_CHROMATIC = new Color(0.5f, 0.5f, 0.2f); // dark yellow
+	public static final Color COLOR_LIT_PLAIN = new Color(0.6f, 0.8f, 1.0f); // light blue
+	public static final Color COLOR_LIT_CHROMATIC = new Color(0.2f, 0.35f, 0.6f); // dark blue
 	
 	// I decide to do this (even though a little dirty) because the Piano is the
 	// context of a PianoKey.  A PianoKey cannot live without the Piano it
@@ -32,14 +34,15 @@ public class PianoKey {
 	private int no;
 	private int pitchOffset;
 	private boolean isChromatic;
-	private Rectangle bounds;
 	private boolean isDown;
+	private boolean isLit; // sounded by the music, not played
+	private int soundingPitch; // the pitch started when the key went down
 
 	// listener list
 	private List<PianoKeyListener> listeners;
 
 	/**
-	 * Creates a PianoKey.  Must call setBounds after this.
+	 * Creates a PianoKey.
 	 * @param no the index of the key.  0 means the leftmost key displayed on
 	 * the piano.  no is not a pitch, but no and pitch has a consistent
 	 * difference.
@@ -48,8 +51,7 @@ public class PianoKey {
 		this.piano = piano;
 		this.no = no;
 		this.pitchOffset = no;
-		this.isChromatic = MusicalNote.isChromatic(pitchOffset);
-		this.bounds = null;
+		this.isChromatic = piano.getKeyGeometry().isChromatic(no);
 		this.isDown = false; // initially, no key is down (pressed)
 		
 		this.listeners = new ArrayList<PianoKeyListener>();
@@ -61,24 +63,49 @@ public class PianoKey {
 	 * @return true if yes, false otherwise
 	 */
 	public boolean containPoint(Point point) {
-		return bounds.contains(point);
+		return piano.getKeyGeometry().contains(no, point.x, point.y);
 	}
 
 	/**
-	 * Returns the fill color of the key (for drawing purpose).
+	 * Returns the fill color of the key (for drawing purpose).  A key down
+	 * shows as down even if it is lit.
 	 * @return
 	 */
 	public Color getFillColor() {
-		return (isChromatic) ?
-				((isDown) ? PianoKey.COLOR_DOWN_CHROMATIC : PianoKey.COLOR_NORMAL_CHROMATIC)
-				:
-				((isDown) ? PianoKey.COLOR_DOWN_PLAIN : PianoKey.COLOR_NORMAL_PLAIN);
+		if (isDown)
+			return (isChromatic) ? PianoKey.COLOR_DOWN_CHROMATIC : PianoKey.COLOR_DOWN_PLAIN;
+		if (isLit)
+			return (isChromatic) ? PianoKey.COLOR_LIT_CHROMATIC : PianoKey.COLOR_LIT_PLAIN;
+		return (isChromatic) ? PianoKey.COLOR_NORMAL_CHROMATIC : PianoKey.COLOR_NORMAL_PLAIN;
 	}
 
-	public Rectangle getBounds() {
+	/**
+	 * Stores the drawing bounds of this piano key in the specified Rectangle,
+	 * so nothing is allocated (like Component.getBounds(Rectangle)).
+	 * @param bounds the Rectangle to reuse
+	 * @return bounds
+	 */
+	public Rectangle getBounds(Rectangle bounds) {
+		bounds.setBounds(getLeft(), getTop(), getWidth(), getHeight());
 		return bounds;
 	}
 	
+	public int getLeft() {
+		return piano.getKeyGeometry().getLeft(no);
+	}
+	
+	public int getTop() {
+		return piano.getKeyGeometry().getTop(no);
+	}
+	
+	public int getWidth() {
+		return piano.getKeyGeometry().getWidth(no);
+	}
+	
+	public int getHeight() {
+		return piano.getKeyGeometry().getHeight(no);
+	}
+	
 	public boolean isChromatic() {
 		return isChromatic;
 	}
@@ -87,6 +114,10 @@ public class PianoKey {
 		return isDown; 
 	}
 	
+	public boolean isLit() {
+		return isLit;
+	}
+	
 	public int getPitch() {
 		return pitchOffset + piano.getBasePitch();
 	}
@@ -99,26 +130,57 @@ public class PianoKey {
 	 *  S E T T E R S
 	 *########################################################################*/
 
-	public void setBounds(Rectangle bounds) {
-		this.bounds = bounds;
+	/**
+	 * Sets whether this key is down, with the default velocities.
+	 * @param isDown true means down, false means up
+	 */
+	public void setDown(boolean isDown) {
+		setDown(isDown, (isDown) ? MusicManager.SYNTH_NOTE_VELOCITY : MusicManager.SYNTH_RELEASE_VELOCITY);
 	}
-	
+
 	/**
 	 * Sets whether this key is down.  Also plays the musical note as a
-	 * side effect of this setter method.
+	 * side effect of this setter method.  Releasing the key stops the pitch
+	 * that was started, even if the octave has changed in between.
 	 * @param isDown true means down, false means up
+	 * @param velocity the velocity of the note if the key goes down, the
+	 * release velocity if it goes up
 	 */
-	public void setDown(boolean isDown) {
+	public void setDown(boolean isDown, int velocity) {
+		setDown(isDown, velocity, System.currentTimeMillis());
+	}
+
+	/**
+	 * Sets whether this key is down, for an input event.
+	 * @param isDown true means down, false means up
+	 * @param velocity the velocity of the note if the key goes down, the
+	 * release velocity if it goes up
+	 * @param when the time of the input event, e.g. InputEvent.getWhen(): the
+	 * note on latency is measured from it
+	 */
+	public void setDown(boolean isDown, int velocity, long when) {
 		if (!this.isDown && isDown) {
-			MusicManager.getInstance().playNote(getPitch());
+			soundingPitch = getPitch();
+			MusicManager.getInstance().playNote(piano.getChannel(), soundingPitch, velocity, when);
 		} else if (this.isDown && !isDown) {
-			// TODO: What happens if the octave changes before note stopped?
-			MusicManager.getInstance().stopNote(getPitch());
+			MusicManager.getInstance().stopNote(piano.getChannel(), soundingPitch, velocity);
 		}
 			
 		this.isDown = isDown;
 		fireNeedsRedraw(); // even though isDown doesn't change 
 	}
+
+	/**
+	 * Sets whether this key is lit: its pitch is sounded by the music.  Unlike
+	 * setDown, plays nothing, and only redraws if it changes.
+	 * @param isLit
+	 */
+	public void setLit(boolean isLit) {
+		if (this.isLit == isLit) return;
+		
+		this.isLit = isLit;
+		fireNeedsRedraw();
+	}
 	
 	/*########################################################################
 	 *  L I S T E N E R S
@@ -0,0 +1,87 @@
+package main;
+
+import music.MusicManager;
+
+/**
+ * Derives the velocity of the notes from how they are played, since a
+ * computer keyboard and a mouse don't tell how hard a key is hit.
+ *
+ * Computer keyboard: the faster the notes follow each other, the louder they
+ * are, smoothed so a single quick note doesn't jump out.  Notes pressed
+ * together (a chord) get the same velocity.  Mouse: the nearer to the front
+ * edge of the key it is pressed, the louder, as on a real key.
+ *
+ * Everything is plain int arithmetic on the input path: nothing is
+ * allocated.  Only used by the event dispatch Thread.
+ *
+ * @author Derianto Kusuma
+ *
+ */
+public class VelocitySensor {
+
+	// -Dvirtualpiano.velocitySensitive=false plays every note with the default velocity
+	public static final String VELOCITY_SENSITIVE_PROPERTY = "virtualpiano.velocitySensitive";
+
+	public static final int MIN_KEY_VELOCITY = 72;
+	public static final int MAX_KEY_VELOCITY = MusicManager.MAX_VELOCITY;
+	public static final int MIN_MOUSE_VELOCITY = 40;
+	public static final int MAX_MOUSE_VELOCITY = MusicManager.MAX_VELOCITY;
+
+	// notes further apart than this are played softest, closer than FAST loudest
+	private static final long SLOW_MILLIS = 600;
+	private static final long FAST_MILLIS = 80;
+	// notes closer than this are a chord
+	private static final long CHORD_MILLIS = 30;
+
+	private static final boolean isSensitive =
+		!"false".equalsIgnoreCase(System.getProperty(VelocitySensor.VELOCITY_SENSITIVE_PROPERTY));
+
+	private long lastWhen;
+	private int velocity = MusicManager.SYNTH_NOTE_VELOCITY;
+
+	/**
+	 * Returns the velocity of a note played with the computer keyboard.
+	 * Must be called once per note played, not for key repeats.
+	 * @param when the time of the key press, as in KeyEvent.getWhen
+	 * @return MIN_KEY_VELOCITY to MAX_KEY_VELOCITY
+	 */
+	public int getKeyVelocity(long when) {
+		if (!VelocitySensor.isSensitive) return MusicManager.SYNTH_NOTE_VELOCITY;
+
+		long interval = when - lastWhen;
+		lastWhen = when;
+		if (interval < VelocitySensor.CHORD_MILLIS)
+			return velocity;
+
+		int target;
+		if (interval >= VelocitySensor.SLOW_MILLIS) {
+			target = VelocitySensor.MIN_KEY_VELOCITY;
+		} else if (interval <= VelocitySensor.FAST_MILLIS) {
+			target = VelocitySensor.MAX_KEY_VELOCITY;
+		} else {
+			target = VelocitySensor.MAX_KEY_VELOCITY - (int)
+				((interval - VelocitySensor.FAST_MILLIS) *
+				(VelocitySensor.MAX_KEY_VELOCITY - VelocitySensor.MIN_KEY_VELOCITY) /
+				(VelocitySensor.SLOW_MILLIS - VelocitySensor.FAST_MILLIS));
+		}
+
+		velocity += (target - velocity) / 2; // halfway: smoothed
+		return velocity;
+	}
+
+	/**
+	 * Returns the velocity of a note played with the mouse.
+	 * @param y the y position of the mouse
+	 * @param top the top of the key, e.g. from the KeyGeometry
+	 * @param height the height of the key
+	 * @return MIN_MOUSE_VELOCITY (at the top of the key) to MAX_MOUSE_VELOCITY
+	 * (at the front edge)
+	 */
+	public static int getMouseVelocity(int y, int top, int height) {
+		if (!VelocitySensor.isSensitive) return MusicManager.SYNTH_NOTE_VELOCITY;
+
+		int depth = Math.max(0, Math.min(y - top, height));
+		return VelocitySensor.MIN_MOUSE_VELOCITY +
+			depth * (VelocitySensor.MAX_MOUSE_VELOCITY - VelocitySensor.MIN_MOUSE_VELOCITY) / Math.max(height, 1);
+	}
+}
@@ -3,32 +3,73 @@ package main;
 import javax.swing.JOptionPane;
 import javax.swing.UIManager;
 
+import main.thread.StartupPipeline;
+
+import music.LatencyHistogram;
 import music.MusicManager;
 
 import resource.ImageResource;
+import resource.KeyboardLayout;
 import resource.MusicResource;
 
+import util.Utilities;
+
 /**
  * Cointains the starting point of the program.
  * @author Derianto Kusuma
  */
 public class VirtualPiano {
 
+	// system property: if "true", prints the note latency when the program exits
+	public static final String LATENCY_REPORT_PROPERTY = "virtualpiano.latencyReport";
+	
+	// system property: if "true", prints the duration of each startup phase
+	public static final String STARTUP_REPORT_PROPERTY = "virtualpiano.startupReport";
+
 	/**
 	 * The starting point of the program.  Accepts no parameters.
 	 * Sets up things and display the main dialog.
 	 * @param args
 	 */
 	public static void main(String[] args) {
+		// init resources and systems concurrently.  opening the synthesizer is
+		// the slowest; the rest is loaded on first use where possible
+		StartupPipeline startup = new StartupPipeline();
+		startup.submit("synthesizer", new Runnable() {
+			public void run() {
+				MusicManager.init();
+			}
+		});
+		startup.submit("instrument names", new Runnable() {
+			public void run() {
+				MusicManager.initInstrumentNames();
+			}
+		});
+		startup.submit("images", new Runnable() {
+			public void run() {
+				ImageResource.initFactory();
+				// needed for the first frame.  the rest is loaded on first use
+				ImageResource.preload(ImageResource.PEDAL_UP, ImageResource.PEDAL_DOWN);
+			}
+		});
+		startup.submit("keyboard layouts", new Runnable() {
+			public void run() {
+				KeyboardLayout.initFactory();
+			}
+		});
+		MusicResource.initFactory(); // parsed on first use
+		
 		// use current platform's look and feel 
 		try {
 			UIManager.setLookAndFeel(UIManager.getSystemLookAndFeelClassName());
 		} catch (Exception ignored) {}
-
-		// init resources and systems
-		ImageResource.initFactory();
-		MusicResource.initFactory();
-		MusicManager.init();
+		startup.mark("look and feel");
+		
+		startup.await();
+		startup.mark("waiting for startup");
+		
+		if (Boolean.getBoolean(VirtualPiano.LATENCY_REPORT_PROPERTY))
+			addLatencyReport();
 		
 		// intro message box
 		/*JOptionPane.showMessageDialog(null, "Tips:\nSpacebar = pedal",
@@ -36,10 +77,29 @@ public class VirtualPiano {
 		
 		// create and show the main dialog
 		MainFrame mainFrame = new MainFrame();
+		startup.mark("main frame");
 		
 		mainFrame.setVisible(true);
+		startup.mark("shown");
+		
+		if (Boolean.getBoolean(VirtualPiano.STARTUP_REPORT_PROPERTY))
+			Utilities.trace(startup.getReport());
 		
 		// TODO
 	}
 
+	/**
+	 * Prints the note on latency (p50 / p99) when the program exits.
+	 */
+	private static void addLatencyReport() {
+		Runtime.getRuntime().addShutdownHook(new Thread() {
+			@Override
+			public void run() {
+				LatencyHistogram latency = MusicManager.getInstance().getNoteOnLatency();
+				if (latency != null)
+					Utilities.trace("Note on latency: " + latency);
+			}
+		});
+	}
+
 }
@@ -0,0 +1,203 @@
+package main.sprite;
+
+import java.awt.AlphaComposite;
+import java.awt.Composite;
+import java.awt.Graphics;
+import java.awt.Graphics2D;
+import java.awt.GraphicsEnvironment;
+import java.awt.Image;
+import java.awt.Transparency;
+import java.awt.image.BufferedImage;
+import java.awt.image.ImageObserver;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import resource.ImageResource;
+
+/**
+ * Caches the frames of an image at the alpha levels a Sprite can be drawn
+ * with.  Alpha is quantized to NUM_LEVELS levels, fine enough for a fade.
+ * A frame is built the first time its level is requested; after that drawing
+ * a Sprite only costs a blit.
+ *
+ * The frames are only cached for small images (e.g. the snowflakes), so the
+ * memory stays bounded: at most NUM_LEVELS frames of MAX_CACHED_PIXELS.  A
+ * larger image (e.g. the text) is kept once, and drawn with an AlphaComposite
+ * instead.
+ *
+ * One cache is shared by all Sprites of the same ImageResource (e.g. all the
+ * snowflakes).
+ *
+ * Implements factory pattern.
+ *
+ * @author Derianto Kusuma
+ *
+ */
+public class AlphaFrameCache {
+
+	public static final int NUM_LEVELS = 32;
+	public static final int MAX_CACHED_PIXELS = 128 * 128; // per frame
+
+	// factory
+	private static Map<ImageResource, AlphaFrameCache> caches =
+		new HashMap<ImageResource, AlphaFrameCache>();
+
+	private int width;
+	private int height;
+	private int[] basePixels; // ARGB pixels of the original image, visible pixels opaque
+	private Image base; // the same, compatible with the screen if there is one
+	private AtomicReferenceArray<BufferedImage> frames; // null if not cached
+
+	/**
+	 * Returns the cache of the specified ImageResource.  Creates it at the
+	 * first call.
+	 * @param imageResource
+	 * @return the AlphaFrameCache
+	 */
+	public static synchronized AlphaFrameCache getInstance(ImageResource imageResource) {
+		AlphaFrameCache cache = caches.get(imageResource);
+		if (cache == null) {
+			cache = new AlphaFrameCache(imageResource.getImage());
+			caches.put(imageResource, cache);
+		}
+		return cache;
+	}
+
+	/**
+	 * Returns the alpha level (0..NUM_LEVELS - 1) of the given alpha.
+	 * @param alpha between 0.0 and 1.0
+	 * @return the quantized level
+	 */
+	public static int toLevel(float alpha) {
+		int level = Math.round(alpha * (NUM_LEVELS - 1));
+		if (level < 0) return 0;
+		if (level > NUM_LEVELS - 1) return NUM_LEVELS - 1;
+		return level;
+	}
+
+	/**
+	 * Returns the alpha of the given level.
+	 * @param level 0..NUM_LEVELS - 1
+	 * @return between 0.0 and 1.0
+	 */
+	public static float toAlpha(int level) {
+		return (float) level / (NUM_LEVELS - 1);
+	}
+
+	/**
+	 * Creates the cache.  Grabs the pixels of the image once.
+	 * @param image assumed fully loaded
+	 */
+	private AlphaFrameCache(Image image) {
+		width = Math.max(image.getWidth(null), 1);
+		height = Math.max(image.getHeight(null), 1);
+
+		BufferedImage grabbed = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+		Graphics g = grabbed.createGraphics();
+		g.drawImage(image, 0, 0, null);
+		g.dispose();
+
+		// the alpha of a frame replaces the alpha of the visible pixels
+		basePixels = grabbed.getRGB(0, 0, width, height, null, 0, width);
+		for (int i = 0; i < basePixels.length; i++) {
+			if ((basePixels[i] & 0xFF000000) != 0)
+				basePixels[i] |= 0xFF000000;
+		}
+		grabbed.setRGB(0, 0, width, height, basePixels, 0, width);
+		base = toCompatible(grabbed);
+
+		if (width * height <= AlphaFrameCache.MAX_CACHED_PIXELS)
+			frames = new AtomicReferenceArray<BufferedImage>(NUM_LEVELS);
+	}
+
+	/**
+	 * Returns a copy of the image in the format of the screen, which is
+	 * faster to draw.  The image itself if there is no screen.
+	 */
+	private static Image toCompatible(BufferedImage image) {
+		if (GraphicsEnvironment.isHeadless()) return image;
+
+		BufferedImage compatible = GraphicsEnvironment.getLocalGraphicsEnvironment()
+				.getDefaultScreenDevice().getDefaultConfiguration()
+				.createCompatibleImage(image.getWidth(), image.getHeight(), Transparency.TRANSLUCENT);
+		Graphics g = compatible.createGraphics();
+		g.drawImage(image, 0, 0, null);
+		g.dispose();
+		return compatible;
+	}
+
+	/**
+	 * Draws the image with the specified alpha: a cached frame if the image
+	 * is small, else through an AlphaComposite.
+	 * @param g
+	 * @param x
+	 * @param y
+	 * @param alpha between 0.0 and 1.0
+	 * @param observer
+	 */
+	public void draw(Graphics g, int x, int y, float alpha, ImageObserver observer) {
+		int level = toLevel(alpha);
+		if (frames != null || !(g instanceof Graphics2D)) {
+			g.drawImage(getFrameAtLevel(level), x, y, observer);
+			return;
+		}
+		if (level == 0) return; // invisible
+
+		Graphics2D g2 = (Graphics2D) g;
+		Composite composite = g2.getComposite();
+		g2.setComposite(AlphaComposite.getInstance(AlphaComposite.SRC_OVER, toAlpha(level)));
+		g2.drawImage(base, x, y, observer);
+		g2.setComposite(composite);
+	}
+
+	/**
+	 * Returns the frame with the specified alpha.
+	 * @param alpha between 0.0 and 1.0
+	 * @return the Image to draw
+	 */
+	public Image getFrame(float alpha) {
+		return getFrameAtLevel(toLevel(alpha));
+	}
+
+	/**
+	 * Returns the frame with the specified alpha level.  Builds it if it has
+	 * not been built yet; the frames of a large image are not cached, so
+	 * draw them with draw instead.
+	 * @param level 0..NUM_LEVELS - 1
+	 * @return the Image to draw
+	 */
+	public Image getFrameAtLevel(int level) {
+		if (frames == null)
+			return createFrame(level);
+
+		BufferedImage frame = frames.get(level);
+		if (frame == null) { // two Threads may both build it: the same frame
+			frame = createFrame(level);
+			frames.set(level, frame);
+		}
+		return frame;
+	}
+
+	/**
+	 * Adds alpha data to each non-transparent pixel of the image.
+	 * @param level the alpha level
+	 * @return the new frame
+	 */
+	private BufferedImage createFrame(int level) {
+		int[] pixels = new int[basePixels.length];
+		int alphaBits = Math.round(toAlpha(level) * 0xff) << 24;
+		for (int i = 0; i < pixels.length; i++) {
+			int rgb = basePixels[i];
+			if ((rgb & 0xFF000000) == 0) { // transparent pixel: keep it transparent
+				pixels[i] = rgb;
+			} else { // else add alpha data
+				pixels[i] = (rgb & 0x00FFFFFF) | alphaBits;
+			}
+		}
+
+		BufferedImage frame = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+		frame.setRGB(0, 0, width, height, pixels, 0, width);
+		return frame;
+	}
+}
@@ -0,0 +1,71 @@
+package main.sprite;
+
+/**
+ * A fast, non-secure random number generator (xorshift).  Not thread-safe:
+ * each Thread gets its own instance with current(), so no synchronization or
+ * atomic update is needed as with Math.random.
+ * @author Derianto Kusuma
+ *
+ */
+public class FastRandom {
+
+	private static final float FLOAT_UNIT = 1.0f / (1 << 24);
+
+	private static final ThreadLocal<FastRandom> instances = new ThreadLocal<FastRandom>() {
+		@Override
+		protected FastRandom initialValue() {
+			return new FastRandom(System.nanoTime() ^ Thread.currentThread().getId());
+		}
+	};
+
+	private int state;
+
+	/**
+	 * Returns the instance of the current Thread.  Look it up once per batch
+	 * rather than once per number.
+	 * @return the FastRandom
+	 */
+	public static FastRandom current() {
+		return instances.get();
+	}
+
+	/**
+	 * Creates a FastRandom.
+	 * @param seed
+	 */
+	public FastRandom(long seed) {
+		state = (int)(seed ^ (seed >>> 32));
+		if (state == 0) state = 0x2545F491; // xorshift must not start at 0
+	}
+
+	/**
+	 * Returns the next random int (all 32 bits random).
+	 * @return the int
+	 */
+	public int nextInt() {
+		int x = state;
+		x ^= x << 13;
+		x ^= x >>> 17;
+		x ^= x << 5;
+		state = x;
+		return x;
+	}
+
+	/**
+	 * Returns a random float between 0.0 (inclusive) and 1.0 (exclusive).
+	 * @return the float
+	 */
+	public float nextFloat() {
+		return (nextInt() >>> 8) * FastRandom.FLOAT_UNIT;
+	}
+
+	/**
+	 * Returns a random float between min (inclusive) and max (exclusive).
+	 * @param min
+	 * @param max
+	 * @return the float
+	 */
+	public float nextFloat(float min, float max) {
+		return min + nextFloat() * (max - min);
+	}
+}
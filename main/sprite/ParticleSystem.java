@@ -0,0 +1,232 @@
+package main.sprite;
+
+import java.awt.Graphics;
+import java.awt.Image;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.awt.image.ImageObserver;
+import java.util.Arrays;
+
+import resource.AnimationConstant;
+import resource.ImageResource;
+
+/**
+ * Many particles drawn with the same image and alpha, moving like the
+ * SnowFlakeSprite: falling at their own speed, swaying sideways, and
+ * restarting from the top when they leave the bottom of the bounds.
+ *
+ * The state is kept in primitive arrays (one array per field, not one object
+ * per particle) so moving them is a tight loop over memory.  The sway uses a
+ * SineTable and the random numbers a FastRandom.
+ *
+ * Drawing is batched: all the particles are composited in software into one
+ * layer image, which is then drawn with a single drawImage call, instead of
+ * one call per particle.
+ *
+ * Moving and drawing may happen on different Threads: the mover copies the
+ * positions into a snapshot with copyPositions, and the drawer draws from a
+ * snapshot.  The layer belongs to the drawing Thread.
+ *
+ * @author Derianto Kusuma
+ *
+ */
+public class ParticleSystem {
+
+	private static final float PHASE_STEP =
+		(float)(AnimationConstant.snowFlakeVelTheta * SineTable.STEPS_PER_RADIAN);
+
+	private Rectangle bounds;
+	private int count;
+
+	// particle i
+	private float[] x;
+	private float[] y;
+	private float[] vx;
+	private float[] vy;
+	private float[] phase; // in SineTable steps.  sway ~ sin phase
+
+	// the image: only its non-transparent pixels, premultiplied
+	private int spriteWidth;
+	private int spriteHeight;
+	private int[] spriteXs; // position of each pixel in the image
+	private int[] spriteYs;
+	private int[] spriteColors;
+	private int[] spriteInverseAlphas; // 256 - alpha of each pixel
+
+	// the layer the particles are composited into
+	private BufferedImage layer;
+	private int[] layerPixels;
+
+	/**
+	 * Creates a ParticleSystem.  The particles start anywhere in the bounds,
+	 * not necessarily from the top.
+	 * @param imageResource the image of every particle
+	 * @param alpha the alpha of every particle
+	 * @param bounds the bounds in which the particles are visible
+	 * @param count the number of particles
+	 */
+	public ParticleSystem(ImageResource imageResource, float alpha, Rectangle bounds, int count) {
+		this.bounds = bounds;
+		this.count = count;
+
+		x = new float[count];
+		y = new float[count];
+		vx = new float[count];
+		vy = new float[count];
+		phase = new float[count];
+
+		initSprite(imageResource.getImage(), alpha);
+
+		layer = new BufferedImage(Math.max(bounds.width, 1), Math.max(bounds.height, 1),
+				BufferedImage.TYPE_INT_ARGB_PRE);
+		layerPixels = ((DataBufferInt) layer.getRaster().getDataBuffer()).getData();
+
+		replay();
+	}
+
+	/**
+	 * Keeps the non-transparent pixels of the image, premultiplied by the
+	 * alpha.
+	 * @param image assumed fully loaded
+	 * @param alpha
+	 */
+	private void initSprite(Image image, float alpha) {
+		spriteWidth = Math.max(image.getWidth(null), 1);
+		spriteHeight = Math.max(image.getHeight(null), 1);
+
+		BufferedImage argb = new BufferedImage(spriteWidth, spriteHeight, BufferedImage.TYPE_INT_ARGB);
+		Graphics g = argb.createGraphics();
+		g.drawImage(image, 0, 0, null);
+		g.dispose();
+		int[] pixels = argb.getRGB(0, 0, spriteWidth, spriteHeight, null, 0, spriteWidth);
+
+		int n = 0;
+		spriteXs = new int[pixels.length];
+		spriteYs = new int[pixels.length];
+		spriteColors = new int[pixels.length];
+		spriteInverseAlphas = new int[pixels.length];
+		for (int i = 0; i < pixels.length; i++) {
+			int a = (int)((pixels[i] >>> 24) * alpha);
+			if (a == 0) continue;
+
+			int r = ((pixels[i] >> 16) & 0xFF) * a / 255;
+			int gr = ((pixels[i] >> 8) & 0xFF) * a / 255;
+			int b = (pixels[i] & 0xFF) * a / 255;
+			spriteXs[n] = i % spriteWidth;
+			spriteYs[n] = i / spriteWidth;
+			spriteColors[n] = (a << 24) | (r << 16) | (gr << 8) | b;
+			spriteInverseAlphas[n] = 256 - a;
+			n++;
+		}
+		spriteXs = Arrays.copyOf(spriteXs, n);
+		spriteYs = Arrays.copyOf(spriteYs, n);
+		spriteColors = Arrays.copyOf(spriteColors, n);
+		spriteInverseAlphas = Arrays.copyOf(spriteInverseAlphas, n);
+	}
+
+	/**
+	 * Puts every particle at a random place, as if the animation is
+	 * replayed.
+	 */
+	public void replay() {
+		FastRandom random = FastRandom.current();
+		for (int i = 0; i < count; i++) {
+			restart(i, random);
+			y[i] = bounds.y + random.nextFloat() * bounds.height; // not necessarily from the top
+		}
+	}
+
+	/**
+	 * Moves every particle one step.
+	 */
+	public void move() {
+		FastRandom random = FastRandom.current();
+		float bottom = bounds.y + bounds.height;
+
+		for (int i = 0; i < count; i++) {
+			x[i] += vx[i] * (1.0f + SineTable.sin(phase[i]));
+			y[i] += vy[i];
+			phase[i] += ParticleSystem.PHASE_STEP;
+			if (phase[i] >= SineTable.SIZE)
+				phase[i] -= SineTable.SIZE;
+
+			// does the particle need to restart from top?
+			if (y[i] >= bottom)
+				restart(i, random);
+		}
+	}
+
+	/**
+	 * Puts the particle on the top as a new particle, with a new speed and
+	 * position.
+	 */
+	private void restart(int i, FastRandom random) {
+		x[i] = bounds.x + random.nextFloat() * bounds.width;
+		y[i] = (float) AnimationConstant.snowFlakeStartingY;
+		vx[i] = random.nextFloat((float) AnimationConstant.snowFlakeMinVx, (float) AnimationConstant.snowFlakeMaxVx);
+		vy[i] = random.nextFloat((float) AnimationConstant.snowFlakeMinVy, (float) AnimationConstant.snowFlakeMaxVy);
+		phase[i] = random.nextFloat() * SineTable.SIZE;
+	}
+
+	/**
+	 * Copies the positions of the particles, e.g. into a snapshot to draw.
+	 * Called by the moving Thread.
+	 * @param toX at least getCount long
+	 * @param toY at least getCount long
+	 */
+	public void copyPositions(float[] toX, float[] toY) {
+		System.arraycopy(x, 0, toX, 0, count);
+		System.arraycopy(y, 0, toY, 0, count);
+	}
+
+	/**
+	 * Draws all the particles at the specified positions.
+	 * @param g
+	 * @param xs the positions, as copied by copyPositions
+	 * @param ys
+	 * @param observer
+	 */
+	public void draw(Graphics g, float[] xs, float[] ys, ImageObserver observer) {
+		composite(xs, ys);
+		g.drawImage(layer, bounds.x, bounds.y, observer);
+	}
+
+	/**
+	 * Clears the layer and composites every particle into it (source over,
+	 * premultiplied), clipped to the layer.
+	 */
+	private void composite(float[] xs, float[] ys) {
+		int layerWidth = layer.getWidth();
+		int layerHeight = layer.getHeight();
+		Arrays.fill(layerPixels, 0);
+
+		for (int i = 0; i < count; i++) {
+			int left = (int) xs[i] - bounds.x;
+			int top = (int) ys[i] - bounds.y;
+			if (left >= layerWidth || top >= layerHeight ||
+					left + spriteWidth <= 0 || top + spriteHeight <= 0)
+				continue; // not visible
+
+			boolean isClipped = left < 0 || top < 0 ||
+				left + spriteWidth > layerWidth || top + spriteHeight > layerHeight;
+			for (int p = 0; p < spriteXs.length; p++) {
+				int px = left + spriteXs[p];
+				int py = top + spriteYs[p];
+				if (isClipped && (px < 0 || py < 0 || px >= layerWidth || py >= layerHeight))
+					continue;
+
+				int d = py * layerWidth + px;
+				int dst = layerPixels[d];
+				int inverse = spriteInverseAlphas[p];
+				int rb = (((dst & 0x00FF00FF) * inverse) >>> 8) & 0x00FF00FF;
+				int ag = (((dst >>> 8) & 0x00FF00FF) * inverse) & 0xFF00FF00;
+				layerPixels[d] = spriteColors[p] + (rb | ag);
+			}
+		}
+	}
+
+	public int getCount() {
+		return count;
+	}
+}
@@ -0,0 +1,157 @@
+package main.sprite;
+
+import java.awt.Graphics2D;
+import java.awt.GraphicsConfiguration;
+import java.awt.GraphicsEnvironment;
+import java.awt.Image;
+import java.awt.RenderingHints;
+import java.awt.Transparency;
+import java.awt.image.BufferedImage;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+import resource.ImageResource;
+
+/**
+ * Caches an image scaled to the sizes it is drawn at.  A size is scaled once,
+ * with high quality (bilinear, halving the size step by step when shrinking),
+ * on a background Thread, into an opaque image compatible with the screen so
+ * drawing it is a plain blit.  Until it is ready, getScaled returns null and
+ * the caller draws the original image scaled on the fly.
+ *
+ * Only the MAX_SIZES sizes used last are kept, so resizing a window doesn't
+ * pile up images.  All the caches scale on one shared Thread, one size at a
+ * time; a size no longer kept when its turn comes is skipped.
+ *
+ * Implements factory pattern.
+ *
+ * @author Derianto Kusuma
+ *
+ */
+public class ScaledImageCache {
+
+	public static final int MAX_SIZES = 2; // e.g. the current size and the previous one
+
+	// factory
+	private static Map<ImageResource, ScaledImageCache> caches =
+		new HashMap<ImageResource, ScaledImageCache>();
+
+	// shared by all the caches: scaling is not urgent
+	private static ExecutorService executor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+		public Thread newThread(Runnable runnable) {
+			Thread thread = new Thread(runnable, "Image Scaling Thread"); // for bookkeeping
+			thread.setDaemon(true);
+			thread.setPriority(Thread.MIN_PRIORITY);
+			return thread;
+		}
+	});
+
+	private ImageResource imageResource;
+
+	// guarded by this.  key: width << 16 | height.  a null value means scaling.
+	// in the order of use: the eldest is dropped beyond MAX_SIZES
+	private Map<Integer, BufferedImage> scaledImages = new LinkedHashMap<Integer, BufferedImage>(
+			ScaledImageCache.MAX_SIZES + 1, 0.75f, true) {
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<Integer, BufferedImage> eldest) {
+			return size() > ScaledImageCache.MAX_SIZES;
+		}
+	};
+
+	/**
+	 * Returns the cache of the specified ImageResource.  Creates it at the
+	 * first call.
+	 * @param imageResource
+	 * @return the ScaledImageCache
+	 */
+	public static synchronized ScaledImageCache getInstance(ImageResource imageResource) {
+		ScaledImageCache cache = caches.get(imageResource);
+		if (cache == null) {
+			cache = new ScaledImageCache(imageResource);
+			caches.put(imageResource, cache);
+		}
+		return cache;
+	}
+
+	private ScaledImageCache(ImageResource imageResource) {
+		this.imageResource = imageResource;
+	}
+
+	/**
+	 * Returns the image scaled to the specified size.  Starts scaling it in
+	 * the background at the first call.
+	 * @param width
+	 * @param height
+	 * @return the scaled image, or null if it is not ready yet
+	 */
+	public synchronized BufferedImage getScaled(final int width, final int height) {
+		final Integer key = (width << 16) | height;
+		if (scaledImages.containsKey(key))
+			return scaledImages.get(key);
+
+		scaledImages.put(key, null); // scaling
+		ScaledImageCache.executor.execute(new Runnable() {
+			public void run() {
+				synchronized (ScaledImageCache.this) {
+					if (!scaledImages.containsKey(key)) return; // dropped while waiting
+				}
+				BufferedImage scaled = scale(imageResource.getImage(), width, height);
+				synchronized (ScaledImageCache.this) {
+					if (scaledImages.containsKey(key)) // not dropped while scaling
+						scaledImages.put(key, scaled);
+				}
+			}
+		});
+		return null;
+	}
+
+	/**
+	 * Scales the image with high quality into a new opaque image.
+	 * @param image assumed fully loaded
+	 * @param width
+	 * @param height
+	 * @return the scaled image
+	 */
+	private static BufferedImage scale(Image image, int width, int height) {
+		int w = Math.max(image.getWidth(null), 1);
+		int h = Math.max(image.getHeight(null), 1);
+		BufferedImage current = createOpaqueImage(w, h);
+		Graphics2D g = current.createGraphics();
+		g.drawImage(image, 0, 0, null);
+		g.dispose();
+
+		// bilinear is only good down to half the size: shrink by halves first
+		do {
+			w = (w / 2 >= width) ? w / 2 : width;
+			h = (h / 2 >= height) ? h / 2 : height;
+
+			BufferedImage next = createOpaqueImage(w, h);
+			g = next.createGraphics();
+			g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+			g.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
+			g.drawImage(current, 0, 0, w, h, null);
+			g.dispose();
+			current = next;
+		} while (w != width || h != height);
+
+		return current;
+	}
+
+	/**
+	 * Creates an opaque image in the format of the screen, if there is one.
+	 */
+	private static BufferedImage createOpaqueImage(int width, int height) {
+		if (GraphicsEnvironment.isHeadless())
+			return new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+
+		GraphicsConfiguration gc = GraphicsEnvironment.getLocalGraphicsEnvironment().
+			getDefaultScreenDevice().getDefaultConfiguration();
+		return gc.createCompatibleImage(width, height, Transparency.OPAQUE);
+	}
+}
@@ -0,0 +1,35 @@
+package main.sprite;
+
+/**
+ * A lookup table of the sine function, for animations that need many sines
+ * per frame but not much precision.  Angles are measured in table steps
+ * (SIZE steps = 2 pi) so a lookup is a mask and an array read.
+ * @author Derianto Kusuma
+ *
+ */
+public class SineTable {
+
+	public static final int SIZE = 4096; // a power of two
+	public static final float STEPS_PER_RADIAN = (float)(SineTable.SIZE / (2 * Math.PI));
+
+	private static final int MASK = SineTable.SIZE - 1;
+	private static final float[] table = new float[SineTable.SIZE];
+
+	static {
+		for (int i = 0; i < SineTable.SIZE; i++)
+			table[i] = (float) Math.sin(i / (double) SineTable.STEPS_PER_RADIAN);
+	}
+
+	private SineTable() {
+		// static only
+	}
+
+	/**
+	 * Returns the sine of the angle.
+	 * @param steps the angle in table steps.  Any value, negative included
+	 * @return the sine
+	 */
+	public static float sin(float steps) {
+		return table[(int) steps & SineTable.MASK];
+	}
+}
@@ -2,10 +2,7 @@ package main.sprite;
 
 import java.awt.Graphics;
 import java.awt.Image;
-import java.awt.Toolkit;
-import java.awt.image.FilteredImageSource;
 import java.awt.image.ImageObserver;
-import java.awt.image.RGBImageFilter;
 
 import main.util.NullImageObserver;
 import resource.ImageResource;
@@ -24,7 +21,7 @@ public class Sprite {
 	protected ImageResource imageResource;
 	protected float alpha;
 
-	protected AlphaFilter filter;
+	protected AlphaFrameCache frames;
 	
 	/**
 	 * Creates a Sprite with default x, y, alpha.
@@ -58,17 +55,17 @@ public class Sprite {
 		this.width = imageResource.getWidth();
 		this.height = imageResource.getHeight();
 		this.alpha = alpha;
-		filter = new AlphaFilter(alpha);
+		frames = AlphaFrameCache.getInstance(imageResource);
 	}
 	
 	/**
-	 * Returns the Image to display.  Depends on alpha.
+	 * Returns the Image to display.  Depends on alpha.  The Image is taken
+	 * from the shared frame cache, except for a large image: draw it with
+	 * draw instead.
 	 * @return
 	 */
 	public Image getImage() {
-		filter.setAlpha(alpha);
-		return Toolkit.getDefaultToolkit().createImage(
-				new FilteredImageSource(imageResource.getImage().getSource(), filter));
+		return frames.getFrame(alpha);
 	}
 	
 	/**
@@ -77,42 +74,21 @@ public class Sprite {
 	 * @param observer
 	 */
 	public void draw(Graphics g, ImageObserver observer) {
-		g.drawImage(getImage(), (int)x, (int)y, observer);
-	}
-	
-	public float getAlpha() {
-		return alpha;
+		frames.draw(g, (int)x, (int)y, alpha, observer);
 	}
 	
 	/**
-	 * A filter to add alpha data to each non-transparent pixel of the image.
-	 * @author Derianto Kusuma
+	 * Draws itself with the specified alpha instead of its own, e.g. the
+	 * alpha in a snapshot taken on another Thread.
+	 * @param g
+	 * @param alpha
+	 * @param observer
 	 */
-	protected class AlphaFilter extends RGBImageFilter {
-		private float alpha;
-		
-		/**
-		 * Creates a new AlphaFilter.
-		 * @param alpha initial alpha
-		 */
-		public AlphaFilter(float alpha) {
-			this.alpha = alpha;
-		}
-		
-		public void setAlpha(float alpha) {
-			this.alpha = alpha;
-		}
-		
-		/**
-		 * Adds alpha data.
-		 */
-		@Override
-		public int filterRGB(int x, int y, int rgb) {
-			if ((rgb & 0xFF000000) == 0) { // transparent pixel: keep it transparent
-				return rgb;
-			} else { // else add alpha data
-				return (rgb & 0x00FFFFFF) + 0x01000000 * (int)(alpha * 0xff);
-			}
-		}
+	public void draw(Graphics g, float alpha, ImageObserver observer) {
+		frames.draw(g, (int)x, (int)y, alpha, observer);
+	}
+	
+	public float getAlpha() {
+		return alpha;
 	}
 }
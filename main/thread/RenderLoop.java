@@ -0,0 +1,159 @@
+package main.thread;
+
+import java.awt.Graphics;
+import java.awt.Toolkit;
+import java.awt.image.BufferStrategy;
+import java.util.concurrent.TimeUnit;
+
+import util.Log;
+
+/**
+ * A Thread that draws frames actively into the BufferStrategy of a heavyweight
+ * component at a target frame rate, instead of asking Swing to repaint.
+ *
+ * Pacing: frames are due on a fixed grid (start + n * period), so the rate
+ * doesn't drift.  The loop sleeps until shortly before the next frame is due,
+ * then yields until it is.  If a frame takes too long and the loop falls
+ * behind, the missed frames are skipped (not drawn late) and the loop
+ * resumes on the grid.
+ *
+ * The time each frame takes to draw is measured; the statistics are logged
+ * every second at DEBUG level and can be read with getStats.
+ *
+ * Only the Canvas uses it (in active mode), so it only runs while MainFrame
+ * shows the Canvas.
+ *
+ * @author Derianto Kusuma
+ *
+ */
+public class RenderLoop extends Thread {
+
+	// how long before the frame is due to stop sleeping and start yielding
+	private static final long SPIN_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+	private static final long REPORT_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+	/**
+	 * Draws one frame.
+	 */
+	public interface Renderer {
+		/**
+		 * Returns the BufferStrategy to draw into.
+		 * @return the BufferStrategy, or null if it cannot be drawn yet
+		 */
+		BufferStrategy getBufferStrategy();
+
+		/**
+		 * Draws the whole frame.
+		 * @param g
+		 */
+		void render(Graphics g);
+	}
+
+	private Renderer renderer;
+	private long periodNanos;
+
+	// statistics.  guarded by this
+	private long numFrames;
+	private long numSkipped;
+	private long totalFrameNanos;
+	private long maxFrameNanos;
+
+	/**
+	 * Creates a new RenderLoop.  Must call start after this.
+	 * @param renderer
+	 * @param targetFps frames per second
+	 */
+	public RenderLoop(Renderer renderer, int targetFps) {
+		this.renderer = renderer;
+		this.periodNanos = TimeUnit.SECONDS.toNanos(1) / Math.max(targetFps, 1);
+
+		setName("Render Thread"); // for bookkeeping
+		setDaemon(true);
+	}
+
+	/**
+	 * Draws frames until interrupted.
+	 */
+	@Override
+	public void run() {
+		long nextFrame = System.nanoTime();
+		long nextReport = nextFrame + RenderLoop.REPORT_NANOS;
+
+		try {
+			while (!isInterrupted()) {
+				long frameStart = System.nanoTime();
+				renderFrame();
+				long frameEnd = System.nanoTime();
+
+				nextFrame += periodNanos;
+				long skipped = 0;
+				if (frameEnd > nextFrame) { // behind: skip the missed frames
+					skipped = (frameEnd - nextFrame) / periodNanos + 1;
+					nextFrame += skipped * periodNanos;
+				}
+				record(frameEnd - frameStart, skipped);
+
+				if (frameEnd >= nextReport) {
+					Log.debug(getStats());
+					nextReport = frameEnd + RenderLoop.REPORT_NANOS;
+				}
+
+				waitUntil(nextFrame);
+			}
+		} catch (InterruptedException e) {
+			return; // interruption is normal
+		}
+	}
+
+	/**
+	 * Draws one frame into the BufferStrategy and shows it.  Redraws if the
+	 * buffer contents got lost.
+	 */
+	private void renderFrame() {
+		BufferStrategy strategy = renderer.getBufferStrategy();
+		if (strategy == null) return;
+
+		do {
+			do {
+				Graphics g = strategy.getDrawGraphics();
+				try {
+					renderer.render(g);
+				} finally {
+					g.dispose();
+				}
+			} while (strategy.contentsRestored());
+
+			strategy.show();
+		} while (strategy.contentsLost());
+
+		Toolkit.getDefaultToolkit().sync();
+	}
+
+	/**
+	 * Sleeps, then yields, until the specified time.
+	 */
+	private void waitUntil(long time) throws InterruptedException {
+		long remaining = time - System.nanoTime();
+		if (remaining > RenderLoop.SPIN_NANOS)
+			TimeUnit.NANOSECONDS.sleep(remaining - RenderLoop.SPIN_NANOS);
+		while (System.nanoTime() < time)
+			Thread.yield();
+	}
+
+	private synchronized void record(long frameNanos, long skipped) {
+		numFrames++;
+		numSkipped += skipped;
+		totalFrameNanos += frameNanos;
+		maxFrameNanos = Math.max(maxFrameNanos, frameNanos);
+	}
+
+	/**
+	 * Returns the frame statistics since the start.
+	 * @return e.g. "1500 frames, 3 skipped, frame time avg 2.1 ms, max 9.8 ms"
+	 */
+	public synchronized String getStats() {
+		return String.format("%d frames, %d skipped, frame time avg %.1f ms, max %.1f ms",
+				numFrames, numSkipped,
+				(numFrames > 0) ? totalFrameNanos / 1e6 / numFrames : 0.0, maxFrameNanos / 1e6);
+	}
+}
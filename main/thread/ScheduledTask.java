@@ -0,0 +1,95 @@
+package main.thread;
+
+/**
+ * A handle of a TimedEvent scheduled in a Scheduler.  Knows the next deadline
+ * of the event and whether it repeats.  Can be cancelled.
+ * @author Derianto Kusuma
+ *
+ */
+public class ScheduledTask implements Comparable<ScheduledTask> {
+
+	private Runnable runnable;
+	private long deadline; // in System.nanoTime() scale
+	private long period; // in nanosecond, 0 means one-shot
+	private long sequenceNo; // to break ties: first scheduled, first run
+	private volatile boolean isCancelled;
+	private boolean isRunning; // guarded by the Scheduler
+
+	/**
+	 * Creates a new ScheduledTask.  Only created by Scheduler.
+	 * @param runnable
+	 * @param deadline the first deadline in System.nanoTime() scale
+	 * @param period the period in nanosecond, or 0 if one-shot
+	 * @param sequenceNo
+	 */
+	ScheduledTask(Runnable runnable, long deadline, long period, long sequenceNo) {
+		this.runnable = runnable;
+		this.deadline = deadline;
+		this.period = period;
+		this.sequenceNo = sequenceNo;
+		this.isCancelled = false;
+	}
+
+	/**
+	 * Cancels this task.  The task will not be run anymore.  If the task is
+	 * currently running, waits until the run finishes (see Scheduler.cancel).
+	 */
+	public void cancel() {
+		Scheduler.getInstance().cancel(this);
+	}
+
+	public boolean isCancelled() {
+		return isCancelled;
+	}
+
+	public boolean isPeriodic() {
+		return period > 0;
+	}
+
+	/**
+	 * Orders by deadline, then by scheduling order.
+	 */
+	public int compareTo(ScheduledTask other) {
+		if (deadline != other.deadline)
+			return (deadline - other.deadline < 0) ? -1 : 1;
+		if (sequenceNo != other.sequenceNo)
+			return (sequenceNo < other.sequenceNo) ? -1 : 1;
+		return 0;
+	}
+
+	/*########################################################################
+	 *  P A C K A G E   A C C E S S   (used by Scheduler)
+	 *########################################################################*/
+
+	Runnable getRunnable() {
+		return runnable;
+	}
+
+	long getDeadline() {
+		return deadline;
+	}
+
+	long getPeriod() {
+		return period;
+	}
+
+	void setDeadline(long deadline) {
+		this.deadline = deadline;
+	}
+
+	void setSequenceNo(long sequenceNo) {
+		this.sequenceNo = sequenceNo;
+	}
+
+	void setCancelled() {
+		isCancelled = true;
+	}
+
+	boolean isRunning() {
+		return isRunning;
+	}
+
+	void setRunning(boolean isRunning) {
+		this.isRunning = isRunning;
+	}
+}
@@ -0,0 +1,225 @@
+package main.thread;
+
+import java.util.PriorityQueue;
+import java.util.concurrent.TimeUnit;
+
+import util.Log;
+
+/**
+ * Runs all the periodic and one-shot TimedEvents of the program from a single
+ * Thread.  The events are kept in a priority queue ordered by deadline.
+ *
+ * Deadlines are absolute (System.nanoTime() scale): a periodic event is due
+ * exactly one period after its previous deadline, not one period after its
+ * previous run finished, so the timing doesn't drift.  If the Thread falls
+ * behind by more than a whole period, the missed runs are dropped instead of
+ * being run in a burst.
+ *
+ * Events are run without holding the lock of the Scheduler, so scheduling
+ * and cancelling never wait for an event to finish, except that when cancel()
+ * returns, the cancelled event is guaranteed not to be running anymore (it
+ * waits for a run in progress, unless called from the event itself).  So an
+ * event must not wait for a Thread that may be cancelling it, e.g. with
+ * SwingUtilities.invokeAndWait.
+ *
+ * Implements singleton pattern.
+ *
+ * @author Derianto Kusuma
+ *
+ */
+public class Scheduler {
+
+	// single instance
+	private static Scheduler scheduler;
+
+	private PriorityQueue<ScheduledTask> tasks;
+	private long nextSequenceNo;
+	private Thread thread;
+
+	/**
+	 * Returns the default instance.  Creates it and starts its Thread at
+	 * the first call.
+	 * @return the default instance
+	 */
+	public static synchronized Scheduler getInstance() {
+		if (scheduler == null)
+			scheduler = new Scheduler();
+
+		return scheduler;
+	}
+
+	/**
+	 * Default constructor.  Starts the scheduler Thread.
+	 */
+	private Scheduler() {
+		tasks = new PriorityQueue<ScheduledTask>();
+		nextSequenceNo = 0;
+
+		thread = new Thread(new Runnable() {
+			public void run() {
+				loop();
+			}
+		});
+		thread.setName("Scheduler Thread"); // for bookkeeping
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	/*########################################################################
+	 *  S C H E D U L I N G
+	 *########################################################################*/
+
+	/**
+	 * Runs the event once, after its delay.
+	 * @param event
+	 * @return the handle to cancel the event
+	 */
+	public ScheduledTask schedule(TimedEvent event) {
+		return schedule(event.getRunnable(), millisToNanos(event.getDelay()), 0);
+	}
+
+	/**
+	 * Runs the event repeatedly, every delay millisecond.  The first run is
+	 * after one delay.
+	 * @param event
+	 * @return the handle to cancel the event
+	 */
+	public ScheduledTask scheduleRepeating(TimedEvent event) {
+		return scheduleRepeating(event, event.getDelay());
+	}
+
+	/**
+	 * Runs the event repeatedly, every delay millisecond, starting after the
+	 * specified initial delay.
+	 * @param event
+	 * @param initialDelay in millisecond
+	 * @return the handle to cancel the event
+	 */
+	public ScheduledTask scheduleRepeating(TimedEvent event, int initialDelay) {
+		long period = millisToNanos(Math.max(event.getDelay(), 1));
+		return schedule(event.getRunnable(), millisToNanos(initialDelay), period);
+	}
+
+	/**
+	 * Cancels the task.  If the task is currently running, waits until the
+	 * run finishes, unless called by the task itself.
+	 * @param task
+	 */
+	public synchronized void cancel(ScheduledTask task) {
+		task.setCancelled();
+		tasks.remove(task);
+		
+		boolean isInterrupted = false;
+		while (task.isRunning() && Thread.currentThread() != thread) {
+			try {
+				wait(); // notified when a run finishes
+			} catch (InterruptedException e) {
+				isInterrupted = true; // still waits: the guarantee must hold
+			}
+		}
+		if (isInterrupted)
+			Thread.currentThread().interrupt();
+	}
+
+	/**
+	 * Adds a new task to the queue and wakes up the scheduler Thread.
+	 * @param runnable
+	 * @param delay in nanosecond
+	 * @param period in nanosecond, 0 if one-shot
+	 * @return the new task
+	 */
+	private synchronized ScheduledTask schedule(Runnable runnable, long delay, long period) {
+		ScheduledTask task = new ScheduledTask(runnable, System.nanoTime() + delay,
+				period, nextSequenceNo++);
+		tasks.add(task);
+		notifyAll(); // the new task may be due earlier than the current head
+		return task;
+	}
+
+	/*########################################################################
+	 *  S C H E D U L E R   T H R E A D
+	 *########################################################################*/
+
+	/**
+	 * The loop of the scheduler Thread.  Waits for the earliest deadline,
+	 * runs the due task (outside the lock) and reschedules it if periodic.
+	 */
+	private void loop() {
+		while (true) {
+			ScheduledTask task;
+			try {
+				task = takeDueTask();
+			} catch (InterruptedException e) {
+				return; // interruption is normal
+			}
+
+			try {
+				task.getRunnable().run();
+			} catch (RuntimeException e) {
+				// an event must not kill the other events
+				Log.error("Scheduled event failed: " + e);
+			} catch (Error e) {
+				if (e instanceof VirtualMachineError) throw e; // e.g. out of memory: cannot go on
+				Log.error("Scheduled event failed: " + e);
+			} finally {
+				finishRun(task); // even if this Thread dies: cancel must not wait forever
+			}
+		}
+	}
+
+	/**
+	 * Waits for the earliest deadline, then removes its task from the queue
+	 * and marks it as running.
+	 * @return the due task
+	 * @throws InterruptedException
+	 */
+	private synchronized ScheduledTask takeDueTask() throws InterruptedException {
+		while (true) {
+			ScheduledTask task = tasks.peek();
+			if (task == null) {
+				wait();
+				continue;
+			}
+
+			long remaining = task.getDeadline() - System.nanoTime();
+			if (remaining > 0) {
+				TimeUnit.NANOSECONDS.timedWait(this, remaining);
+				continue; // the head may have changed while waiting
+			}
+
+			tasks.poll();
+			task.setRunning(true);
+			return task;
+		}
+	}
+
+	/**
+	 * Marks the task as not running, wakes up the Threads cancelling it, and
+	 * reschedules it if periodic and not cancelled.
+	 * @param task
+	 */
+	private synchronized void finishRun(ScheduledTask task) {
+		task.setRunning(false);
+		notifyAll();
+
+		if (task.isPeriodic() && !task.isCancelled()) {
+			long deadline = task.getDeadline() + task.getPeriod();
+			if (deadline - System.nanoTime() < -task.getPeriod()) {
+				// too far behind: drop the missed runs
+				deadline = System.nanoTime() + task.getPeriod();
+			}
+			task.setDeadline(deadline);
+			task.setSequenceNo(nextSequenceNo++);
+			tasks.add(task);
+		}
+	}
+
+	/**
+	 * Converts millisecond to nanosecond.
+	 * @param millis
+	 * @return nanosecond
+	 */
+	private static long millisToNanos(long millis) {
+		return TimeUnit.MILLISECONDS.toNanos(millis);
+	}
+}
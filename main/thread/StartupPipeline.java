@@ -0,0 +1,131 @@
+package main.thread;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs the startup phases (opening the synthesizer, loading resources)
+ * concurrently on a Thread pool, and times every phase.  Phases run on the
+ * calling Thread (e.g. building the UI) can be timed with mark.
+ *
+ * Usage: submit the phases, do the work that doesn't depend on them, call
+ * await, then read the report.
+ *
+ * @author Derianto Kusuma
+ *
+ */
+public class StartupPipeline {
+
+	private ExecutorService executor;
+	private long startNanos;
+
+	// for the report.  guarded by this
+	private List<String> phaseNames;
+	private List<Long> phaseStarts;
+	private List<Long> phaseEnds;
+
+	private List<Future<?>> futures; // only used by the calling Thread
+	private long lastMarkNanos;
+
+	/**
+	 * Creates a StartupPipeline.  Starts the clock.
+	 */
+	public StartupPipeline() {
+		this.startNanos = System.nanoTime();
+		this.lastMarkNanos = startNanos;
+		this.phaseNames = new ArrayList<String>();
+		this.phaseStarts = new ArrayList<Long>();
+		this.phaseEnds = new ArrayList<Long>();
+		this.futures = new ArrayList<Future<?>>();
+
+		int numThreads = Math.max(2, Runtime.getRuntime().availableProcessors());
+		this.executor = Executors.newFixedThreadPool(numThreads, new ThreadFactory() {
+			private int count = 0;
+
+			public synchronized Thread newThread(Runnable runnable) {
+				Thread thread = new Thread(runnable, "Startup Thread " + (++count)); // for bookkeeping
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+	}
+
+	/**
+	 * Starts a phase on the Thread pool.
+	 * @param name the name in the report
+	 * @param phase
+	 */
+	public void submit(final String name, final Runnable phase) {
+		futures.add(executor.submit(new Runnable() {
+			public void run() {
+				long start = System.nanoTime();
+				phase.run();
+				record(name, start, System.nanoTime());
+			}
+		}));
+	}
+
+	/**
+	 * Waits until all the submitted phases are done, then shuts the Thread
+	 * pool down.  Must be called from the Thread that submitted them.  An
+	 * exception thrown by a phase is rethrown here.
+	 */
+	public void await() {
+		try {
+			for (Future<?> future: futures)
+				future.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof RuntimeException)
+				throw (RuntimeException) e.getCause();
+			throw new IllegalStateException(e.getCause());
+		} finally {
+			executor.shutdown();
+		}
+		futures.clear();
+	}
+
+	/**
+	 * Records a phase that just ended on the calling Thread: the phase
+	 * started at the previous mark (or at the start).
+	 * @param name the name in the report
+	 */
+	public void mark(String name) {
+		long now = System.nanoTime();
+		record(name, lastMarkNanos, now);
+		lastMarkNanos = now;
+	}
+
+	private synchronized void record(String name, long start, long end) {
+		phaseNames.add(name);
+		phaseStarts.add(start);
+		phaseEnds.add(end);
+	}
+
+	/**
+	 * Returns the report: when each phase started and ended, in ms since the
+	 * start, in the order they ended.
+	 * @return the report, one line per phase
+	 */
+	public synchronized String getReport() {
+		StringBuilder report = new StringBuilder("Startup:");
+		for (int i = 0; i < phaseNames.size(); i++) {
+			report.append(String.format("%n  %-20s %6d .. %6d ms (%d ms)", phaseNames.get(i),
+					toMillis(phaseStarts.get(i)), toMillis(phaseEnds.get(i)),
+					TimeUnit.NANOSECONDS.toMillis(phaseEnds.get(i) - phaseStarts.get(i))));
+		}
+		report.append(String.format("%n  %-20s %6d ms", "total", toMillis(System.nanoTime())));
+		return report.toString();
+	}
+
+	private long toMillis(long nanos) {
+		return TimeUnit.NANOSECONDS.toMillis(nanos - startNanos);
+	}
+}
@@ -0,0 +1,74 @@
+package main.thread;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Hands snapshots over from one writer Thread to one reader Thread without
+ * locks.  There are three buffers: the writer fills its back buffer and
+ * publishes it with a single atomic swap with the middle buffer; the reader
+ * takes the middle buffer (if a newer one was published) with another swap.
+ * The reader's front buffer is never written while it is being read, so
+ * every frame sees one consistent snapshot, and neither side ever waits.
+ *
+ * At any time, only one Thread may write and only one Thread may read (a
+ * Thread may hand its role over to another if the hand-over is synchronized,
+ * e.g. through the Scheduler lock).
+ *
+ * @author Derianto Kusuma
+ *
+ * @param <T> the snapshot type
+ */
+public class TripleBuffer<T> {
+
+	private static final int INDEX_MASK = 3;
+	private static final int FRESH = 4; // the middle buffer has not been read yet
+
+	private final Object[] buffers;
+	private final AtomicInteger middle; // index of the middle buffer | FRESH
+
+	private int back; // only used by the writer
+	private int front; // only used by the reader
+
+	/**
+	 * Creates a TripleBuffer.
+	 * @param first the initial front buffer
+	 * @param second
+	 * @param third
+	 */
+	public TripleBuffer(T first, T second, T third) {
+		this.buffers = new Object[] {first, second, third};
+		this.front = 0;
+		this.middle = new AtomicInteger(1);
+		this.back = 2;
+	}
+
+	/**
+	 * Returns the buffer for the writer to fill.  Its contents are stale:
+	 * the writer must write the whole snapshot.
+	 * @return the back buffer
+	 */
+	@SuppressWarnings("unchecked")
+	public T getBack() {
+		return (T) buffers[back];
+	}
+
+	/**
+	 * Publishes the back buffer to the reader, and takes a new back buffer.
+	 * Called by the writer after filling the back buffer.
+	 */
+	public void publish() {
+		back = middle.getAndSet(back | TripleBuffer.FRESH) & TripleBuffer.INDEX_MASK;
+	}
+
+	/**
+	 * Returns the latest published snapshot.  Called by the reader; the
+	 * snapshot stays valid until the next call.
+	 * @return the front buffer
+	 */
+	@SuppressWarnings("unchecked")
+	public T getFront() {
+		if ((middle.get() & TripleBuffer.FRESH) != 0)
+			front = middle.getAndSet(front) & TripleBuffer.INDEX_MASK;
+		return (T) buffers[front];
+	}
+}
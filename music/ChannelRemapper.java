@@ -0,0 +1,212 @@
+package music;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.sound.midi.InvalidMidiDataException;
+import javax.sound.midi.MidiEvent;
+import javax.sound.midi.Sequence;
+import javax.sound.midi.ShortMessage;
+import javax.sound.midi.Track;
+
+/**
+ * Moves the events of a Sequence off the channels reserved for live playing
+ * (the synth channel, and the channels of the manuals), so music doesn't
+ * change the instrument of the keyboard or cut its notes.
+ *
+ * Each reserved channel the music uses goes to a channel the music doesn't
+ * use (never the drum channel).  If there is none, the channel is merged into
+ * the channel with the fewest events: only its notes are kept, since its
+ * instrument and controllers would change the other part.
+ *
+ * The Sequence is changed in place, so it is done once when the music is
+ * loaded, not every time it is played.  Music not loaded as a Sequence (e.g.
+ * a StreamingMidiFile) is counted first, then each message is remapped as
+ * it is played.
+ *
+ * @author Derianto Kusuma
+ *
+ */
+public class ChannelRemapper {
+
+	public static final int NO_MESSAGE = -1; // a packed message that is dropped
+
+	private int reservedChannels; // bit per channel
+	private int[] numEvents = new int[MusicManager.NUM_CHANNELS];
+	private int[] targets = new int[MusicManager.NUM_CHANNELS]; // NO_CHANNEL if not moved
+	private boolean[] isMerged = new boolean[MusicManager.NUM_CHANNELS];
+
+	/**
+	 * Creates a ChannelRemapper.
+	 * @param reservedChannels bit i set if channel i is reserved, e.g. from
+	 * MusicManager.getReservedChannels
+	 */
+	public ChannelRemapper(int reservedChannels) {
+		this.reservedChannels = reservedChannels;
+	}
+
+	/**
+	 * Moves the events of the Sequence off the reserved channels.
+	 * @param sequence changed in place
+	 * @return a description of the moves, e.g. "15 -> 3", or null if
+	 * nothing was moved
+	 */
+	public String remap(Sequence sequence) {
+		countEvents(sequence);
+		if (!chooseTargets()) return null;
+
+		for (Track track: sequence.getTracks())
+			remap(track);
+		return describe();
+	}
+
+	/**
+	 * Chooses where each used reserved channel goes, for music not loaded as
+	 * a Sequence.  Call remap(int) on each message after this.
+	 * @param numEvents the number of channel events per channel
+	 * @return false if no channel needs to move
+	 */
+	public boolean chooseTargets(int[] numEvents) {
+		System.arraycopy(numEvents, 0, this.numEvents, 0, MusicManager.NUM_CHANNELS);
+		return chooseTargets();
+	}
+
+	/**
+	 * Moves a message off the reserved channels, as chosen by
+	 * chooseTargets(int[]).
+	 * @param message packed with MidiEventQueue.pack
+	 * @return the packed message on its channel, or NO_MESSAGE if it is
+	 * dropped (not a note, on a merged channel)
+	 */
+	public int remap(int message) {
+		int channel = MidiEventQueue.getChannel(message);
+		if (targets[channel] == MusicManager.NO_CHANNEL) return message;
+		if (isMerged[channel] && !isNote(MidiEventQueue.getCommand(message)))
+			return ChannelRemapper.NO_MESSAGE;
+
+		return (message & ~0x0F) | targets[channel];
+	}
+
+	private static boolean isNote(int command) {
+		return command == ShortMessage.NOTE_ON || command == ShortMessage.NOTE_OFF ||
+				command == ShortMessage.POLY_PRESSURE;
+	}
+
+	/**
+	 * Counts the channel events per channel.
+	 */
+	private void countEvents(Sequence sequence) {
+		for (int channel = 0; channel < MusicManager.NUM_CHANNELS; channel++)
+			numEvents[channel] = 0;
+
+		for (Track track: sequence.getTracks()) {
+			for (int i = 0; i < track.size(); i++) {
+				if (track.get(i).getMessage() instanceof ShortMessage)
+					numEvents[((ShortMessage) track.get(i).getMessage()).getChannel()]++;
+			}
+		}
+	}
+
+	/**
+	 * Chooses where each used reserved channel goes.
+	 * @return false if no channel needs to move
+	 */
+	private boolean chooseTargets() {
+		boolean isMoving = false;
+		int taken = reservedChannels | (1 << MusicManager.DRUM_CHANNEL_NO);
+		for (int channel = 0; channel < MusicManager.NUM_CHANNELS; channel++) {
+			if (numEvents[channel] > 0)
+				taken |= 1 << channel;
+		}
+
+		for (int channel = 0; channel < MusicManager.NUM_CHANNELS; channel++) {
+			targets[channel] = MusicManager.NO_CHANNEL;
+			isMerged[channel] = false;
+			if ((reservedChannels & (1 << channel)) == 0 || numEvents[channel] == 0)
+				continue;
+
+			int target = getFreeChannel(taken);
+			if (target != MusicManager.NO_CHANNEL) {
+				taken |= 1 << target;
+			} else {
+				target = getQuietestChannel();
+				isMerged[channel] = true;
+			}
+			if (target == MusicManager.NO_CHANNEL) continue; // every channel is reserved: leave it
+
+			targets[channel] = target;
+			isMoving = true;
+		}
+		return isMoving;
+	}
+
+	private int getFreeChannel(int taken) {
+		for (int channel = 0; channel < MusicManager.NUM_CHANNELS; channel++) {
+			if ((taken & (1 << channel)) == 0)
+				return channel;
+		}
+		return MusicManager.NO_CHANNEL;
+	}
+
+	/**
+	 * Returns the channel not reserved (nor the drums) with the fewest
+	 * events.
+	 */
+	private int getQuietestChannel() {
+		int quietest = MusicManager.NO_CHANNEL;
+		for (int channel = 0; channel < MusicManager.NUM_CHANNELS; channel++) {
+			if ((reservedChannels & (1 << channel)) != 0 || channel == MusicManager.DRUM_CHANNEL_NO)
+				continue;
+			if (quietest == MusicManager.NO_CHANNEL || numEvents[channel] < numEvents[quietest])
+				quietest = channel;
+		}
+		return quietest;
+	}
+
+	/**
+	 * Rewrites the events of the moved channels in the track, and removes
+	 * the events of merged channels that are not notes.
+	 */
+	private void remap(Track track) {
+		List<MidiEvent> removed = new ArrayList<MidiEvent>();
+		for (int i = 0; i < track.size(); i++) {
+			MidiEvent event = track.get(i);
+			if (!(event.getMessage() instanceof ShortMessage)) continue;
+
+			ShortMessage message = (ShortMessage) event.getMessage();
+			int channel = message.getChannel();
+			if (targets[channel] == MusicManager.NO_CHANNEL) continue;
+
+			int command = message.getCommand();
+			if (isMerged[channel] && !isNote(command)) {
+				removed.add(event);
+				continue;
+			}
+
+			try {
+				message.setMessage(command, targets[channel], message.getData1(), message.getData2());
+			} catch (InvalidMidiDataException e) {
+				// cannot happen: the data comes from a valid message
+			}
+		}
+
+		for (MidiEvent event: removed)
+			track.remove(event);
+	}
+
+	/**
+	 * Describes the moves chosen.
+	 * @return e.g. "15 -> 3", empty if nothing is moved
+	 */
+	public String describe() {
+		StringBuilder description = new StringBuilder();
+		for (int channel = 0; channel < MusicManager.NUM_CHANNELS; channel++) {
+			if (targets[channel] == MusicManager.NO_CHANNEL) continue;
+
+			if (description.length() > 0)
+				description.append(", ");
+			description.append(channel).append((isMerged[channel]) ? " merged into " : " -> ").append(targets[channel]);
+		}
+		return description.toString();
+	}
+}
@@ -0,0 +1,81 @@
+package music;
+
+/**
+ * A fixed-size histogram of latencies with one microsecond resolution, for
+ * measuring the note path.  Latencies over MAX_MICROS are counted in the last
+ * bucket.  Recording doesn't allocate.
+ *
+ * Must be recorded by one Thread only.  Reading from another Thread gives an
+ * approximate (but never corrupted) result.
+ *
+ * @author Derianto Kusuma
+ *
+ */
+public class LatencyHistogram {
+
+	public static final int MAX_MICROS = 10000;
+
+	private final long[] buckets = new long[MAX_MICROS + 1];
+	private volatile long count;
+	private volatile long maxNanos;
+
+	/**
+	 * Records a latency.
+	 * @param nanos the latency in nanosecond
+	 */
+	public void record(long nanos) {
+		if (nanos < 0) nanos = 0;
+		long micros = nanos / 1000;
+		buckets[(int)Math.min(micros, MAX_MICROS)]++;
+		if (nanos > maxNanos)
+			maxNanos = nanos;
+		count++;
+	}
+
+	public long getCount() {
+		return count;
+	}
+
+	/**
+	 * Returns the latency at the specified percentile.
+	 * @param percentile between 0.0 and 100.0
+	 * @return the latency in microsecond (upper bound of its bucket), or 0 if
+	 * nothing is recorded
+	 */
+	public long getPercentileMicros(double percentile) {
+		long total = count;
+		if (total == 0) return 0;
+
+		long rank = (long)Math.ceil(total * percentile / 100.0);
+		long seen = 0;
+		for (int i = 0; i < buckets.length; i++) {
+			seen += buckets[i];
+			if (seen >= rank)
+				return i + 1;
+		}
+		return MAX_MICROS;
+	}
+
+	public long getMaxMicros() {
+		return maxNanos / 1000;
+	}
+
+	/**
+	 * Clears the histogram.
+	 */
+	public void reset() {
+		for (int i = 0; i < buckets.length; i++)
+			buckets[i] = 0;
+		count = 0;
+		maxNanos = 0;
+	}
+
+	/**
+	 * Returns a one-line summary: count, p50, p99, max.
+	 */
+	@Override
+	public String toString() {
+		return "n = " + getCount() + ", p50 = " + getPercentileMicros(50) +
+			" us, p99 = " + getPercentileMicros(99) + " us, max = " + getMaxMicros() + " us";
+	}
+}
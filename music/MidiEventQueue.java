@@ -0,0 +1,143 @@
+package music;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A lock-free, bounded, multi-producer / single-consumer queue of short MIDI
+ * messages.  Each event is a packed int message (status, data1, data2, the
+ * same layout as in a ShortMessage) and a System.nanoTime() timestamp.
+ *
+ * Any Thread may offer: a producer claims a slot by moving the tail with
+ * compare-and-set, writes it, then publishes it through the sequence number
+ * of the slot.  Only one Thread may drain; it stops at the first slot not
+ * published yet.  Nothing is allocated after construction, so the queue can
+ * be used on the note path.
+ *
+ * @author Derianto Kusuma
+ *
+ */
+public class MidiEventQueue {
+
+	/**
+	 * Receives the events drained from the queue.
+	 */
+	public interface Handler {
+		/**
+		 * Called for each event, in order.
+		 * @param message the packed message
+		 * @param timestamp the System.nanoTime() when the event was offered
+		 */
+		public void handle(int message, long timestamp);
+	}
+
+	private final int[] messages;
+	private final long[] timestamps;
+	private final int mask;
+
+	// sequences[i]: the position slot i can be written at (free), or that
+	// position + 1 (published, can be read)
+	private final AtomicLongArray sequences;
+
+	// head: next position to read (written by consumer only)
+	// tail: next position to claim (compare-and-set by the producers)
+	private final AtomicLong head = new AtomicLong(0);
+	private final AtomicLong tail = new AtomicLong(0);
+
+	/**
+	 * Creates a new MidiEventQueue.
+	 * @param capacity rounded up to a power of two
+	 */
+	public MidiEventQueue(int capacity) {
+		int size = Integer.highestOneBit(Math.max(capacity, 2) - 1) << 1;
+		messages = new int[size];
+		timestamps = new long[size];
+		mask = size - 1;
+
+		sequences = new AtomicLongArray(size);
+		for (int i = 0; i < size; i++)
+			sequences.set(i, i);
+	}
+
+	/**
+	 * Packs a short MIDI message into an int.
+	 * @param command e.g. ShortMessage.NOTE_ON
+	 * @param channel 0..15
+	 * @param data1
+	 * @param data2
+	 * @return the packed message
+	 */
+	public static int pack(int command, int channel, int data1, int data2) {
+		return (command & 0xF0) | (channel & 0x0F) | ((data1 & 0x7F) << 8) | ((data2 & 0x7F) << 16);
+	}
+
+	public static int getCommand(int message) {
+		return message & 0xF0;
+	}
+
+	public static int getChannel(int message) {
+		return message & 0x0F;
+	}
+
+	public static int getData1(int message) {
+		return (message >> 8) & 0x7F;
+	}
+
+	public static int getData2(int message) {
+		return (message >> 16) & 0x7F;
+	}
+
+	/**
+	 * Adds an event.  Can be called by any Thread.
+	 * @param message the packed message
+	 * @param timestamp
+	 * @return false if the queue is full (the event is not added)
+	 */
+	public boolean offer(int message, long timestamp) {
+		while (true) {
+			long t = tail.get();
+			int index = (int)t & mask;
+			long sequence = sequences.get(index);
+			if (sequence < t) // not freed by the consumer yet: full
+				return false;
+			if (sequence > t || !tail.compareAndSet(t, t + 1))
+				continue; // claimed by another producer
+
+			messages[index] = message;
+			timestamps[index] = timestamp;
+			sequences.set(index, t + 1); // publishes the slot (a full fence, so a
+			                             // consumer about to park is guaranteed to see it)
+			return true;
+		}
+	}
+
+	/**
+	 * Passes the published events to the handler, in order, and removes them.
+	 * Called by the consumer Thread only.
+	 * @param handler
+	 * @return the number of events drained
+	 */
+	public int drain(Handler handler) {
+		long h = head.get();
+		long i = h;
+		while (i - h <= mask) { // at most one lap: producers may keep adding
+			int index = (int)i & mask;
+			if (sequences.get(index) != i + 1) break; // not published yet
+
+			handler.handle(messages[index], timestamps[index]);
+			sequences.lazySet(index, i + mask + 1); // frees the slot for the next lap
+			i++;
+		}
+		head.lazySet(i);
+		return (int)(i - h);
+	}
+
+	public boolean isEmpty() {
+		long h = head.get();
+		return sequences.get((int)h & mask) != h + 1;
+	}
+
+	public int getCapacity() {
+		return mask + 1;
+	}
+}
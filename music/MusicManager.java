@@ -6,14 +6,18 @@ import java.io.InputStreamReader;
 import java.net.URL;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.TimeUnit;
 
 import javax.sound.midi.InvalidMidiDataException;
 import javax.sound.midi.MidiChannel;
 import javax.sound.midi.MidiSystem;
 import javax.sound.midi.MidiUnavailableException;
+import javax.sound.midi.Receiver;
 import javax.sound.midi.Sequence;
 import javax.sound.midi.Sequencer;
+import javax.sound.midi.ShortMessage;
 import javax.sound.midi.Synthesizer;
+import javax.sound.midi.Transmitter;
 
 import util.ErrorHandler;
 import util.Utilities;
@@ -27,7 +31,21 @@ import util.Utilities;
  * while the program is running.
  * 
  * Any MIDI sequence played must not occupy the last channel (highest numbered)
- * since that channel is used for synthesizing.
+ * since that channel is used for synthesizing.  With several manuals, each
+ * manual uses its own channel, counting down from the last one.  Music loaded
+ * through MusicResource is moved off those channels by a ChannelRemapper.
+ * 
+ * Live-playing calls (notes, pedal, instrument) don't touch the synthesizer
+ * directly: they are queued to a NoteDispatcher Thread.  The queue takes
+ * calls from any Thread (the manuals are set up before the Swing Thread
+ * plays them), in the order they are made.
+ * 
+ * A manual channel can be layered with other free channels, each with its own
+ * instrument.  The live voices are capped (by default, to the polyphony of the
+ * synthesizer); the oldest voice is stolen when the cap is reached.
+ * 
+ * Music is played through the Playlist, on a Sequencer that is opened once.
+ * The notes it sounds are tracked by a NoteActivity, to show them.
  * 
  * Implements singleton pattern.
  * 
@@ -42,23 +60,48 @@ public class MusicManager {
 	private static MusicManager musicManager;
 	
 	public static final int NUM_INSTRUMENT = 128;
+	public static final int NUM_CHANNELS = 16;
+	public static final int NUM_PITCHES = 128;
 	
 	// default values for synthesizer
 	public static final int SYNTH_CHANNEL_NO = 15;
 	public static final int SYNTH_NOTE_VELOCITY = 120;
+	public static final int SYNTH_RELEASE_VELOCITY = 127;
+	public static final int MIN_VELOCITY = 1; // 0 would be a note off
+	public static final int MAX_VELOCITY = 127;
 	public static final int SYNTH_INSTRUMENT = 0; // acoustic grand piano
+	public static final int DRUM_CHANNEL_NO = 9;
+	public static final int NO_CHANNEL = -1;
+
+	// overrides the polyphony cap of the live voices
+	public static final String MAX_POLYPHONY_PROPERTY = "virtualpiano.maxPolyphony";
 
 	// pedal
 	public static final int PEDAL_ID = 64;
 	public static final int PEDAL_ON = 127;
 	public static final int PEDAL_OFF = 0;
+	public static final int PEDAL_HALF = 64; // from this value, the pedal is down
+
+	// expression: the channel volume used to fade the music
+	public static final int EXPRESSION_ID = 11;
+	public static final int MAX_EXPRESSION = 127;
+
+	// controllers that stop every note of a channel
+	public static final int ALL_SOUND_OFF = 120;
+	public static final int ALL_NOTES_OFF = 123;
 	
 	private Sequencer sequencer;
+	private Playlist playlist;
+	private NoteActivity noteActivity = new NoteActivity(); // the notes of the music sounding
+	private StreamingPlayer streamingPlayer; // null if not streaming
 	private Synthesizer synth;
-	private MidiChannel synthChannel;
-	private int synthInstrument;
+	private Receiver streamReceiver; // of the synthesizer, reused by every stream
+	private NoteDispatcher noteDispatcher; // null if there is no synthesizer
+	private PerformanceRecorder recorder; // null if not recording
+	private int[] synthInstruments = new int[MusicManager.NUM_CHANNELS];
+	private boolean[] isLiveChannel = new boolean[MusicManager.NUM_CHANNELS];
 	
-	private static List<String> instrumentNames;
+	private static volatile List<String> instrumentNames;
 	
 	/**
 	 * Returns the default instance.
@@ -73,18 +116,22 @@ public class MusicManager {
 
 	/**
 	 * Initializes the default instance.  Must be called first when the
-	 * program starts to open the sequencer.
+	 * program starts to open the sequencer.  The slowest step of the startup;
+	 * can be called from a startup Thread, as long as the default instance is
+	 * not used before it returns.
 	 */
 	public static void init() {
 		musicManager = new MusicManager();
-		initInstrumentNames();
 	}
 
 	/**
-	 * Populates the instrument names (a private static List).
+	 * Populates the instrument names (a private static List).  Called on
+	 * first use if not called at startup.
 	 */
-	private static void initInstrumentNames() {
-		instrumentNames = new ArrayList<String>();
+	public static synchronized void initInstrumentNames() {
+		if (MusicManager.instrumentNames != null) return;
+		
+		List<String> instrumentNames = new ArrayList<String>();
 		try {
 			URL url = Utilities.getResourceURL(MusicManager.instrumentFileName);
 			BufferedReader in = new BufferedReader(new InputStreamReader(url.openStream()));
@@ -112,6 +159,8 @@ public class MusicManager {
 		// fault tolerance: append empty string until size is at least 128
 		while (instrumentNames.size() < MusicManager.NUM_INSTRUMENT)
 			instrumentNames.add(""); // default: empty string
+		
+		MusicManager.instrumentNames = instrumentNames;
 
 	}
 
@@ -121,6 +170,9 @@ public class MusicManager {
 	 * @return
 	 */
 	public static String getInstrumentName(int id) {
+		if (MusicManager.instrumentNames == null)
+			initInstrumentNames();
+		
 		return MusicManager.instrumentNames.get(id);
 	}
 	
@@ -128,22 +180,29 @@ public class MusicManager {
 	 * Default constructor.  Initializes the sequencer.
 	 */
 	private MusicManager() {
+		playlist = new Playlist(this);
+		
 		try {
-			// init sequencer
+			// init sequencer.  stays open: music is switched with setSequence
 			sequencer = MidiSystem.getSequencer();
 			sequencer.open();
+			sequencer.addMetaEventListener(playlist);
+			sequencer.getTransmitter().setReceiver(noteActivity); // besides the synthesizer
 
 			// init synthesizer
 			synth = MidiSystem.getSynthesizer();
 			synth.open();
+			streamReceiver = synth.getReceiver(); // the synthesizer keeps every Receiver it gives
 			
 			// DEBUG
 			//System.out.print("latency = " + synth.getLatency());
 			//System.out.print("max polyphony = " + synth.getMaxPolyphony());
 
-			// get channel for synthesizing: the highest numbered channel.  sets it up
+			// channel for synthesizing: the highest numbered channel.  sets it up
 			MidiChannel[] channels = synth.getChannels();
-			synthChannel = channels[channels.length - 1];
+			noteDispatcher = new NoteDispatcher(channels,
+					Integer.getInteger(MusicManager.MAX_POLYPHONY_PROPERTY, synth.getMaxPolyphony()));
+			noteDispatcher.start();
 			setSynthInstrument(MusicManager.SYNTH_INSTRUMENT);
 			
 		} catch (MidiUnavailableException e) {
@@ -159,6 +218,10 @@ public class MusicManager {
 	 */
 	@Override
 	protected void finalize() throws Throwable {
+		if (noteDispatcher != null)
+			noteDispatcher.interrupt();
+		if (streamReceiver != null)
+			streamReceiver.close();
 		if (synth != null)
 			synth.close();
 		if (sequencer != null)
@@ -167,25 +230,20 @@ public class MusicManager {
 	}
 	
 	/**
-	 * Plays the supplied Sequence.  Only one MIDI music can play at the same
-	 * time.  If a music is currently playing, the previous music will be
-	 * stopped first.
+	 * Plays the supplied Sequence from its start.  Only one MIDI music can
+	 * play at the same time.  If a music is currently playing, the previous
+	 * music will be stopped first.  The Playlist calls this; to play music
+	 * one after another, use the Playlist instead.
 	 * @param sequence
 	 */
 	public void play(Sequence sequence) {
 		if (sequencer == null) return;
 		
-		sequencer.stop();
-		sequencer.close();
-		try {
-			sequencer.open();
-		} catch (MidiUnavailableException e) {
-			ErrorHandler.display("Cannot play MIDI music");
-			return;
-		}
-		
+		stop();
 		try {
-			sequencer.setSequence(sequence);
+			if (sequencer.getSequence() != sequence) // replaying needs no setting
+				sequencer.setSequence(sequence);
+			sequencer.setTickPosition(0);
 			sequencer.setLoopCount(0);
 			sequencer.start();
 		} catch (InvalidMidiDataException e) {
@@ -194,13 +252,118 @@ public class MusicManager {
 		}
 	}
 	
+	/**
+	 * Plays the MIDI file streamed, instead of parsed whole into a Sequence,
+	 * to the synthesizer: for long or dense files.  If a music is currently
+	 * playing, it will be stopped first.
+	 * @param midiFile from its start
+	 */
+	public void play(StreamingMidiFile midiFile) {
+		if (streamReceiver == null) return;
+		
+		stop();
+		streamingPlayer = new StreamingPlayer(midiFile, streamReceiver, getReservedChannels(), noteActivity);
+		streamingPlayer.start();
+	}
+	
+	/**
+	 * Returns whether music can be streamed: there is a synthesizer.
+	 * @return true if yes, false otherwise
+	 */
+	public boolean canStream() {
+		return streamReceiver != null;
+	}
+	
+	/**
+	 * Returns whether streamed music is playing.
+	 * @return true if yes, false otherwise
+	 */
+	public boolean isStreaming() {
+		StreamingPlayer streamingPlayer = this.streamingPlayer;
+		return streamingPlayer != null && streamingPlayer.isAlive();
+	}
+	
 	/**
 	 * Stops whatever is currently playing.
 	 */
 	public void stop() {
+		if (streamingPlayer != null) {
+			streamingPlayer.interrupt();
+			streamingPlayer = null;
+		}
 		if (sequencer == null) return;
 
 		sequencer.stop();
+		noteActivity.reset();
+	}
+
+	/**
+	 * Returns the Sequence on the sequencer: playing, or played last.
+	 * @return the Sequence, or null if none
+	 */
+	public Sequence getSequence() {
+		if (sequencer == null) return null;
+		
+		return sequencer.getSequence();
+	}
+	
+	/**
+	 * Returns the position of the sequencer in its Sequence.
+	 * @return the tick
+	 */
+	public long getTickPosition() {
+		if (sequencer == null) return 0;
+		
+		return sequencer.getTickPosition();
+	}
+
+	/**
+	 * Returns the notes the music on the sequencer is sounding.
+	 * @return the NoteActivity.  Shows nothing if there is no sequencer
+	 */
+	public NoteActivity getNoteActivity() {
+		return noteActivity;
+	}
+
+	/**
+	 * Returns the Playlist, which plays music on the sequencer.
+	 * @return the Playlist.  Plays nothing if there is no sequencer
+	 */
+	public Playlist getPlaylist() {
+		return playlist;
+	}
+
+	/**
+	 * Returns the sequencer, for the Playlist.
+	 * @return the sequencer.  May be null
+	 */
+	Sequencer getSequencer() {
+		return sequencer;
+	}
+
+	/**
+	 * Sets the expression of the channels the music plays on (not the live
+	 * channels), to fade it.  Sent straight to the receivers of the
+	 * sequencer.  Called by the Playlist.
+	 * @param expression 0 to MAX_EXPRESSION
+	 */
+	void setMusicExpression(int expression) {
+		if (sequencer == null) return;
+
+		for (Transmitter transmitter: sequencer.getTransmitters()) {
+			Receiver receiver = transmitter.getReceiver();
+			if (receiver == null) continue;
+
+			for (int channel = 0; channel < MusicManager.NUM_CHANNELS; channel++) {
+				if (isLiveChannel[channel]) continue;
+				try {
+					receiver.send(new ShortMessage(ShortMessage.CONTROL_CHANGE, channel,
+							MusicManager.EXPRESSION_ID, expression), -1);
+				} catch (InvalidMidiDataException e) {
+					// cannot happen: the data is in range
+				}
+			}
+		}
 	}
 	
 	/**
@@ -208,7 +371,39 @@ public class MusicManager {
 	 * @param pitch an int, 0 = C0, 60 = middle C
 	 */
 	public void playNote(int pitch) {
-		synthChannel.noteOn(pitch, MusicManager.SYNTH_NOTE_VELOCITY);
+		playNote(MusicManager.SYNTH_CHANNEL_NO, pitch);
+	}
+
+	/**
+	 * Plays a single note in the specified channel.
+	 * @param channel the channel of the manual
+	 * @param pitch an int, 0 = C0, 60 = middle C
+	 */
+	public void playNote(int channel, int pitch) {
+		playNote(channel, pitch, MusicManager.SYNTH_NOTE_VELOCITY);
+	}
+
+	/**
+	 * Plays a single note in the specified channel, as loud as the velocity.
+	 * @param channel the channel of the manual
+	 * @param pitch an int, 0 = C0, 60 = middle C
+	 * @param velocity MIN_VELOCITY to MAX_VELOCITY
+	 */
+	public void playNote(int channel, int pitch, int velocity) {
+		send(ShortMessage.NOTE_ON, channel, pitch, velocity, System.nanoTime());
+	}
+
+	/**
+	 * Plays a single note in the specified channel, as loud as the velocity,
+	 * for an input event: its note on latency is measured from the event.
+	 * @param channel the channel of the manual
+	 * @param pitch an int, 0 = C0, 60 = middle C
+	 * @param velocity MIN_VELOCITY to MAX_VELOCITY
+	 * @param when the time of the input event, e.g. InputEvent.getWhen()
+	 * (System.currentTimeMillis() scale)
+	 */
+	public void playNote(int channel, int pitch, int velocity, long when) {
+		send(ShortMessage.NOTE_ON, channel, pitch, velocity, MusicManager.toNanoTime(when));
 	}
 
 	/**
@@ -216,21 +411,57 @@ public class MusicManager {
 	 * @param pitch an int, 0 = C0, 60 = middle C
 	 */
 	public void stopNote(int pitch) {
-		synthChannel.noteOff(pitch, 127);
+		stopNote(MusicManager.SYNTH_CHANNEL_NO, pitch);
+	}
+
+	/**
+	 * Stop a single note in the specified channel.
+	 * @param channel the channel of the manual
+	 * @param pitch an int, 0 = C0, 60 = middle C
+	 */
+	public void stopNote(int channel, int pitch) {
+		stopNote(channel, pitch, MusicManager.SYNTH_RELEASE_VELOCITY);
+	}
+
+	/**
+	 * Stop a single note in the specified channel, as fast as the release
+	 * velocity.
+	 * @param channel the channel of the manual
+	 * @param pitch an int, 0 = C0, 60 = middle C
+	 * @param velocity the release velocity, 0 to MAX_VELOCITY
+	 */
+	public void stopNote(int channel, int pitch, int velocity) {
+		send(ShortMessage.NOTE_OFF, channel, pitch, velocity);
 	}
 
 	/**
 	 * Pedal on in synthesizer.
 	 */
 	public void pedalDown() {
-		synthChannel.controlChange(MusicManager.PEDAL_ID, MusicManager.PEDAL_ON);
+		pedalDown(MusicManager.SYNTH_CHANNEL_NO);
+	}
+
+	/**
+	 * Pedal on in the specified channel.
+	 * @param channel the channel of the manual
+	 */
+	public void pedalDown(int channel) {
+		send(ShortMessage.CONTROL_CHANGE, channel, MusicManager.PEDAL_ID, MusicManager.PEDAL_ON);
 	}
 
 	/**
 	 * Pedal off in synthesizer.
 	 */
 	public void pedalUp() {
-		synthChannel.controlChange(MusicManager.PEDAL_ID, MusicManager.PEDAL_OFF);
+		pedalUp(MusicManager.SYNTH_CHANNEL_NO);
+	}
+
+	/**
+	 * Pedal off in the specified channel.
+	 * @param channel the channel of the manual
+	 */
+	public void pedalUp(int channel) {
+		send(ShortMessage.CONTROL_CHANGE, channel, MusicManager.PEDAL_ID, MusicManager.PEDAL_OFF);
 	}
 	
 	/**
@@ -238,29 +469,189 @@ public class MusicManager {
 	 * @param synthInstrument
 	 */
 	public void setSynthInstrument(int synthInstrument) {
+		setSynthInstrument(MusicManager.SYNTH_CHANNEL_NO, synthInstrument);
+	}
+
+	/**
+	 * Sets a new instrument for the specified channel and change the
+	 * instrument for real.
+	 * @param channel the channel of the manual
+	 * @param synthInstrument
+	 */
+	public void setSynthInstrument(int channel, int synthInstrument) {
 		// no error checking
-		this.synthInstrument = synthInstrument;
-		synthChannel.programChange(synthInstrument);
+		synthInstruments[channel] = synthInstrument;
+		isLiveChannel[channel] = true;
+		send(ShortMessage.PROGRAM_CHANGE, channel, synthInstrument, 0);
+	}
+
+	/**
+	 * Layers a free channel onto the specified channel: every note played on
+	 * the channel also plays on the layer, with the layer's own instrument.
+	 * The free channel is searched from the last channel down, skipping the
+	 * drum channel and the channels already in live use.
+	 * @param channel the channel of the manual
+	 * @param synthInstrument the instrument of the layer
+	 * @return the channel of the layer, or NO_CHANNEL if there is no free one
+	 */
+	public int addLayer(int channel, int synthInstrument) {
+		for (int layer = MusicManager.NUM_CHANNELS - 1; layer >= 0; layer--) {
+			if (isLiveChannel[layer] || layer == MusicManager.DRUM_CHANNEL_NO)
+				continue;
+			
+			setSynthInstrument(layer, synthInstrument); // marks it as live
+			if (noteDispatcher != null)
+				noteDispatcher.send(NoteDispatcher.LAYER, channel, layer, 1);
+			return layer;
+		}
+		return MusicManager.NO_CHANNEL;
+	}
+
+	/**
+	 * Removes a layer added by addLayer and frees its channel.  Its sounding
+	 * notes are stopped.
+	 * @param channel the channel of the manual
+	 * @param layer the channel of the layer
+	 */
+	public void removeLayer(int channel, int layer) {
+		isLiveChannel[layer] = false;
+		if (noteDispatcher != null)
+			noteDispatcher.send(NoteDispatcher.LAYER, channel, layer, 0);
+	}
+
+	/**
+	 * Returns the channels music must not play on: the synth channel and
+	 * the channels in live use (manuals and layers).
+	 * @return bit i set if channel i is reserved
+	 */
+	public int getReservedChannels() {
+		int reserved = 1 << MusicManager.SYNTH_CHANNEL_NO;
+		for (int channel = 0; channel < MusicManager.NUM_CHANNELS; channel++) {
+			if (isLiveChannel[channel])
+				reserved |= 1 << channel;
+		}
+		return reserved;
+	}
+
+	/**
+	 * Sets the maximum number of live voices (notes, including the layers)
+	 * sounding at the same time.
+	 * @param maxPolyphony
+	 */
+	public void setMaxPolyphony(int maxPolyphony) {
+		if (noteDispatcher == null) return;
+		
+		noteDispatcher.getVoiceManager().setMaxVoices(maxPolyphony);
+	}
+
+	public int getMaxPolyphony() {
+		if (noteDispatcher == null) return 0;
+		
+		return noteDispatcher.getVoiceManager().getMaxVoices();
+	}
+
+	/**
+	 * Queues a live-playing event, timed from now.
+	 * @param command e.g. ShortMessage.NOTE_ON
+	 * @param channel
+	 * @param data1
+	 * @param data2
+	 */
+	private void send(int command, int channel, int data1, int data2) {
+		send(command, channel, data1, data2, System.nanoTime());
+	}
+
+	/**
+	 * Queues a live-playing event.
+	 * @param command e.g. ShortMessage.NOTE_ON
+	 * @param channel
+	 * @param data1
+	 * @param data2
+	 * @param inputNanos the System.nanoTime() of the input event
+	 */
+	private void send(int command, int channel, int data1, int data2, long inputNanos) {
+		if (recorder != null)
+			recorder.record(command, channel, data1, data2);
+		
+		if (noteDispatcher == null) return;
+		
+		noteDispatcher.send(command, channel, data1, data2, inputNanos);
+	}
+
+	/**
+	 * Converts the time of an input event to the System.nanoTime() scale.
+	 * Precise to the millisecond of the event.
+	 * @param when in System.currentTimeMillis() scale
+	 * @return the System.nanoTime() of the event, never after now
+	 */
+	private static long toNanoTime(long when) {
+		long ago = Math.max(System.currentTimeMillis() - when, 0);
+		return System.nanoTime() - TimeUnit.MILLISECONDS.toNanos(ago);
+	}
+
+	/**
+	 * Sets the recorder that receives every live-playing event.  The current
+	 * instrument of each live channel is recorded first, so the recording
+	 * starts with the right sound.
+	 * @param recorder the started recorder, or null to stop recording
+	 */
+	public void setRecorder(PerformanceRecorder recorder) {
+		this.recorder = recorder;
+		if (recorder == null) return;
+		
+		for (int channel = 0; channel < MusicManager.NUM_CHANNELS; channel++) {
+			if (isLiveChannel[channel])
+				recorder.record(ShortMessage.PROGRAM_CHANGE, channel, synthInstruments[channel], 0);
+		}
+	}
+
+	public PerformanceRecorder getRecorder() {
+		return recorder;
+	}
+
+	/**
+	 * Returns the histogram of the time between the input event of a note
+	 * and the synthesizer receiving it.
+	 * @return the histogram, or null if there is no synthesizer
+	 */
+	public LatencyHistogram getNoteOnLatency() {
+		if (noteDispatcher == null) return null;
+		
+		return noteDispatcher.getNoteOnLatency();
 	}
 
 	public void decSynthInstrument() {
+		decSynthInstrument(MusicManager.SYNTH_CHANNEL_NO);
+	}
+	
+	public void decSynthInstrument(int channel) {
+		int synthInstrument = synthInstruments[channel];
 		if (synthInstrument > 0) {
-			setSynthInstrument(synthInstrument - 1);
+			setSynthInstrument(channel, synthInstrument - 1);
 		} else {
-			setSynthInstrument(MusicManager.NUM_INSTRUMENT - 1);
+			setSynthInstrument(channel, MusicManager.NUM_INSTRUMENT - 1);
 		}
 	}
 	
 	public void incSynthInstrument() {
+		incSynthInstrument(MusicManager.SYNTH_CHANNEL_NO);
+	}
+	
+	public void incSynthInstrument(int channel) {
+		int synthInstrument = synthInstruments[channel];
 		if (synthInstrument < MusicManager.NUM_INSTRUMENT - 1) {
-			setSynthInstrument(synthInstrument + 1);
+			setSynthInstrument(channel, synthInstrument + 1);
 		} else {
-			setSynthInstrument(0);
+			setSynthInstrument(channel, 0);
 		}
 	}
 	
 	public int getSynthInstrument() {
-		return synthInstrument;
+		return getSynthInstrument(MusicManager.SYNTH_CHANNEL_NO);
+	}
+	
+	public int getSynthInstrument(int channel) {
+		return synthInstruments[channel];
 	}
 	
 	/**
@@ -268,6 +659,6 @@ public class MusicManager {
 	 * @return the name of the instrument
 	 */
 	public String getInstrumentName() {
-		return MusicManager.getInstrumentName(synthInstrument);
+		return MusicManager.getInstrumentName(getSynthInstrument());
 	}
 }
@@ -0,0 +1,114 @@
+package music;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+import javax.sound.midi.MidiMessage;
+import javax.sound.midi.Receiver;
+import javax.sound.midi.ShortMessage;
+
+/**
+ * A Receiver that keeps track of the notes the music is sounding, to show
+ * them (e.g. on the keys).  Connected to a Transmitter of the sequencer.
+ *
+ * For each pitch, the channels sounding it are kept as bits, changed with
+ * compare-and-set: receiving a message allocates nothing and never blocks
+ * the sequencer.  Every change increments the version, so a reader can poll
+ * it once per frame and look at the pitches only when something changed,
+ * however many messages came in between.  The drum channel is left out: its
+ * pitches are not notes.
+ *
+ * @author Derianto Kusuma
+ *
+ */
+public class NoteActivity implements Receiver {
+
+	private final AtomicIntegerArray soundingChannels = new AtomicIntegerArray(MusicManager.NUM_PITCHES); // bit per channel
+	private final AtomicInteger version = new AtomicInteger();
+
+	/**
+	 * Updates the notes sounding.  Called by the sequencer, or by the Thread
+	 * stopping it.
+	 * @param message
+	 * @param timeStamp ignored
+	 */
+	public void send(MidiMessage message, long timeStamp) {
+		if (!(message instanceof ShortMessage)) return;
+
+		ShortMessage shortMessage = (ShortMessage) message;
+		int channel = shortMessage.getChannel();
+		if (channel == MusicManager.DRUM_CHANNEL_NO) return;
+
+		switch (shortMessage.getCommand()) {
+		case ShortMessage.NOTE_ON:
+			setSounding(shortMessage.getData1(), channel, shortMessage.getData2() > 0);
+			break;
+		case ShortMessage.NOTE_OFF:
+			setSounding(shortMessage.getData1(), channel, false);
+			break;
+		case ShortMessage.CONTROL_CHANGE:
+			int controller = shortMessage.getData1();
+			if (controller == MusicManager.ALL_NOTES_OFF || controller == MusicManager.ALL_SOUND_OFF) {
+				for (int pitch = 0; pitch < MusicManager.NUM_PITCHES; pitch++)
+					setSounding(pitch, channel, false);
+			}
+			break;
+		default:
+			break;
+		}
+	}
+
+	/**
+	 * Sets whether the channel sounds the pitch.  Increments the version if
+	 * it changes.
+	 */
+	private void setSounding(int pitch, int channel, boolean isSounding) {
+		int bit = 1 << channel;
+		while (true) {
+			int channels = soundingChannels.get(pitch);
+			int newChannels = (isSounding) ? channels | bit : channels & ~bit;
+			if (newChannels == channels) return;
+			if (soundingChannels.compareAndSet(pitch, channels, newChannels)) break;
+		}
+		version.incrementAndGet();
+	}
+
+	/**
+	 * Forgets every note, e.g. when the music is stopped.
+	 */
+	public void reset() {
+		boolean isChanged = false;
+		for (int pitch = 0; pitch < MusicManager.NUM_PITCHES; pitch++) {
+			if (soundingChannels.getAndSet(pitch, 0) != 0)
+				isChanged = true;
+		}
+		if (isChanged)
+			version.incrementAndGet();
+	}
+
+	/**
+	 * Forgets every note.  The NoteActivity can still be used after.
+	 */
+	public void close() {
+		reset();
+	}
+
+	/**
+	 * Returns the version, incremented at every change of the notes sounding.
+	 * Read it before the pitches: if it is the same at the next poll, nothing
+	 * has changed since.
+	 * @return the version
+	 */
+	public int getVersion() {
+		return version.get();
+	}
+
+	/**
+	 * Returns whether the music sounds the pitch, on any channel.
+	 * @param pitch 0 to MusicManager.NUM_PITCHES - 1
+	 * @return true if yes, false otherwise
+	 */
+	public boolean isSounding(int pitch) {
+		return soundingChannels.get(pitch) != 0;
+	}
+}
@@ -0,0 +1,166 @@
+package music;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+import javax.sound.midi.MidiChannel;
+import javax.sound.midi.ShortMessage;
+
+import util.Log;
+
+/**
+ * The Thread that sends live-playing events to the synthesizer channels.
+ * Input events (key press, pedal, instrument change) are offered to a
+ * MidiEventQueue, mostly by the Swing Thread (but also by the Threads
+ * setting up the manuals), and consumed here, so the Swing Thread never
+ * waits for the synthesizer, and a slow paint never delays a note.
+ *
+ * Notes and controllers go through a VoiceManager, which layers channels and
+ * caps the polyphony.
+ *
+ * The time from the input event to calling noteOn is recorded in a
+ * LatencyHistogram.
+ *
+ * @author Derianto Kusuma
+ *
+ */
+public class NoteDispatcher extends Thread implements MidiEventQueue.Handler {
+
+	public static final int QUEUE_CAPACITY = 1024;
+
+	// not a MIDI command: layers channel data1 onto the channel (data2 = 1),
+	// or removes the layer (data2 = 0).  Uses the system message status,
+	// which live playing never sends
+	public static final int LAYER = 0xF0;
+
+	// how long to keep polling before parking, and the longest park
+	private static final long SPIN_NANOS = TimeUnit.MICROSECONDS.toNanos(50);
+	private static final long MAX_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(10);
+
+	private final MidiEventQueue queue;
+	private final MidiChannel[] channels;
+	private final VoiceManager voiceManager;
+	private final LatencyHistogram noteOnLatency;
+
+	private volatile boolean isParked;
+
+	/**
+	 * Creates a new NoteDispatcher.  Must call start after this.
+	 * @param channels the synthesizer channels
+	 * @param maxVoices the polyphony cap
+	 */
+	public NoteDispatcher(MidiChannel[] channels, int maxVoices) {
+		this.queue = new MidiEventQueue(NoteDispatcher.QUEUE_CAPACITY);
+		this.channels = channels;
+		this.voiceManager = new VoiceManager(channels, maxVoices);
+		this.noteOnLatency = new LatencyHistogram();
+		this.isParked = false;
+
+		setName("Note Dispatcher Thread"); // for bookkeeping
+		setDaemon(true);
+		setPriority(Thread.MAX_PRIORITY);
+	}
+
+	/**
+	 * Offers an event to be sent to the synthesizer, timed from now.
+	 * @param command e.g. ShortMessage.NOTE_ON, or LAYER
+	 * @param channel
+	 * @param data1
+	 * @param data2
+	 */
+	public void send(int command, int channel, int data1, int data2) {
+		send(command, channel, data1, data2, System.nanoTime());
+	}
+
+	/**
+	 * Offers an event to be sent to the synthesizer.  Can be called from any
+	 * Thread.  If the queue is full, waits until there is room, since a
+	 * dropped note off would leave a stuck note.
+	 * @param command e.g. ShortMessage.NOTE_ON, or LAYER
+	 * @param channel
+	 * @param data1
+	 * @param data2
+	 * @param inputNanos the System.nanoTime() of the input event, the start
+	 * of the note on latency
+	 */
+	public void send(int command, int channel, int data1, int data2, long inputNanos) {
+		int message = MidiEventQueue.pack(command, channel, data1, data2);
+		while (!queue.offer(message, inputNanos)) {
+			LockSupport.unpark(this);
+			Thread.yield();
+		}
+		if (isParked)
+			LockSupport.unpark(this);
+	}
+
+	/**
+	 * Returns the VoiceManager.  Only its polyphony cap may be changed from
+	 * another Thread; the rest belongs to this Thread.
+	 * @return the VoiceManager
+	 */
+	public VoiceManager getVoiceManager() {
+		return voiceManager;
+	}
+
+	/**
+	 * Returns the histogram of the time between the input event of a note on
+	 * and sending it to the synthesizer.
+	 * @return the histogram
+	 */
+	public LatencyHistogram getNoteOnLatency() {
+		return noteOnLatency;
+	}
+
+	/**
+	 * Consumes the queue until interrupted.  Polls for a short while after
+	 * each event, then parks.
+	 */
+	@Override
+	public void run() {
+		long idleSince = System.nanoTime();
+		while (!isInterrupted()) {
+			if (queue.drain(this) > 0) {
+				idleSince = System.nanoTime();
+			} else if (System.nanoTime() - idleSince < NoteDispatcher.SPIN_NANOS) {
+				Thread.yield();
+			} else {
+				isParked = true;
+				if (queue.isEmpty()) // re-check so a wake up is not lost
+					LockSupport.parkNanos(this, NoteDispatcher.MAX_PARK_NANOS);
+				isParked = false;
+			}
+		}
+	}
+
+	/**
+	 * Sends one event to its synthesizer channel.
+	 */
+	public void handle(int message, long timestamp) {
+		int channel = MidiEventQueue.getChannel(message);
+		int data1 = MidiEventQueue.getData1(message);
+		int data2 = MidiEventQueue.getData2(message);
+
+		switch (MidiEventQueue.getCommand(message)) {
+		case ShortMessage.NOTE_ON:
+			voiceManager.noteOn(channel, data1, data2);
+			noteOnLatency.record(System.nanoTime() - timestamp);
+			if (Log.IS_TRACE)
+				Log.trace("Note on %d, latency %d ns", data1, System.nanoTime() - timestamp);
+			break;
+		case ShortMessage.NOTE_OFF:
+			voiceManager.noteOff(channel, data1, data2);
+			break;
+		case ShortMessage.CONTROL_CHANGE:
+			voiceManager.controlChange(channel, data1, data2);
+			break;
+		case ShortMessage.PROGRAM_CHANGE:
+			channels[channel].programChange(data1);
+			break;
+		case NoteDispatcher.LAYER:
+			voiceManager.setLayer(channel, data1, data2 != 0);
+			break;
+		default:
+			// not used for live playing
+		}
+	}
+}
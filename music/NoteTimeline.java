@@ -0,0 +1,219 @@
+package music;
+
+import java.util.Arrays;
+
+import javax.sound.midi.MidiEvent;
+import javax.sound.midi.Sequence;
+import javax.sound.midi.ShortMessage;
+import javax.sound.midi.Track;
+
+/**
+ * The notes of a Sequence, indexed by pitch, to find the notes sounding in a
+ * range of ticks quickly (e.g. to draw the notes coming up).
+ *
+ * For each pitch, the notes are kept in primitive arrays sorted by their
+ * start tick.  Since notes of the same pitch may overlap (on different
+ * channels), the running maximum of their end ticks is kept as well: it is
+ * sorted, so the first note still sounding at a tick is a binary search.
+ * The drum channel is left out: its pitches are not notes.
+ *
+ * Usage: construct (can take a while for a long Sequence: not on the Swing
+ * Thread), then for a pitch, iterate from findFirst while getStart is before
+ * the end of the range, skipping the notes with getEnd before its start.
+ *
+ * @author Derianto Kusuma
+ *
+ */
+public class NoteTimeline {
+
+	// a note event packed in a long, the tick in the high bits
+	private static final int TICK_SHIFT = 12;
+	private static final int ON_SHIFT = 11;
+	private static final int CHANNEL_SHIFT = 7;
+
+	private TempoMap tempoMap;
+
+	// pitch p, note i: from starts[p][i] to ends[p][i] (ticks), on channels[p][i]
+	private int[] numNotes = new int[MusicManager.NUM_PITCHES];
+	private long[][] starts = new long[MusicManager.NUM_PITCHES][];
+	private long[][] ends = new long[MusicManager.NUM_PITCHES][];
+	private long[][] maxEnds = new long[MusicManager.NUM_PITCHES][]; // max of ends[p][0..i]
+	private byte[][] channels = new byte[MusicManager.NUM_PITCHES][];
+
+	/**
+	 * Indexes the notes of the Sequence.
+	 * @param sequence
+	 */
+	public NoteTimeline(Sequence sequence) {
+		this.tempoMap = new TempoMap(sequence);
+
+		for (int p = 0; p < MusicManager.NUM_PITCHES; p++) {
+			starts[p] = new long[0];
+			ends[p] = new long[0];
+			channels[p] = new byte[0];
+		}
+
+		long[] events = collectNoteEvents(sequence);
+		sortByTick(events); // events at the same tick stay in the order of the tracks, as played
+
+		// slot of the sounding note of (channel, pitch), or -1
+		int[] sounding = new int[MusicManager.NUM_CHANNELS * MusicManager.NUM_PITCHES];
+		Arrays.fill(sounding, -1);
+
+		for (long event: events) {
+			long tick = event >>> NoteTimeline.TICK_SHIFT;
+			boolean isOn = ((event >> NoteTimeline.ON_SHIFT) & 1) != 0;
+			int channel = (int)(event >> NoteTimeline.CHANNEL_SHIFT) & 0x0F;
+			int pitch = (int) event & 0x7F;
+			int key = channel * MusicManager.NUM_PITCHES + pitch;
+
+			if (sounding[key] >= 0) { // ends here, also if the note is struck again
+				ends[pitch][sounding[key]] = tick;
+				sounding[key] = -1;
+			}
+			if (isOn)
+				sounding[key] = addNote(pitch, channel, tick);
+		}
+
+		// notes never released end with the Sequence
+		long tickLength = sequence.getTickLength();
+		for (int key = 0; key < sounding.length; key++) {
+			if (sounding[key] >= 0)
+				ends[key % MusicManager.NUM_PITCHES][sounding[key]] = tickLength;
+		}
+
+		for (int p = 0; p < MusicManager.NUM_PITCHES; p++) {
+			starts[p] = Arrays.copyOf(starts[p], numNotes[p]);
+			ends[p] = Arrays.copyOf(ends[p], numNotes[p]);
+			channels[p] = Arrays.copyOf(channels[p], numNotes[p]);
+			maxEnds[p] = new long[numNotes[p]];
+			for (int i = 0; i < numNotes[p]; i++)
+				maxEnds[p][i] = (i == 0) ? ends[p][i] : Math.max(maxEnds[p][i - 1], ends[p][i]);
+		}
+	}
+
+	/**
+	 * Returns the note on and note off events of every track (not of the
+	 * drum channel), packed.
+	 */
+	private static long[] collectNoteEvents(Sequence sequence) {
+		int count = 0;
+		long[] events = new long[1024];
+		for (Track track: sequence.getTracks()) {
+			for (int i = 0; i < track.size(); i++) {
+				MidiEvent event = track.get(i);
+				if (!(event.getMessage() instanceof ShortMessage)) continue;
+
+				ShortMessage message = (ShortMessage) event.getMessage();
+				int command = message.getCommand();
+				if ((command != ShortMessage.NOTE_ON && command != ShortMessage.NOTE_OFF) ||
+						message.getChannel() == MusicManager.DRUM_CHANNEL_NO)
+					continue;
+
+				boolean isOn = command == ShortMessage.NOTE_ON && message.getData2() > 0;
+				if (count == events.length)
+					events = Arrays.copyOf(events, count * 2);
+				events[count++] = (event.getTick() << NoteTimeline.TICK_SHIFT) |
+					((isOn) ? 1L << NoteTimeline.ON_SHIFT : 0) |
+					(message.getChannel() << NoteTimeline.CHANNEL_SHIFT) | message.getData1();
+			}
+		}
+		return Arrays.copyOf(events, count);
+	}
+
+	/**
+	 * Sorts the events by tick, keeping the order of the events at the same
+	 * tick (a stable merge sort): e.g. a note on then off at the same tick is
+	 * a note of no length, not a note sounding until the next one.
+	 */
+	private static void sortByTick(long[] events) {
+		long[] from = events;
+		long[] to = new long[events.length];
+		for (int width = 1; width < events.length; width *= 2) {
+			for (int low = 0; low < events.length; low += 2 * width) {
+				int middle = Math.min(low + width, events.length);
+				int high = Math.min(low + 2 * width, events.length);
+				int i = low;
+				int j = middle;
+				for (int k = low; k < high; k++) {
+					if (i < middle && (j >= high ||
+							from[i] >>> NoteTimeline.TICK_SHIFT <= from[j] >>> NoteTimeline.TICK_SHIFT)) {
+						to[k] = from[i++];
+					} else {
+						to[k] = from[j++];
+					}
+				}
+			}
+			long[] swap = from;
+			from = to;
+			to = swap;
+		}
+		if (from != events)
+			System.arraycopy(from, 0, events, 0, events.length);
+	}
+
+	/**
+	 * Adds a note, its end not known yet.  Notes are added in the order of
+	 * their start.
+	 * @return its index
+	 */
+	private int addNote(int pitch, int channel, long start) {
+		int i = numNotes[pitch]++;
+		if (i == starts[pitch].length) {
+			int capacity = Math.max(16, i * 2);
+			starts[pitch] = Arrays.copyOf(starts[pitch], capacity);
+			ends[pitch] = Arrays.copyOf(ends[pitch], capacity);
+			channels[pitch] = Arrays.copyOf(channels[pitch], capacity);
+		}
+		starts[pitch][i] = start;
+		ends[pitch][i] = start;
+		channels[pitch][i] = (byte) channel;
+		return i;
+	}
+
+	/**
+	 * Returns the first note of the pitch that may still sound at the tick:
+	 * the notes before it all end at or before the tick.
+	 * @param pitch
+	 * @param tick
+	 * @return the note index, getNumNotes if none
+	 */
+	public int findFirst(int pitch, long tick) {
+		long[] maxEnd = maxEnds[pitch];
+		int low = 0;
+		int high = numNotes[pitch];
+		while (low < high) { // first with maxEnd > tick
+			int middle = (low + high) >>> 1;
+			if (maxEnd[middle] > tick) {
+				high = middle;
+			} else {
+				low = middle + 1;
+			}
+		}
+		return low;
+	}
+
+	public int getNumNotes(int pitch) {
+		return numNotes[pitch];
+	}
+
+	public long getStart(int pitch, int i) {
+		return starts[pitch][i];
+	}
+
+	public long getEnd(int pitch, int i) {
+		return ends[pitch][i];
+	}
+
+	public int getChannel(int pitch, int i) {
+		return channels[pitch][i];
+	}
+
+	/**
+	 * Returns the TempoMap of the Sequence, to convert the ticks to time.
+	 * @return the TempoMap
+	 */
+	public TempoMap getTempoMap() {
+		return tempoMap;
+	}
+}
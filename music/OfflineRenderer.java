@@ -0,0 +1,283 @@
+package music;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.sound.midi.InvalidMidiDataException;
+import javax.sound.midi.MetaMessage;
+import javax.sound.midi.MidiEvent;
+import javax.sound.midi.MidiMessage;
+import javax.sound.midi.MidiSystem;
+import javax.sound.midi.MidiUnavailableException;
+import javax.sound.midi.Receiver;
+import javax.sound.midi.Sequence;
+import javax.sound.midi.ShortMessage;
+import javax.sound.midi.Synthesizer;
+import javax.sound.midi.Track;
+import javax.sound.sampled.AudioFileFormat;
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioInputStream;
+import javax.sound.sampled.AudioSystem;
+
+import util.Utilities;
+
+/**
+ * Renders a Sequence to a WAV file without a sound card, faster than real
+ * time.  Uses the stream mode (openStream) of the software synthesizer: all
+ * the MIDI events are sent upfront with their timestamps, then the audio is
+ * pulled from the synthesizer as fast as it can be computed.
+ *
+ * The software synthesizer is not part of the public API, so openStream is
+ * called by reflection.  On Java 9 and later, the JVM must be run with
+ * --add-exports java.desktop/com.sun.media.sound=ALL-UNNAMED
+ *
+ * Usage: construct, set the options, then render.  Can also be run from the
+ * command line to batch-render files (see main).
+ *
+ * @author Derianto Kusuma
+ *
+ */
+public class OfflineRenderer {
+
+	private static final String AUDIO_SYNTHESIZER_CLASS = "com.sun.media.sound.AudioSynthesizer";
+	private static final String MAX_POLYPHONY_KEY = "max polyphony";
+
+	public static final float DEFAULT_SAMPLE_RATE = 44100f;
+	public static final int DEFAULT_POLYPHONY = 64;
+	public static final int KEEP_INSTRUMENTS = -1;
+
+	// extra time rendered after the last event, so the notes can decay
+	public static final long TAIL_MICROS = 2000000;
+
+	private float sampleRate;
+	private int polyphony;
+	private int instrument;
+
+	/**
+	 * The outcome of a render.
+	 */
+	public static class Result {
+		private double audioSeconds;
+		private double wallSeconds;
+
+		private Result(double audioSeconds, double wallSeconds) {
+			this.audioSeconds = audioSeconds;
+			this.wallSeconds = wallSeconds;
+		}
+
+		public double getAudioSeconds() {
+			return audioSeconds;
+		}
+
+		public double getWallSeconds() {
+			return wallSeconds;
+		}
+
+		/**
+		 * Returns the seconds of audio rendered per wall-clock second.
+		 * @return the throughput
+		 */
+		public double getThroughput() {
+			return (wallSeconds > 0) ? audioSeconds / wallSeconds : 0;
+		}
+
+		@Override
+		public String toString() {
+			return String.format("%.1f s of audio in %.2f s (%.1fx real time)",
+					audioSeconds, wallSeconds, getThroughput());
+		}
+	}
+
+	/**
+	 * Default constructor.  44.1 kHz, 64 voices, instruments as in the
+	 * Sequence.
+	 */
+	public OfflineRenderer() {
+		this.sampleRate = OfflineRenderer.DEFAULT_SAMPLE_RATE;
+		this.polyphony = OfflineRenderer.DEFAULT_POLYPHONY;
+		this.instrument = OfflineRenderer.KEEP_INSTRUMENTS;
+	}
+
+	public void setSampleRate(float sampleRate) {
+		this.sampleRate = sampleRate;
+	}
+
+	public void setPolyphony(int polyphony) {
+		this.polyphony = polyphony;
+	}
+
+	/**
+	 * Plays all the channels (except drums) with the specified instrument,
+	 * ignoring the program changes of the Sequence.
+	 * @param instrument 0..127, or KEEP_INSTRUMENTS
+	 */
+	public void setInstrument(int instrument) {
+		this.instrument = instrument;
+	}
+
+	/**
+	 * Renders the Sequence to a 16-bit stereo WAV file.
+	 * @param sequence
+	 * @param outputFile
+	 * @return the durations of the render
+	 * @throws MidiUnavailableException if the software synthesizer cannot be
+	 * opened in stream mode
+	 * @throws IOException if the file cannot be written
+	 */
+	public Result render(Sequence sequence, File outputFile) throws MidiUnavailableException, IOException {
+		long wallStart = System.nanoTime();
+
+		AudioFormat format = new AudioFormat(sampleRate, 16, 2, true, false);
+		Synthesizer synth = MidiSystem.getSynthesizer(); // a new instance, not the one playing
+		AudioInputStream stream = openStream(synth, format);
+		try {
+			long lastMicros = sendSequence(sequence, synth.getReceiver());
+			long frames = (long)(format.getFrameRate() *
+					(lastMicros + OfflineRenderer.TAIL_MICROS) / 1000000.0);
+
+			AudioInputStream limited = new AudioInputStream(stream, format, frames);
+			AudioSystem.write(limited, AudioFileFormat.Type.WAVE, outputFile);
+
+			double audioSeconds = frames / format.getFrameRate();
+			double wallSeconds = (System.nanoTime() - wallStart) / 1e9;
+			return new Result(audioSeconds, wallSeconds);
+
+		} finally {
+			synth.close();
+		}
+	}
+
+	/**
+	 * Opens the synthesizer in stream mode.
+	 * @param synth
+	 * @param format
+	 * @return the stream to read the rendered audio from
+	 * @throws MidiUnavailableException
+	 */
+	private AudioInputStream openStream(Synthesizer synth, AudioFormat format) throws MidiUnavailableException {
+		Map<String, Object> info = new HashMap<String, Object>();
+		info.put(OfflineRenderer.MAX_POLYPHONY_KEY, polyphony);
+
+		try {
+			Class<?> audioSynth = Class.forName(OfflineRenderer.AUDIO_SYNTHESIZER_CLASS);
+			if (!audioSynth.isInstance(synth))
+				throw new MidiUnavailableException("No software synthesizer available");
+			Method openStream = audioSynth.getMethod("openStream", AudioFormat.class, Map.class);
+			return (AudioInputStream) openStream.invoke(synth, format, info);
+
+		} catch (ClassNotFoundException e) {
+			throw new MidiUnavailableException("No software synthesizer available");
+		} catch (NoSuchMethodException e) {
+			throw new MidiUnavailableException("No software synthesizer available");
+		} catch (IllegalAccessException e) {
+			throw new MidiUnavailableException("Cannot access the software synthesizer. " +
+					"Run with --add-exports java.desktop/com.sun.media.sound=ALL-UNNAMED");
+		} catch (InvocationTargetException e) {
+			if (e.getCause() instanceof MidiUnavailableException)
+				throw (MidiUnavailableException) e.getCause();
+			throw new MidiUnavailableException(String.valueOf(e.getCause()));
+		}
+	}
+
+	/**
+	 * Sends all the events of the Sequence to the receiver, timestamped in
+	 * microseconds.  The tracks are merged by tick on the fly.
+	 * @param sequence
+	 * @param receiver
+	 * @return the timestamp of the last event
+	 */
+	private long sendSequence(Sequence sequence, Receiver receiver) {
+		TempoMap tempoMap = new TempoMap(sequence);
+
+		if (instrument != OfflineRenderer.KEEP_INSTRUMENTS) {
+			for (int channel = 0; channel < 16; channel++) {
+				if (channel != MusicManager.DRUM_CHANNEL_NO)
+					sendShort(receiver, ShortMessage.PROGRAM_CHANGE, channel, instrument, 0);
+			}
+		}
+
+		Track[] tracks = sequence.getTracks();
+		int[] next = new int[tracks.length]; // next event index of each track
+		long lastMicros = 0;
+		while (true) {
+			// the track whose next event is the earliest
+			int earliest = -1;
+			long earliestTick = Long.MAX_VALUE;
+			for (int t = 0; t < tracks.length; t++) {
+				if (next[t] < tracks[t].size()) {
+					long tick = tracks[t].get(next[t]).getTick();
+					if (tick < earliestTick) {
+						earliest = t;
+						earliestTick = tick;
+					}
+				}
+			}
+			if (earliest == -1)
+				break;
+
+			MidiEvent event = tracks[earliest].get(next[earliest]++);
+			MidiMessage message = event.getMessage();
+			long micros = tempoMap.tickToMicros(event.getTick());
+			lastMicros = Math.max(lastMicros, micros);
+
+			if (message instanceof MetaMessage)
+				continue; // tempo is in the TempoMap, the rest is not audible
+			if (instrument != OfflineRenderer.KEEP_INSTRUMENTS && message instanceof ShortMessage &&
+					((ShortMessage) message).getCommand() == ShortMessage.PROGRAM_CHANGE)
+				continue;
+
+			receiver.send(message, micros);
+		}
+		return lastMicros;
+	}
+
+	private static void sendShort(Receiver receiver, int command, int channel, int data1, int data2) {
+		try {
+			ShortMessage message = new ShortMessage();
+			message.setMessage(command, channel, data1, data2);
+			receiver.send(message, 0);
+		} catch (InvalidMidiDataException e) {
+			// cannot happen: the data is always in range
+		}
+	}
+
+	/**
+	 * Batch-renders MIDI files to WAV files next to them, and reports the
+	 * throughput of each.
+	 * Usage: OfflineRenderer [-r sampleRate] [-p polyphony] [-i instrument] file.mid...
+	 * @param args
+	 */
+	public static void main(String[] args) {
+		OfflineRenderer renderer = new OfflineRenderer();
+		double totalAudio = 0;
+		double totalWall = 0;
+
+		for (int i = 0; i < args.length; i++) {
+			if (args[i].equals("-r") && i + 1 < args.length) {
+				renderer.setSampleRate(Float.parseFloat(args[++i]));
+			} else if (args[i].equals("-p") && i + 1 < args.length) {
+				renderer.setPolyphony(Integer.parseInt(args[++i]));
+			} else if (args[i].equals("-i") && i + 1 < args.length) {
+				renderer.setInstrument(Integer.parseInt(args[++i]));
+			} else {
+				File input = new File(args[i]);
+				File output = new File(input.getPath().replaceFirst("(\\.[^.]*)?$", ".wav"));
+				try {
+					Result result = renderer.render(MidiSystem.getSequence(input), output);
+					totalAudio += result.getAudioSeconds();
+					totalWall += result.getWallSeconds();
+					Utilities.trace(output + ": " + result);
+				} catch (Exception e) {
+					Utilities.traceErr(input + ": " + e.getMessage());
+				}
+			}
+		}
+
+		if (totalWall > 0)
+			Utilities.trace("Total: " + new Result(totalAudio, totalWall));
+	}
+}
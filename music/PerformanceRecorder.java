@@ -0,0 +1,215 @@
+package music;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.sound.midi.InvalidMidiDataException;
+import javax.sound.midi.MidiEvent;
+import javax.sound.midi.Sequence;
+import javax.sound.midi.ShortMessage;
+import javax.sound.midi.Track;
+
+/**
+ * Records the live-playing events (notes, pedal, instrument changes) into a
+ * compact binary file.  Recording only offers the event to a MidiEventQueue,
+ * so it adds no allocation and no I/O to the note path; a flusher Thread
+ * appends the events to the file.
+ *
+ * File format: the 4 magic bytes "VPR1", then for each event: the time since
+ * the previous event in microseconds (unsigned varint), the status byte,
+ * data1, and data2 (omitted for program change).
+ *
+ * If the flusher cannot keep up and the queue is full, events are dropped and
+ * counted rather than blocking the player.
+ *
+ * @author Derianto Kusuma
+ *
+ */
+public class PerformanceRecorder implements MidiEventQueue.Handler {
+
+	public static final byte[] MAGIC = new byte[] {'V', 'P', 'R', '1'};
+	public static final int QUEUE_CAPACITY = 65536;
+	public static final long FLUSH_INTERVAL_MILLIS = 5;
+
+	// exported Sequence: 500 ticks per quarter at the default 120 bpm = 1 ms per tick
+	public static final int EXPORT_RESOLUTION = 500;
+	public static final long EXPORT_MICROS_PER_TICK = 1000;
+
+	private File file;
+	private MidiEventQueue queue;
+	private OutputStream out;
+	private Thread flusherThread;
+	private long lastTimestamp; // written by the flusher Thread only
+	private final AtomicLong numDropped = new AtomicLong(); // counted by the recording and flusher Threads
+
+	/**
+	 * Creates a new PerformanceRecorder.  Must call start after this.
+	 * @param file the file to write
+	 */
+	public PerformanceRecorder(File file) {
+		this.file = file;
+		this.queue = new MidiEventQueue(PerformanceRecorder.QUEUE_CAPACITY);
+	}
+
+	/**
+	 * Creates the file and starts the flusher Thread.
+	 * @throws IOException if the file cannot be created
+	 */
+	public void start() throws IOException {
+		out = new BufferedOutputStream(new FileOutputStream(file));
+		out.write(PerformanceRecorder.MAGIC);
+		lastTimestamp = System.nanoTime();
+
+		flusherThread = new Thread(new Runnable() {
+			public void run() {
+				try {
+					while (true) {
+						queue.drain(PerformanceRecorder.this);
+						Thread.sleep(PerformanceRecorder.FLUSH_INTERVAL_MILLIS);
+					}
+				} catch (InterruptedException e) {
+					return; // interruption is normal
+				}
+			}
+		});
+		flusherThread.setName("Performance Recorder Thread"); // for bookkeeping
+		flusherThread.setDaemon(true);
+		flusherThread.start();
+	}
+
+	/**
+	 * Stops the flusher Thread, writes the remaining events and closes the
+	 * file.
+	 * @throws IOException if the file cannot be written
+	 */
+	public void stop() throws IOException {
+		flusherThread.interrupt();
+		try {
+			flusherThread.join();
+		} catch (InterruptedException e) {
+			// ignore.  this is Swing Thread
+		}
+		queue.drain(this);
+		out.close();
+	}
+
+	/**
+	 * Records an event.  Can be called from any Thread, like the
+	 * MusicManager live-playing calls it records.
+	 * @param command e.g. ShortMessage.NOTE_ON
+	 * @param channel
+	 * @param data1
+	 * @param data2
+	 */
+	public void record(int command, int channel, int data1, int data2) {
+		if (!queue.offer(MidiEventQueue.pack(command, channel, data1, data2), System.nanoTime()))
+			numDropped.incrementAndGet();
+	}
+
+	public long getNumDropped() {
+		return numDropped.get();
+	}
+
+	public File getFile() {
+		return file;
+	}
+
+	/**
+	 * Appends one event to the file.  Called by the flusher Thread.
+	 */
+	public void handle(int message, long timestamp) {
+		long deltaMicros = Math.max(TimeUnit.NANOSECONDS.toMicros(timestamp - lastTimestamp), 0);
+		lastTimestamp = timestamp;
+
+		try {
+			writeVarint(out, deltaMicros);
+			out.write(message & 0xFF);
+			out.write(MidiEventQueue.getData1(message));
+			if (hasData2(message))
+				out.write(MidiEventQueue.getData2(message));
+		} catch (IOException e) {
+			numDropped.incrementAndGet();
+		}
+	}
+
+	/*########################################################################
+	 *  R E A D I N G
+	 *########################################################################*/
+
+	/**
+	 * Reads a recorded file into a Sequence, one track, 1 ms per tick.
+	 * @param file
+	 * @return the Sequence
+	 * @throws IOException if the file cannot be read or is not a recording
+	 */
+	public static Sequence toSequence(File file) throws IOException {
+		DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+		try {
+			byte[] magic = new byte[PerformanceRecorder.MAGIC.length];
+			in.readFully(magic);
+			for (int i = 0; i < magic.length; i++) {
+				if (magic[i] != PerformanceRecorder.MAGIC[i])
+					throw new IOException("File " + file + " is not a recording");
+			}
+
+			Sequence sequence = new Sequence(Sequence.PPQ, PerformanceRecorder.EXPORT_RESOLUTION);
+			Track track = sequence.createTrack();
+			long micros = 0;
+			while (true) {
+				int status, data1, data2;
+				try {
+					micros += readVarint(in);
+					status = in.readUnsignedByte();
+					data1 = in.readUnsignedByte();
+					data2 = hasData2(status) ? in.readUnsignedByte() : 0;
+				} catch (EOFException e) {
+					break; // end of file.  a truncated last event is ignored
+				}
+
+				ShortMessage message = new ShortMessage();
+				message.setMessage(status & 0xF0, status & 0x0F, data1, data2);
+				track.add(new MidiEvent(message, micros / PerformanceRecorder.EXPORT_MICROS_PER_TICK));
+			}
+			return sequence;
+
+		} catch (InvalidMidiDataException e) {
+			throw new IOException("File " + file + " is corrupted");
+		} finally {
+			in.close();
+		}
+	}
+
+	private static boolean hasData2(int status) {
+		return (status & 0xF0) != ShortMessage.PROGRAM_CHANGE;
+	}
+
+	private static void writeVarint(OutputStream out, long value) throws IOException {
+		while ((value & ~0x7FL) != 0) {
+			out.write((int)(value & 0x7F) | 0x80);
+			value >>>= 7;
+		}
+		out.write((int) value);
+	}
+
+	private static long readVarint(InputStream in) throws IOException {
+		long value = 0;
+		int shift = 0;
+		while (true) {
+			int b = in.read();
+			if (b < 0) throw new EOFException();
+			value |= (long)(b & 0x7F) << shift;
+			if ((b & 0x80) == 0) return value;
+			shift += 7;
+		}
+	}
+}
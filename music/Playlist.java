@@ -0,0 +1,298 @@
+package music;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import javax.sound.midi.MetaEventListener;
+import javax.sound.midi.MetaMessage;
+import javax.sound.midi.Sequence;
+import javax.sound.midi.Sequencer;
+
+import util.ErrorHandler;
+
+/**
+ * Plays a list of musics one after another on the Sequencer of the
+ * MusicManager, which stays open.
+ *
+ * While a music plays, the next one is parsed and checked on a background
+ * Thread, so when the Sequencer reaches the end of the music, the next one is
+ * only set and started: no reopening, no parsing.  Music that cannot be
+ * played is reported and skipped.
+ *
+ * Optionally, each music fades in at its start and out at its end, through
+ * the expression controller (a channel volume that music rarely sets) of the
+ * channels not used for live playing.
+ *
+ * @author Derianto Kusuma
+ *
+ */
+public class Playlist implements MetaEventListener {
+
+	// -Dvirtualpiano.musicFade=n fades the music in and out over n ms
+	public static final String FADE_MILLIS_PROPERTY = "virtualpiano.musicFade";
+
+	public static final int END_OF_TRACK = 0x2F; // meta message type
+	public static final int NO_ENTRY = -1;
+
+	private static final long FADE_STEP_MILLIS = 20;
+
+	/**
+	 * A music in the Playlist.
+	 */
+	public interface Entry {
+		/**
+		 * Returns the sequence to play.  Called from a background Thread.
+		 * @return the sequence, or null if it cannot be loaded (already
+		 * reported)
+		 */
+		Sequence getSequence();
+	}
+
+	private MusicManager musicManager;
+	private ScheduledExecutorService executor;
+
+	// guarded by this
+	private List<Entry> entries = new ArrayList<Entry>();
+	private boolean isLooping;
+	private boolean isPlaying;
+	private int current = Playlist.NO_ENTRY;
+	private Sequence currentSequence;
+	private int next = Playlist.NO_ENTRY;
+	private Future<Sequence> nextSequence; // parsing on the background Thread
+
+	// only used on the background Thread
+	private long fadeMicros;
+	private int expression = MusicManager.MAX_EXPRESSION;
+
+	/**
+	 * Creates a Playlist.  Called by the MusicManager, which registers it
+	 * with its Sequencer.
+	 * @param musicManager
+	 */
+	Playlist(MusicManager musicManager) {
+		this.musicManager = musicManager;
+		this.executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+			public Thread newThread(Runnable runnable) {
+				Thread thread = new Thread(runnable, "Playlist Thread"); // for bookkeeping
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+
+		setFadeMillis(Long.getLong(Playlist.FADE_MILLIS_PROPERTY, 0));
+		executor.scheduleWithFixedDelay(new Runnable() {
+			public void run() {
+				fade();
+			}
+		}, Playlist.FADE_STEP_MILLIS, Playlist.FADE_STEP_MILLIS, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Adds a music to the end of the Playlist.
+	 * @param entry
+	 */
+	public synchronized void add(Entry entry) {
+		entries.add(entry);
+		if (isPlaying && next == Playlist.NO_ENTRY)
+			prepareNext();
+	}
+
+	/**
+	 * Removes every music.  The music playing keeps playing to its end.
+	 */
+	public synchronized void clear() {
+		entries.clear();
+		current = Playlist.NO_ENTRY;
+		next = Playlist.NO_ENTRY;
+		nextSequence = null;
+	}
+
+	/**
+	 * Plays the Playlist from the first music.  If a music is playing, it
+	 * is stopped first.
+	 */
+	public synchronized void play() {
+		start(0);
+	}
+
+	/**
+	 * Plays the specified music alone: the Playlist is replaced by it.
+	 * @param entry
+	 */
+	public synchronized void play(Entry entry) {
+		clear();
+		add(entry);
+		play();
+	}
+
+	/**
+	 * Stops the music playing.
+	 */
+	public synchronized void stop() {
+		isPlaying = false;
+		musicManager.stop();
+	}
+
+	/**
+	 * Sets whether the first music plays again after the last one.
+	 * @param isLooping
+	 */
+	public synchronized void setLooping(boolean isLooping) {
+		this.isLooping = isLooping;
+		if (isPlaying && next == Playlist.NO_ENTRY)
+			prepareNext();
+	}
+
+	/**
+	 * Sets how long each music fades in and out.
+	 * @param fadeMillis 0 for no fading
+	 */
+	public void setFadeMillis(final long fadeMillis) {
+		executor.execute(new Runnable() {
+			public void run() {
+				fadeMicros = TimeUnit.MILLISECONDS.toMicros(Math.max(fadeMillis, 0));
+				setExpression(MusicManager.MAX_EXPRESSION); // until the next fade step
+			}
+		});
+	}
+
+	/**
+	 * Starts the music at the specified index, or the first playable one
+	 * after it.  Uses the sequence parsed in the background if it is the
+	 * one.
+	 */
+	private void start(int index) {
+		for (int tried = 0; tried < entries.size(); tried++) {
+			Sequence sequence = (index == next && nextSequence != null) ?
+					getPrepared(nextSequence) : Playlist.prepare(entries.get(index));
+			current = index;
+			next = Playlist.NO_ENTRY;
+			nextSequence = null;
+
+			if (sequence != null) {
+				currentSequence = sequence;
+				isPlaying = true;
+				musicManager.play(sequence);
+				prepareNext();
+				return;
+			}
+
+			index = getFollowing(index);
+			if (index == Playlist.NO_ENTRY) break;
+		}
+
+		isPlaying = false; // nothing playable
+	}
+
+	/**
+	 * Starts parsing the music following the current one in the background.
+	 */
+	private void prepareNext() {
+		next = getFollowing(current);
+		if (next == Playlist.NO_ENTRY) return;
+
+		final Entry entry = entries.get(next);
+		nextSequence = executor.submit(new Callable<Sequence>() {
+			public Sequence call() {
+				return Playlist.prepare(entry);
+			}
+		});
+	}
+
+	/**
+	 * Returns the index of the music following the specified one, or
+	 * NO_ENTRY.
+	 */
+	private int getFollowing(int index) {
+		if (index + 1 < entries.size())
+			return index + 1;
+		return (isLooping && !entries.isEmpty()) ? 0 : Playlist.NO_ENTRY;
+	}
+
+	/**
+	 * Loads the sequence of the entry, and checks that there is something
+	 * to play.
+	 * @return the sequence, or null if it cannot be played
+	 */
+	private static Sequence prepare(Entry entry) {
+		Sequence sequence = entry.getSequence();
+		if (sequence == null) return null; // already reported
+
+		if (sequence.getTracks().length == 0 || sequence.getTickLength() == 0) {
+			ErrorHandler.display("MIDI music data is invalid");
+			return null;
+		}
+		return sequence;
+	}
+
+	/**
+	 * Waits for the sequence parsed in the background.  Usually it is
+	 * already done.
+	 */
+	private static Sequence getPrepared(Future<Sequence> future) {
+		try {
+			return future.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return null;
+		} catch (ExecutionException e) {
+			ErrorHandler.display("Cannot load the next MIDI music");
+			return null;
+		}
+	}
+
+	/**
+	 * Switches to the next music when the Sequencer reaches the end of the
+	 * current one.  The Sequencer sends an end of track event at the end of
+	 * every track, and once more when it stopped at the end: only that one
+	 * counts.
+	 * @param message
+	 */
+	public synchronized void meta(MetaMessage message) {
+		if (message.getType() != Playlist.END_OF_TRACK || !isPlaying) return;
+
+		Sequencer sequencer = musicManager.getSequencer();
+		if (sequencer.isRunning() || sequencer.getSequence() != currentSequence ||
+				sequencer.getTickPosition() < sequencer.getTickLength())
+			return;
+
+		if (next == Playlist.NO_ENTRY) {
+			isPlaying = false;
+		} else {
+			start(next);
+		}
+	}
+
+	/**
+	 * Sets the expression of the music from the time to its nearest end.
+	 * Called every FADE_STEP_MILLIS on the background Thread.
+	 */
+	private void fade() {
+		if (fadeMicros == 0) return;
+
+		Sequencer sequencer = musicManager.getSequencer();
+		if (sequencer == null || !sequencer.isRunning()) return;
+
+		long position = sequencer.getMicrosecondPosition();
+		long toEnd = Math.max(Math.min(position, sequencer.getMicrosecondLength() - position), 0);
+		setExpression((toEnd >= fadeMicros) ? MusicManager.MAX_EXPRESSION :
+				(int)(MusicManager.MAX_EXPRESSION * toEnd / fadeMicros));
+	}
+
+	/**
+	 * Sends the expression if it changed.
+	 */
+	private void setExpression(int expression) {
+		if (expression == this.expression) return;
+
+		this.expression = expression;
+		musicManager.setMusicExpression(expression);
+	}
+}
@@ -0,0 +1,372 @@
+package music;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+import javax.sound.midi.InvalidMidiDataException;
+import javax.sound.midi.Sequence;
+
+/**
+ * Reads a Standard MIDI File event by event, all the tracks merged in time
+ * order, without building a Sequence.  The file is memory-mapped and only a
+ * cursor per track is kept, so the memory used doesn't grow with the length
+ * of the file, and the first event is available at once.
+ *
+ * The time of each event is computed as the tempo changes are read, so it
+ * is correct as long as the tempo changes are read before the events they
+ * apply to (as in any file played by a Sequencer).
+ *
+ * Usage: construct (or open), then call next until it returns false, reading
+ * the current event with the getters.  Nothing is allocated per event.  The
+ * parsing can be measured with benchmarks.StreamingMidiFileTool.
+ *
+ * @author Derianto Kusuma
+ *
+ */
+public class StreamingMidiFile {
+
+	// event types
+	public static final int CHANNEL_EVENT = 0;
+	public static final int META_EVENT = 1;
+	public static final int SYSEX_EVENT = 2;
+
+	public static final int META_END_OF_TRACK = 0x2F;
+
+	private static final int HEADER_ID = 0x4D546864; // "MThd"
+	private static final int TRACK_ID = 0x4D54726B; // "MTrk"
+	private static final int HEADER_LENGTH = 6;
+	private static final long FINISHED = Long.MAX_VALUE; // tick of a finished track
+
+	private ByteBuffer data;
+	private float divisionType;
+	private int resolution;
+
+	// track i: its next event starts at trackPos[i], at tick trackTicks[i]
+	private int numTracks;
+	private int[] trackStarts;
+	private int[] trackEnds;
+	private int[] trackPos;
+	private long[] trackTicks;
+	private int[] runningStatus; // 0 if none
+
+	// the current event
+	private int type;
+	private long tick;
+	private long micros;
+	private int message; // packed as in MidiEventQueue
+	private int metaType;
+	private long numEvents;
+
+	// the tempo in effect
+	private int microsPerQuarter;
+	private long tempoTick;
+	private long tempoMicros;
+
+	/**
+	 * Opens the MIDI file at the URL.  A file is memory-mapped; anything
+	 * else (e.g. a resource in a jar) is read into memory.
+	 * @param url
+	 * @return the StreamingMidiFile
+	 * @throws IOException if the file cannot be read
+	 * @throws InvalidMidiDataException if it is not a MIDI file
+	 */
+	public static StreamingMidiFile open(URL url) throws IOException, InvalidMidiDataException {
+		if ("file".equals(url.getProtocol())) {
+			try {
+				return new StreamingMidiFile(new File(url.toURI()));
+			} catch (URISyntaxException e) {
+				// read it as a stream
+			}
+		}
+
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		InputStream in = url.openStream();
+		try {
+			byte[] buffer = new byte[8192];
+			int n;
+			while ((n = in.read(buffer)) != -1)
+				out.write(buffer, 0, n);
+		} finally {
+			in.close();
+		}
+		return new StreamingMidiFile(ByteBuffer.wrap(out.toByteArray()));
+	}
+
+	/**
+	 * Memory-maps the specified MIDI file.
+	 * @param file
+	 * @throws IOException if the file cannot be read, or is 2 GB or larger
+	 * @throws InvalidMidiDataException if it is not a MIDI file
+	 */
+	public StreamingMidiFile(File file) throws IOException, InvalidMidiDataException {
+		this(StreamingMidiFile.map(file));
+	}
+
+	/**
+	 * Reads the MIDI file in the buffer.
+	 * @param data from position 0 to the limit
+	 * @throws InvalidMidiDataException if it is not a MIDI file
+	 */
+	public StreamingMidiFile(ByteBuffer data) throws InvalidMidiDataException {
+		this.data = data;
+		readHeader();
+		rewind();
+	}
+
+	private static ByteBuffer map(File file) throws IOException {
+		RandomAccessFile in = new RandomAccessFile(file, "r");
+		try {
+			FileChannel channel = in.getChannel();
+			if (channel.size() > Integer.MAX_VALUE)
+				throw new IOException("File " + file + " is too large");
+			return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()); // stays valid after closing
+		} finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * Reads the header chunk and finds the track chunks.
+	 */
+	private void readHeader() throws InvalidMidiDataException {
+		int limit = data.limit();
+		if (limit < 8 + StreamingMidiFile.HEADER_LENGTH || data.getInt(0) != StreamingMidiFile.HEADER_ID)
+			throw new InvalidMidiDataException("Not a MIDI file");
+
+		int headerLength = data.getInt(4);
+		int declaredTracks = data.getShort(10) & 0xFFFF;
+		int division = data.getShort(12);
+		if (headerLength < StreamingMidiFile.HEADER_LENGTH || division == 0)
+			throw new InvalidMidiDataException("Invalid MIDI file header");
+
+		if (division > 0) {
+			divisionType = Sequence.PPQ;
+			resolution = division;
+		} else {
+			int framesPerSecond = -(division >> 8);
+			divisionType = (framesPerSecond == 29) ? Sequence.SMPTE_30DROP : framesPerSecond;
+			resolution = division & 0xFF;
+		}
+
+		// the chunks other than tracks are skipped
+		trackStarts = new int[declaredTracks];
+		trackEnds = new int[declaredTracks];
+		long pos = 8 + (headerLength & 0xFFFFFFFFL);
+		while (pos + 8 <= limit && numTracks < declaredTracks) {
+			long length = data.getInt((int) pos + 4) & 0xFFFFFFFFL;
+			if (data.getInt((int) pos) == StreamingMidiFile.TRACK_ID) {
+				trackStarts[numTracks] = (int) pos + 8;
+				trackEnds[numTracks] = (int) Math.min(pos + 8 + length, limit); // a truncated track ends early
+				numTracks++;
+			}
+			pos += 8 + length;
+		}
+
+		trackPos = new int[numTracks];
+		trackTicks = new long[numTracks];
+		runningStatus = new int[numTracks];
+	}
+
+	/**
+	 * Goes back to before the first event.
+	 * @throws InvalidMidiDataException if a track is corrupted
+	 */
+	public void rewind() throws InvalidMidiDataException {
+		for (int t = 0; t < numTracks; t++) {
+			trackPos[t] = trackStarts[t];
+			runningStatus[t] = 0;
+			trackTicks[t] = (trackPos[t] < trackEnds[t]) ? readVarLength(t) : StreamingMidiFile.FINISHED;
+		}
+
+		microsPerQuarter = TempoMap.DEFAULT_MICROS_PER_QUARTER;
+		tempoTick = 0;
+		tempoMicros = 0;
+		numEvents = 0;
+	}
+
+	/**
+	 * Moves to the next event: the earliest of the tracks (the lowest track
+	 * first at the same tick).
+	 * @return false if there is no more event
+	 * @throws InvalidMidiDataException if a track is corrupted
+	 */
+	public boolean next() throws InvalidMidiDataException {
+		int t = -1;
+		long earliest = StreamingMidiFile.FINISHED;
+		for (int i = 0; i < numTracks; i++) {
+			if (trackTicks[i] < earliest) {
+				earliest = trackTicks[i];
+				t = i;
+			}
+		}
+		if (t < 0) return false;
+
+		tick = earliest;
+		micros = tickToMicros(tick);
+		readEvent(t);
+		numEvents++;
+
+		if ((type == StreamingMidiFile.META_EVENT && metaType == StreamingMidiFile.META_END_OF_TRACK) ||
+				trackPos[t] >= trackEnds[t]) {
+			trackTicks[t] = StreamingMidiFile.FINISHED;
+		} else {
+			trackTicks[t] += readVarLength(t);
+		}
+		return true;
+	}
+
+	/**
+	 * Reads the event at the cursor of the track (after its delta time).
+	 */
+	private void readEvent(int t) throws InvalidMidiDataException {
+		int status = read(t);
+		if (status < 0x80) { // running status: the byte is already data
+			trackPos[t]--;
+			status = runningStatus[t];
+			if (status == 0)
+				throw new InvalidMidiDataException("Data without status in track " + t);
+		}
+
+		if (status < 0xF0) {
+			runningStatus[t] = status;
+			int command = status & 0xF0;
+			int data1 = read(t);
+			int data2 = (command == 0xC0 || command == 0xD0) ? 0 : read(t);
+			type = StreamingMidiFile.CHANNEL_EVENT;
+			message = MidiEventQueue.pack(command, status & 0x0F, data1, data2);
+
+		} else if (status == 0xFF) {
+			runningStatus[t] = 0;
+			type = StreamingMidiFile.META_EVENT;
+			metaType = read(t);
+			int length = readVarLength(t);
+			if (metaType == TempoMap.META_TEMPO && length >= 3) {
+				setTempo((read(t) << 16) | (read(t) << 8) | read(t));
+				length -= 3;
+			}
+			skip(t, length);
+
+		} else if (status == 0xF0 || status == 0xF7) {
+			runningStatus[t] = 0;
+			type = StreamingMidiFile.SYSEX_EVENT;
+			skip(t, readVarLength(t));
+
+		} else {
+			throw new InvalidMidiDataException("Invalid status " + status + " in track " + t);
+		}
+	}
+
+	private int read(int t) throws InvalidMidiDataException {
+		if (trackPos[t] >= trackEnds[t])
+			throw new InvalidMidiDataException("Track " + t + " is truncated");
+		return data.get(trackPos[t]++) & 0xFF;
+	}
+
+	private int readVarLength(int t) throws InvalidMidiDataException {
+		int value = 0;
+		for (int i = 0; i < 4; i++) {
+			int b = read(t);
+			value = (value << 7) | (b & 0x7F);
+			if (b < 0x80) return value;
+		}
+		throw new InvalidMidiDataException("Invalid length in track " + t);
+	}
+
+	private void skip(int t, int length) throws InvalidMidiDataException {
+		if (length > trackEnds[t] - trackPos[t])
+			throw new InvalidMidiDataException("Track " + t + " is truncated");
+		trackPos[t] += length;
+	}
+
+	/**
+	 * Starts a new tempo at the current tick.
+	 */
+	private void setTempo(int microsPerQuarter) {
+		tempoMicros = tickToMicros(tick);
+		tempoTick = tick;
+		this.microsPerQuarter = microsPerQuarter;
+	}
+
+	private long tickToMicros(long tick) {
+		if (divisionType == Sequence.PPQ) {
+			return tempoMicros + (tick - tempoTick) * microsPerQuarter / resolution;
+		} else {
+			return (long)(tick * 1000000.0 / (divisionType * resolution));
+		}
+	}
+
+	/*########################################################################
+	 *  G E T T E R S
+	 *########################################################################*/
+
+	/**
+	 * Returns the type of the current event.
+	 * @return CHANNEL_EVENT, META_EVENT or SYSEX_EVENT
+	 */
+	public int getType() {
+		return type;
+	}
+
+	public long getTick() {
+		return tick;
+	}
+
+	/**
+	 * Returns the time of the current event.
+	 * @return microseconds from the start
+	 */
+	public long getMicros() {
+		return micros;
+	}
+
+	/**
+	 * Returns the current channel event.
+	 * @return the message, packed as in MidiEventQueue
+	 */
+	public int getMessage() {
+		return message;
+	}
+
+	/**
+	 * Returns the type of the current meta event, e.g. META_END_OF_TRACK.
+	 * @return the meta type
+	 */
+	public int getMetaType() {
+		return metaType;
+	}
+
+	/**
+	 * Returns the number of events read since the start.
+	 * @return the number of events
+	 */
+	public long getNumEvents() {
+		return numEvents;
+	}
+
+	public int getNumTracks() {
+		return numTracks;
+	}
+
+	public float getDivisionType() {
+		return divisionType;
+	}
+
+	public int getResolution() {
+		return resolution;
+	}
+
+	/**
+	 * Returns the size of the file.
+	 * @return bytes
+	 */
+	public int getSize() {
+		return data.limit();
+	}
+}
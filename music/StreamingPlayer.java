@@ -0,0 +1,205 @@
+package music;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+import javax.sound.midi.InvalidMidiDataException;
+import javax.sound.midi.Receiver;
+import javax.sound.midi.ShortMessage;
+
+import util.ErrorHandler;
+import util.Log;
+
+/**
+ * The Thread that plays a StreamingMidiFile to a Receiver in real time.
+ *
+ * A parser Thread reads the file ahead and offers the channel events, with
+ * the System.nanoTime() they are due, to a bounded MidiEventQueue: the
+ * look-ahead.  When it is full, the parser waits, so the memory used stays
+ * the same however long the file is.  This Thread drains the queue and sends
+ * each event when it is due, reusing one ShortMessage.
+ *
+ * As with a Sequence, the music is kept off the reserved channels by a
+ * ChannelRemapper: the file is counted once before playing, and each event
+ * is remapped as it is sent.  The count parses the whole file (nothing is
+ * kept), so it delays the first note: about 11 million events per second
+ * (measured with benchmarks.StreamingMidiFileTool), e.g. 180 ms for an 8 MB
+ * file of 2 million events (1.7 hours of dense music).  Each event
+ * sent is also sent to the monitor (e.g. the NoteActivity lighting the
+ * keys).  When stopping, the notes are stopped on the channels the music
+ * used only, not on the live channels.
+ *
+ * Meta and system exclusive events are not sent (as with a Sequencer, except
+ * that system exclusive events are skipped).
+ *
+ * Interrupting this Thread stops the playing.
+ *
+ * @author Derianto Kusuma
+ *
+ */
+public class StreamingPlayer extends Thread implements MidiEventQueue.Handler {
+
+	public static final int LOOK_AHEAD_EVENTS = 4096;
+
+	// the longest wait for the queue, and the delay before the first event
+	private static final long IDLE_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+	private static final long START_DELAY_NANOS = TimeUnit.MILLISECONDS.toNanos(20);
+
+	private final StreamingMidiFile midiFile;
+	private final Receiver receiver;
+	private final Receiver monitor;
+	private final ChannelRemapper remapper;
+	private final MidiEventQueue queue;
+	private final ShortMessage shortMessage;
+
+	private int usedChannels; // bit per channel sent to
+	private long startNanos;
+	private volatile boolean isParsed;
+
+	/**
+	 * Creates a new StreamingPlayer.  Must call start after this.
+	 * @param midiFile from its start; only used by this player from now on
+	 * @param receiver
+	 * @param reservedChannels the channels the music must not play on, e.g.
+	 * from MusicManager.getReservedChannels
+	 * @param monitor also sent every event; null if none
+	 */
+	public StreamingPlayer(StreamingMidiFile midiFile, Receiver receiver, int reservedChannels, Receiver monitor) {
+		this.midiFile = midiFile;
+		this.receiver = receiver;
+		this.monitor = monitor;
+		this.remapper = new ChannelRemapper(reservedChannels);
+		this.queue = new MidiEventQueue(StreamingPlayer.LOOK_AHEAD_EVENTS);
+		this.shortMessage = new ShortMessage();
+
+		setName("Streaming Player Thread"); // for bookkeeping
+		setDaemon(true);
+		setPriority(Thread.MAX_PRIORITY);
+	}
+
+	/**
+	 * Plays until the end of the file, or until interrupted.
+	 */
+	@Override
+	public void run() {
+		if (!chooseChannels()) return;
+
+		startNanos = System.nanoTime() + StreamingPlayer.START_DELAY_NANOS;
+		Thread parser = new Thread("Streaming Parser Thread") { // for bookkeeping
+			@Override
+			public void run() {
+				parse();
+			}
+		};
+		parser.setDaemon(true);
+		parser.start();
+
+		try {
+			while (!isInterrupted()) {
+				boolean isLast = isParsed; // read before draining: nothing comes after
+				if (queue.drain(this) == 0) {
+					if (isLast) break;
+					LockSupport.parkNanos(StreamingPlayer.IDLE_NANOS);
+				}
+			}
+		} finally {
+			parser.interrupt();
+			allNotesOff();
+		}
+	}
+
+	/**
+	 * Counts the channel events of the file, to choose where the reserved
+	 * channels go, then rewinds it.
+	 * @return false if interrupted, or if the file is invalid
+	 */
+	private boolean chooseChannels() {
+		int[] numEvents = new int[MusicManager.NUM_CHANNELS];
+		try {
+			while (midiFile.next()) {
+				if (isInterrupted()) return false;
+				if (midiFile.getType() == StreamingMidiFile.CHANNEL_EVENT)
+					numEvents[MidiEventQueue.getChannel(midiFile.getMessage())]++;
+			}
+			midiFile.rewind();
+		} catch (InvalidMidiDataException e) {
+			ErrorHandler.display("MIDI music data is invalid");
+			return false;
+		}
+
+		if (remapper.chooseTargets(numEvents))
+			Log.info("Channels of the streamed music remapped: " + remapper.describe());
+		return true;
+	}
+
+	/**
+	 * Reads the file into the queue, waiting while it is full.  Runs on the
+	 * parser Thread.
+	 */
+	private void parse() {
+		try {
+			while (midiFile.next()) {
+				if (midiFile.getType() != StreamingMidiFile.CHANNEL_EVENT) continue;
+
+				long due = startNanos + midiFile.getMicros() * 1000;
+				while (!queue.offer(midiFile.getMessage(), due)) {
+					if (Thread.currentThread().isInterrupted()) return; // interruption is normal
+					LockSupport.parkNanos(StreamingPlayer.IDLE_NANOS);
+				}
+			}
+		} catch (InvalidMidiDataException e) {
+			ErrorHandler.display("MIDI music data is invalid");
+		} finally {
+			isParsed = true;
+		}
+	}
+
+	/**
+	 * Waits until the event is due, then sends it.  Returns at once if
+	 * interrupted.
+	 * @param message the packed message
+	 * @param due the System.nanoTime() the event is due
+	 */
+	public void handle(int message, long due) {
+		long remaining;
+		while ((remaining = due - System.nanoTime()) > 0) {
+			if (isInterrupted()) return;
+			LockSupport.parkNanos(Math.min(remaining, StreamingPlayer.IDLE_NANOS));
+		}
+		send(message);
+	}
+
+	/**
+	 * Sends the message on its remapped channel, to the receiver and the
+	 * monitor.
+	 * @param message the packed message
+	 */
+	private void send(int message) {
+		message = remapper.remap(message);
+		if (message == ChannelRemapper.NO_MESSAGE) return;
+
+		int channel = MidiEventQueue.getChannel(message);
+		usedChannels |= 1 << channel;
+		try {
+			shortMessage.setMessage(MidiEventQueue.getCommand(message) | channel,
+					MidiEventQueue.getData1(message), MidiEventQueue.getData2(message));
+			receiver.send(shortMessage, -1);
+			if (monitor != null)
+				monitor.send(shortMessage, -1);
+		} catch (InvalidMidiDataException e) {
+			// cannot happen: the data is in range
+		}
+	}
+
+	/**
+	 * Stops every note of the channels the music used, so nothing keeps
+	 * sounding after stopping.  The live channels are left alone.
+	 */
+	private void allNotesOff() {
+		int channels = usedChannels;
+		for (int channel = 0; channel < MusicManager.NUM_CHANNELS; channel++) {
+			if ((channels & (1 << channel)) != 0)
+				send(MidiEventQueue.pack(ShortMessage.CONTROL_CHANGE, channel, MusicManager.ALL_NOTES_OFF, 0));
+		}
+	}
+}
@@ -0,0 +1,154 @@
+package music;
+
+import java.util.Arrays;
+
+import javax.sound.midi.MetaMessage;
+import javax.sound.midi.MidiEvent;
+import javax.sound.midi.Sequence;
+import javax.sound.midi.Track;
+
+/**
+ * Converts between MIDI ticks and microseconds for a Sequence, taking all the
+ * tempo changes into account.  The tempo changes are kept in sorted primitive
+ * arrays, so a conversion is a binary search.
+ *
+ * @author Derianto Kusuma
+ *
+ */
+public class TempoMap {
+
+	public static final int META_TEMPO = 0x51;
+	public static final int DEFAULT_MICROS_PER_QUARTER = 500000; // 120 bpm
+
+	private float divisionType;
+	private int resolution;
+
+	// tempo segment i starts at changeTicks[i] = changeMicros[i]
+	private long[] changeTicks;
+	private long[] changeMicros;
+	private int[] microsPerQuarter;
+
+	/**
+	 * Creates the TempoMap of the specified Sequence.
+	 * @param sequence
+	 */
+	public TempoMap(Sequence sequence) {
+		this.divisionType = sequence.getDivisionType();
+		this.resolution = sequence.getResolution();
+
+		// collect tempo changes of all tracks: packed as (tick, mpq) pairs
+		int count = 0;
+		long[] ticks = new long[16];
+		int[] tempos = new int[16];
+		for (Track track: sequence.getTracks()) {
+			for (int i = 0; i < track.size(); i++) {
+				MidiEvent event = track.get(i);
+				if (!(event.getMessage() instanceof MetaMessage))
+					continue;
+				MetaMessage meta = (MetaMessage) event.getMessage();
+				byte[] data = meta.getData();
+				if (meta.getType() != TempoMap.META_TEMPO || data.length < 3)
+					continue;
+				int tempo = ((data[0] & 0xFF) << 16) | ((data[1] & 0xFF) << 8) | (data[2] & 0xFF);
+				if (tempo <= 0)
+					continue; // invalid: time would stop
+
+				if (count == ticks.length) {
+					ticks = Arrays.copyOf(ticks, count * 2);
+					tempos = Arrays.copyOf(tempos, count * 2);
+				}
+				ticks[count] = event.getTick();
+				tempos[count] = tempo;
+				count++;
+			}
+		}
+		sortByTick(ticks, tempos, count);
+
+		// first segment always starts at tick 0 with the default tempo
+		changeTicks = new long[count + 1];
+		changeMicros = new long[count + 1];
+		microsPerQuarter = new int[count + 1];
+		changeTicks[0] = 0;
+		changeMicros[0] = 0;
+		microsPerQuarter[0] = TempoMap.DEFAULT_MICROS_PER_QUARTER;
+
+		int n = 1;
+		for (int i = 0; i < count; i++) {
+			long micros = changeMicros[n - 1] +
+				segmentMicros(ticks[i] - changeTicks[n - 1], microsPerQuarter[n - 1]);
+			if (ticks[i] == changeTicks[n - 1]) {
+				n--; // replaces the tempo at the same tick
+			}
+			changeTicks[n] = ticks[i];
+			changeMicros[n] = micros;
+			microsPerQuarter[n] = tempos[i];
+			n++;
+		}
+		changeTicks = Arrays.copyOf(changeTicks, n);
+		changeMicros = Arrays.copyOf(changeMicros, n);
+		microsPerQuarter = Arrays.copyOf(microsPerQuarter, n);
+	}
+
+	/**
+	 * Returns the time of the specified tick.
+	 * @param tick
+	 * @return microseconds from the start of the Sequence
+	 */
+	public long tickToMicros(long tick) {
+		int i = Arrays.binarySearch(changeTicks, tick);
+		if (i < 0) i = -i - 2; // segment containing tick
+		if (i < 0) i = 0;
+		return changeMicros[i] + segmentMicros(tick - changeTicks[i], microsPerQuarter[i]);
+	}
+
+	/**
+	 * Returns the tick at the specified time.
+	 * @param micros microseconds from the start of the Sequence
+	 * @return the tick
+	 */
+	public long microsToTick(long micros) {
+		int i = Arrays.binarySearch(changeMicros, micros);
+		if (i < 0) i = -i - 2;
+		if (i < 0) i = 0;
+
+		long delta = micros - changeMicros[i];
+		if (divisionType == Sequence.PPQ) {
+			return changeTicks[i] + delta * resolution / microsPerQuarter[i];
+		} else {
+			return changeTicks[i] + (long)(delta * divisionType * resolution / 1000000.0);
+		}
+	}
+
+	/**
+	 * Returns the duration of the ticks in a segment with a single tempo.
+	 * @param ticks
+	 * @param mpq microseconds per quarter note (ignored for SMPTE division)
+	 * @return microseconds
+	 */
+	private long segmentMicros(long ticks, int mpq) {
+		if (divisionType == Sequence.PPQ) {
+			return ticks * mpq / resolution;
+		} else {
+			return (long)(ticks * 1000000.0 / (divisionType * resolution));
+		}
+	}
+
+	/**
+	 * Sorts the pairs by tick, keeping the original order of equal ticks.
+	 * Insertion sort: tempo changes are few and mostly sorted already.
+	 */
+	private static void sortByTick(long[] ticks, int[] tempos, int count) {
+		for (int i = 1; i < count; i++) {
+			long tick = ticks[i];
+			int tempo = tempos[i];
+			int j = i - 1;
+			while (j >= 0 && ticks[j] > tick) {
+				ticks[j + 1] = ticks[j];
+				tempos[j + 1] = tempos[j];
+				j--;
+			}
+			ticks[j + 1] = tick;
+			tempos[j + 1] = tempo;
+		}
+	}
+}
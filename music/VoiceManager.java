@@ -0,0 +1,314 @@
+package music;
+
+import javax.sound.midi.MidiChannel;
+
+/**
+ * Keeps track of the sounding live notes (voices) and sends them to the
+ * synthesizer channels.  Owned by the NoteDispatcher Thread: it must only be
+ * used from that Thread.
+ *
+ * - Active notes are kept per (channel, pitch) in a primitive bitset, and in
+ *   a doubly linked list (primitive arrays) in the order they started.
+ * - A channel can be layered onto other channels: every note and controller
+ *   played on it is also played on its layers.  Program changes are not, so
+ *   each layer keeps its own instrument.
+ * - The number of voices is capped.  When the cap is reached, the oldest
+ *   voice is stolen (stopped) to make room.
+ * - A note released while the pedal of its channel is down keeps sounding,
+ *   so it stays a voice (sustained) until the pedal goes up.  Sustained
+ *   voices are stolen first.  The synthesizer cannot release one note held
+ *   by the pedal, so stealing one lifts and presses the pedal of its
+ *   channel again, which releases all the sustained voices of the channel.
+ *
+ * Nothing is allocated while playing.
+ *
+ * @author Derianto Kusuma
+ *
+ */
+public class VoiceManager {
+
+	public static final int NO_VOICE = -1;
+	public static final int STEAL_VELOCITY = 64;
+
+	private static final int NUM_VOICE_IDS = MusicManager.NUM_CHANNELS * MusicManager.NUM_PITCHES;
+
+	private MidiChannel[] channels;
+
+	// voice id = channel * MusicManager.NUM_PITCHES + pitch
+	private long[] isActive = new long[VoiceManager.NUM_VOICE_IDS / 64];
+	private int[] prev = new int[VoiceManager.NUM_VOICE_IDS];
+	private int[] next = new int[VoiceManager.NUM_VOICE_IDS];
+	private int oldest = VoiceManager.NO_VOICE;
+	private int newest = VoiceManager.NO_VOICE;
+	private int numVoices = 0;
+	private volatile int maxVoices;
+
+	// released while the pedal is down, still sounding (subset of isActive)
+	private long[] isSustained = new long[VoiceManager.NUM_VOICE_IDS / 64];
+	private int numSustained = 0;
+	private int pedalDownChannels = 0; // bit per channel
+
+	// layers[channel] is a bitmask of the channels layered onto it
+	private int[] layers = new int[MusicManager.NUM_CHANNELS];
+
+	/**
+	 * Creates a new VoiceManager.
+	 * @param channels the synthesizer channels
+	 * @param maxVoices the polyphony cap
+	 */
+	public VoiceManager(MidiChannel[] channels, int maxVoices) {
+		this.channels = channels;
+		this.maxVoices = Math.max(maxVoices, 1);
+	}
+
+	/**
+	 * Sets the polyphony cap.  Can be called from any Thread; applies to the
+	 * next note on.
+	 * @param maxVoices
+	 */
+	public void setMaxVoices(int maxVoices) {
+		this.maxVoices = Math.max(maxVoices, 1);
+	}
+
+	public int getMaxVoices() {
+		return maxVoices;
+	}
+
+	/**
+	 * Returns the number of voices sounding, the sustained ones included.
+	 * @return the number of voices
+	 */
+	public int getNumVoices() {
+		return numVoices;
+	}
+
+	public int getNumSustained() {
+		return numSustained;
+	}
+
+	/**
+	 * Returns whether the note is sounding.
+	 * @param channel
+	 * @param pitch
+	 * @return true if yes, false otherwise
+	 */
+	public boolean isActive(int channel, int pitch) {
+		int id = channel * MusicManager.NUM_PITCHES + pitch;
+		return (isActive[id >> 6] & (1L << id)) != 0;
+	}
+
+	/**
+	 * Layers a channel onto another one, or removes the layer.
+	 * @param channel the played channel
+	 * @param layerChannel the channel that plays along
+	 * @param isLayered true to add, false to remove
+	 */
+	public void setLayer(int channel, int layerChannel, boolean isLayered) {
+		if (channel == layerChannel) return;
+
+		if (isLayered) {
+			layers[channel] |= 1 << layerChannel;
+		} else {
+			layers[channel] &= ~(1 << layerChannel);
+			releaseChannel(layerChannel);
+		}
+	}
+
+	/**
+	 * Starts a note on the channel and its layers.
+	 * @param channel
+	 * @param pitch
+	 * @param velocity
+	 */
+	public void noteOn(int channel, int pitch, int velocity) {
+		startVoice(channel, pitch, velocity);
+		for (int layer = 0, mask = layers[channel]; mask != 0; layer++, mask >>>= 1) {
+			if ((mask & 1) != 0)
+				startVoice(layer, pitch, velocity);
+		}
+	}
+
+	/**
+	 * Stops a note on the channel and its layers.
+	 * @param channel
+	 * @param pitch
+	 * @param velocity the release velocity
+	 */
+	public void noteOff(int channel, int pitch, int velocity) {
+		releaseVoice(channel, pitch, velocity);
+		for (int layer = 0, mask = layers[channel]; mask != 0; layer++, mask >>>= 1) {
+			if ((mask & 1) != 0)
+				releaseVoice(layer, pitch, velocity);
+		}
+	}
+
+	/**
+	 * Sends a controller (e.g. the pedal) to the channel and its layers.
+	 * @param channel
+	 * @param controller
+	 * @param value
+	 */
+	public void controlChange(int channel, int controller, int value) {
+		sendControlChange(channel, controller, value);
+		for (int layer = 0, mask = layers[channel]; mask != 0; layer++, mask >>>= 1) {
+			if ((mask & 1) != 0)
+				sendControlChange(layer, controller, value);
+		}
+	}
+
+	/**
+	 * Stops all the sounding notes of a channel, the sustained ones too.
+	 * @param channel
+	 */
+	public void releaseChannel(int channel) {
+		if ((pedalDownChannels & (1 << channel)) != 0)
+			sendControlChange(channel, MusicManager.PEDAL_ID, MusicManager.PEDAL_OFF);
+
+		int id = oldest;
+		while (id != VoiceManager.NO_VOICE) {
+			int nextId = next[id];
+			if (id / MusicManager.NUM_PITCHES == channel)
+				stopVoice(channel, id % MusicManager.NUM_PITCHES, 0);
+			id = nextId;
+		}
+	}
+
+	/**
+	 * Sends a controller to one channel, following its pedal.  Lifting the
+	 * pedal ends the sustained voices of the channel.
+	 */
+	private void sendControlChange(int channel, int controller, int value) {
+		channels[channel].controlChange(controller, value);
+		if (controller != MusicManager.PEDAL_ID) return;
+
+		if (value >= MusicManager.PEDAL_HALF) {
+			pedalDownChannels |= 1 << channel;
+		} else {
+			pedalDownChannels &= ~(1 << channel);
+			removeSustained(channel);
+		}
+	}
+
+	/**
+	 * Removes the sustained voices of a channel from the list: the pedal
+	 * has released them.
+	 */
+	private void removeSustained(int channel) {
+		int id = oldest;
+		while (id != VoiceManager.NO_VOICE && numSustained > 0) {
+			int nextId = next[id];
+			if (id / MusicManager.NUM_PITCHES == channel && isSustainedId(id))
+				removeVoice(id);
+			id = nextId;
+		}
+	}
+
+	/**
+	 * Steals a voice to make room: the sustained voices of the channel of
+	 * the oldest one if any (by lifting and pressing its pedal), else
+	 * releases the oldest voice.
+	 */
+	private void stealVoice() {
+		int id = oldest;
+		if (numSustained > 0) {
+			while (!isSustainedId(id))
+				id = next[id];
+
+			int channel = id / MusicManager.NUM_PITCHES;
+			channels[channel].controlChange(MusicManager.PEDAL_ID, MusicManager.PEDAL_OFF);
+			channels[channel].controlChange(MusicManager.PEDAL_ID, MusicManager.PEDAL_ON);
+			removeSustained(channel);
+			return;
+		}
+
+		// under the pedal, it becomes sustained: stolen as such at the next call
+		releaseVoice(id / MusicManager.NUM_PITCHES, id % MusicManager.NUM_PITCHES, VoiceManager.STEAL_VELOCITY);
+	}
+
+	/**
+	 * Starts a single voice.  Restarts it if it is already sounding, and
+	 * steals voices if there are too many.
+	 */
+	private void startVoice(int channel, int pitch, int velocity) {
+		int id = channel * MusicManager.NUM_PITCHES + pitch;
+		if (isActiveId(id))
+			stopVoice(channel, pitch, 0);
+
+		while (numVoices >= maxVoices && oldest != VoiceManager.NO_VOICE)
+			stealVoice();
+
+		channels[channel].noteOn(pitch, velocity);
+
+		// append to the list as the newest
+		isActive[id >> 6] |= 1L << id;
+		prev[id] = newest;
+		next[id] = VoiceManager.NO_VOICE;
+		if (newest != VoiceManager.NO_VOICE)
+			next[newest] = id;
+		else
+			oldest = id;
+		newest = id;
+		numVoices++;
+	}
+
+	/**
+	 * Releases a single voice, if it is sounding and not released yet: it
+	 * stays sustained if the pedal of its channel is down.
+	 */
+	private void releaseVoice(int channel, int pitch, int velocity) {
+		int id = channel * MusicManager.NUM_PITCHES + pitch;
+		if (!isActiveId(id) || isSustainedId(id))
+			return;
+
+		channels[channel].noteOff(pitch, velocity);
+		if ((pedalDownChannels & (1 << channel)) != 0) {
+			isSustained[id >> 6] |= 1L << id;
+			numSustained++;
+		} else {
+			removeVoice(id);
+		}
+	}
+
+	/**
+	 * Stops a single voice, if it is sounding, and removes it even if the
+	 * pedal is down.
+	 */
+	private void stopVoice(int channel, int pitch, int velocity) {
+		int id = channel * MusicManager.NUM_PITCHES + pitch;
+		if (!isActiveId(id))
+			return;
+
+		if (!isSustainedId(id)) // a sustained voice is already released
+			channels[channel].noteOff(pitch, velocity);
+		removeVoice(id);
+	}
+
+	/**
+	 * Unlinks a voice from the list.
+	 */
+	private void removeVoice(int id) {
+		if (isSustainedId(id)) {
+			isSustained[id >> 6] &= ~(1L << id);
+			numSustained--;
+		}
+
+		isActive[id >> 6] &= ~(1L << id);
+		if (prev[id] != VoiceManager.NO_VOICE)
+			next[prev[id]] = next[id];
+		else
+			oldest = next[id];
+		if (next[id] != VoiceManager.NO_VOICE)
+			prev[next[id]] = prev[id];
+		else
+			newest = prev[id];
+		numVoices--;
+	}
+
+	private boolean isActiveId(int id) {
+		return (isActive[id >> 6] & (1L << id)) != 0;
+	}
+
+	private boolean isSustainedId(int id) {
+		return (isSustained[id >> 6] & (1L << id)) != 0;
+	}
+}
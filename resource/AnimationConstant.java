@@ -9,6 +9,14 @@ public class AnimationConstant {
 
 	// timing
 	public static final int canvasRepaintDelay = 40;
+	
+	// active rendering of the Canvas (instead of repaint): "true" to enable, and
+	// the frame rate.  no effect while MainFrame doesn't show the Canvas
+	public static final String activeRenderingProperty = "virtualpiano.activeRendering";
+	public static final String targetFpsProperty = "virtualpiano.targetFps";
+	public static final int defaultTargetFps = 1000 / canvasRepaintDelay;
+	public static final int fallingNotesLookAhead = 3000; // ms of music shown above the keys
+	public static final int keyLightDelay = 20; // ms between updates of the keys lit by the music
 	public static final int snowFlakeDelay = 40;
 	public static final int textFadeInDelay = 30;
 	public static final int buttonFadeInDelay = 30;
@@ -22,6 +30,7 @@ public class AnimationConstant {
 	
 	// snowflake
 	public static final int NUM_SNOWFLAKES = 15;
+	public static final String snowFlakeCountProperty = "virtualpiano.snowFlakes"; // overrides NUM_SNOWFLAKES
 	public static final float snowFlakeAlpha = 0.7f;
 	public static final double snowFlakeMinVy = 1.2;
 	public static final double snowFlakeMaxVy = 2.0;
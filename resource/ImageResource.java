@@ -12,6 +12,10 @@ import util.Utilities;
  * Encapsulates an image.  Contains a factory getter method to get an image
  * resource.
  * 
+ * The image is loaded on first use, so initFactory is cheap.  Images needed
+ * for the first frame can be loaded ahead with preload (e.g. on a startup
+ * Thread).
+ * 
  * Implements factory pattern.
  * 
  * @author Derianto Kusuma
@@ -30,13 +34,13 @@ public class ImageResource {
 	private static ImageResource[] imageResources;
 	
 	private String fileName;
-	private Image image;
+	private Image image; // null until loaded
 	private int width;
 	private int height;
 	
 	/**
 	 * Initializes the factory: creates ImageResource instances that can be
-	 * identified with an int id.
+	 * identified with an int id.  The images are not loaded yet.
 	 */
 	public static void initFactory() {
 		imageResources = new ImageResource[] {
@@ -77,13 +81,29 @@ public class ImageResource {
 	}
 	
 	/**
-	 * Constructs an ImageResource.  Loads the image readily and stores it
-	 * for quick retrieval.
+	 * Loads the images with the specified ids now, instead of on first use.
+	 * Can be called from any Thread.
+	 * @param ids
+	 */
+	public static void preload(int... ids) {
+		for (int id: ids)
+			ImageResource.getInstance(id).load();
+	}
+	
+	/**
+	 * Constructs an ImageResource.  The image is loaded on first use.
 	 * @param fileName the file name of the image
 	 */
 	private ImageResource(String fileName) {
 		this.fileName = fileName;
-
+	}
+	
+	/**
+	 * Loads the image and stores it for quick retrieval, if not loaded yet.
+	 */
+	private synchronized void load() {
+		if (image != null) return;
+		
 		// this, unlike createImage() or ImageIO.read(), will ensure that
 		// the image is fully loaded first before returning
 		// but I don't believe this since sometimes the image loading is slow
@@ -134,10 +154,11 @@ public class ImageResource {
 	}
 
 	/**
-	 * Returns the image.
+	 * Returns the image.  Loads it first if needed.
 	 * @return the image.  May be null.
 	 */
-	public Image getImage() {
+	public synchronized Image getImage() {
+		load();
 		return image;
 	}
 
@@ -145,11 +166,13 @@ public class ImageResource {
 		return fileName;
 	}
 	
-	public int getWidth() {
+	public synchronized int getWidth() {
+		load();
 		return width;
 	}
 
-	public int getHeight() {
+	public synchronized int getHeight() {
+		load();
 		return height;
 	}
 }
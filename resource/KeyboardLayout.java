@@ -0,0 +1,187 @@
+package resource;
+
+import java.awt.event.KeyEvent;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import util.ErrorHandler;
+import util.Utilities;
+
+/**
+ * Encapsulates a keyboard layout: a map from virtual key codes (VK_blablabla)
+ * to piano key numbers.  The map is a plain int array indexed by key code, so
+ * a lookup doesn't box or allocate.  Contains a factory getter method to get a
+ * layout loaded from a layout file.
+ *
+ * Layout file: one "KEY_NAME keyNo" pair per line, where KEY_NAME is the name
+ * of a KeyEvent.VK_ constant without the VK_ prefix.  Empty lines and lines
+ * starting with # are ignored.
+ *
+ * Additional layout files can be given in the system property
+ * virtualpiano.keyboardLayouts, separated by the path separator.
+ *
+ * Implements factory pattern.
+ *
+ * @author Derianto Kusuma
+ *
+ */
+public class KeyboardLayout {
+
+	// identifier for stored instances
+	public static final int QWERTY = 0;
+	public static final int AZERTY = 1;
+	public static final int DVORAK = 2;
+	public static final int QWERTY_FULL = 3; // both row pairs, for wide manuals
+
+	public static final int KEY_NOT_FOUND = -1;
+	public static final String EXTRA_LAYOUTS_PROPERTY = "virtualpiano.keyboardLayouts";
+
+	// factory
+	private static KeyboardLayout[] keyboardLayouts;
+
+	private String name;
+	private int[] keyNos; // indexed by key code
+
+	/**
+	 * Initializes the factory: loads the KeyboardLayout instances that can be
+	 * identified with an int id, followed by the extra layouts.
+	 */
+	public static void initFactory() {
+		List<KeyboardLayout> layouts = new ArrayList<KeyboardLayout>();
+		layouts.add(new KeyboardLayout("QWERTY", Utilities.getResourceURL("resources/layouts/qwerty.txt")));
+		layouts.add(new KeyboardLayout("AZERTY", Utilities.getResourceURL("resources/layouts/azerty.txt")));
+		layouts.add(new KeyboardLayout("Dvorak", Utilities.getResourceURL("resources/layouts/dvorak.txt")));
+		layouts.add(new KeyboardLayout("QWERTY full", Utilities.getResourceURL("resources/layouts/qwerty-full.txt")));
+
+		String extra = System.getProperty(KeyboardLayout.EXTRA_LAYOUTS_PROPERTY);
+		if (extra != null) {
+			for (String fileName: extra.split(File.pathSeparator)) {
+				if (fileName.trim().isEmpty()) continue;
+				File file = new File(fileName.trim());
+				try {
+					layouts.add(new KeyboardLayout(file.getName(), file.toURI().toURL()));
+				} catch (MalformedURLException e) {
+					ErrorHandler.display("File " + fileName + " is missing");
+				}
+			}
+		}
+
+		keyboardLayouts = layouts.toArray(new KeyboardLayout[layouts.size()]);
+	}
+
+	/**
+	 * Returns the KeyboardLayout corresponding to the specified id.
+	 * @param id
+	 * @return the KeyboardLayout
+	 */
+	public static KeyboardLayout getInstance(int id) {
+		if (keyboardLayouts == null)
+			initFactory();
+
+		// assumed no array index error
+		return KeyboardLayout.keyboardLayouts[id];
+	}
+
+	/**
+	 * Returns the number of available layouts (the ids are 0..count-1).
+	 * @return the number of layouts
+	 */
+	public static int getCount() {
+		if (keyboardLayouts == null)
+			initFactory();
+
+		return KeyboardLayout.keyboardLayouts.length;
+	}
+
+	/**
+	 * Constructs a KeyboardLayout.  Loads the layout file readily.  On error,
+	 * the layout is left empty (or partial).
+	 * @param name the name to display
+	 * @param url the URL of the layout file
+	 */
+	private KeyboardLayout(String name, URL url) {
+		this.name = name;
+		this.keyNos = new int[0];
+
+		if (url == null) {
+			ErrorHandler.display("Keyboard layout " + name + " is missing");
+			return;
+		}
+
+		try {
+			BufferedReader in = new BufferedReader(new InputStreamReader(url.openStream()));
+			String line;
+			while ((line = in.readLine()) != null) {
+				line = line.trim();
+				if (line.isEmpty() || line.startsWith("#"))
+					continue;
+
+				String[] parts = line.split("\\s+");
+				int keyCode = (parts.length == 2) ? toKeyCode(parts[0]) : KeyboardLayout.KEY_NOT_FOUND;
+				if (keyCode == KeyboardLayout.KEY_NOT_FOUND) {
+					ErrorHandler.display("Keyboard layout " + name + " is corrupted: " + line);
+					continue;
+				}
+				put(keyCode, Integer.parseInt(parts[1]));
+			}
+			in.close();
+
+		} catch (IOException e) {
+			ErrorHandler.display("Cannot read keyboard layout " + name);
+		} catch (NumberFormatException e) {
+			ErrorHandler.display("Keyboard layout " + name + " is corrupted");
+		}
+	}
+
+	/**
+	 * Returns the key code of the KeyEvent.VK_ constant with the given name.
+	 * @param keyName the name without VK_
+	 * @return the key code, or KEY_NOT_FOUND
+	 */
+	private static int toKeyCode(String keyName) {
+		try {
+			return KeyEvent.class.getField("VK_" + keyName).getInt(null);
+		} catch (NoSuchFieldException e) {
+			return KeyboardLayout.KEY_NOT_FOUND;
+		} catch (IllegalAccessException e) {
+			return KeyboardLayout.KEY_NOT_FOUND;
+		}
+	}
+
+	/**
+	 * Maps the key code to the key number.  Grows the table if needed.
+	 * @param keyCode
+	 * @param keyNo
+	 */
+	private void put(int keyCode, int keyNo) {
+		if (keyCode >= keyNos.length) {
+			int oldLength = keyNos.length;
+			keyNos = Arrays.copyOf(keyNos, keyCode + 1);
+			Arrays.fill(keyNos, oldLength, keyNos.length, KeyboardLayout.KEY_NOT_FOUND);
+		}
+		keyNos[keyCode] = keyNo;
+	}
+
+	/**
+	 * Returns the key number of the key code.
+	 * @param keyCode a KeyEvent key code
+	 * @return the key number, or KEY_NOT_FOUND if the key is not mapped
+	 */
+	public int getKeyNo(int keyCode) {
+		if (keyCode < 0 || keyCode >= keyNos.length)
+			return KeyboardLayout.KEY_NOT_FOUND;
+
+		return keyNos[keyCode];
+	}
+
+	public String getName() {
+		return name;
+	}
+}
@@ -24,6 +24,8 @@ public class LayoutConstant {
 	public static final int keyLeftOffset = plainKeyWidth + 1;
 	public static final int keyFrameWidth = plainKeyWidth + 2;
 	public static final int keyFrameHeight = plainKeyHeight + 2;
+	public static final int maxPianoWidth = 1400; // keys are narrowed beyond this
+	public static final int minPlainKeyWidth = 8;
 	
 	public static final int pianoKeyLeft = 1;
 	public static final int pianoKeyTop = 1;
@@ -44,10 +46,33 @@ public class LayoutConstant {
 	// octave number
 	public static final int octaveNumberLeft = 560;
 	
+	// keyboard layout name
+	public static final int keyboardLayoutNameLeft = 400;
+	
+	// recording label
+	public static final int recordingLabelLeft = 500;
+	public static final String recordingLabel = "REC";
+	
+	// manuals: "lowestPitch:numKeys[:layerInstrument]" for each manual, top to bottom.
+	// e.g. "48:37" (default), "21:88" (full piano), "0:128" (full MIDI range)
+	public static final String defaultManuals = "48:37";
+	public static final String manualsProperty = "virtualpiano.manuals";
+	public static final int maxManuals = 4;
+	
+	// clicking a key plays it, louder nearer its bottom: "false" to only focus the manual
+	public static final String mousePlayingProperty = "virtualpiano.mousePlaying";
+	
 	// canvas
 	public static final int canvasMinHeight = 350;
 	public static final int buttonRightBottomPadding = 10;
 	
+	// falling notes view above the top manual: "true" to show it
+	public static final String fallingNotesProperty = "virtualpiano.fallingNotes";
+	public static final int fallingNotesHeight = 240;
+	public static final Color fallingNotesBackgroundColor = new Color(0.1f, 0.1f, 0.15f);
+	public static final Color fallingNotePlainColor = new Color(0.4f, 0.7f, 1.0f); // light blue
+	public static final Color fallingNoteChromaticColor = new Color(0.2f, 0.4f, 0.8f); // dark blue
+	
 	// bye dialog
 	public static final String byeTitle = "Bye";
 	public static final String byeMessage = "Bye?";
@@ -55,4 +80,6 @@ public class LayoutConstant {
 	
 	// keys
 	public static final int pedalKey = KeyEvent.VK_SPACE;	
+	public static final int recordKey = KeyEvent.VK_F9;
+	public static final int keyboardLayoutKey = KeyEvent.VK_F2;
 }
@@ -3,35 +3,48 @@ package resource;
 import java.awt.Image;
 import java.io.File;
 import java.io.IOException;
+import java.net.URL;
 
 import javax.sound.midi.InvalidMidiDataException;
 import javax.sound.midi.MidiSystem;
 import javax.sound.midi.Sequence;
 
+import music.ChannelRemapper;
 import music.MusicManager;
+import music.Playlist;
+import music.StreamingMidiFile;
 
 import util.ErrorHandler;
+import util.Log;
 import util.Utilities;
 
 /**
  * Encapsulates a MIDI music.  Contains a factory getter method to get a
- * preinitialized music resource.
+ * music resource.  The MIDI file is parsed on first use, and moved off the
+ * channels reserved for live playing.  A file larger than the stream
+ * threshold is not parsed whole: it is streamed when played, so its memory
+ * stays the same however long it is.
  * 
  * Implements factory pattern.
  * 
  * @author Derianto Kusuma
  *
  */
-public class MusicResource {
+public class MusicResource implements Playlist.Entry {
 
 	// identifier for stored instances
 	public static final int BACKGROUND = 0;
 
+	// files from this size (in bytes) are streamed instead of parsed whole
+	public static final String STREAM_THRESHOLD_PROPERTY = "virtualpiano.streamThreshold";
+	public static final long DEFAULT_STREAM_THRESHOLD = 1024 * 1024;
+
 	// factory
 	private static MusicResource[] musicResources;
 	
 	private String fileName;
 	private Sequence sequence;
+	private boolean isLoaded; // sequence stays null if loading failed
 
 	/**
 	 * Initializes the factory: creates MusicResource instances that can be
@@ -71,15 +84,27 @@ public class MusicResource {
 	}
 	
 	/**
-	 * Constructs an MusicResource.  Loads the sequence readily and stores it.
+	 * Constructs an MusicResource.  The sequence is loaded on first use.
 	 * @param fileName the file name of the MIDI music
 	 */
 	private MusicResource(String fileName) {
 		this.fileName = fileName;
-
+		this.isLoaded = false;
+	}
+	
+	/**
+	 * Loads the sequence and stores it, if not loaded yet.
+	 */
+	private synchronized void load() {
+		if (isLoaded) return;
+		isLoaded = true;
+		
 		// populates the sequence for quick retrieval / playing later
 		try {
 			this.sequence = MidiSystem.getSequence(Utilities.getResourceURL(fileName));
+			String remapped = new ChannelRemapper(MusicManager.getInstance().getReservedChannels()).remap(sequence);
+			if (remapped != null)
+				Log.info("Channels of " + fileName + " remapped: " + remapped);
 		
 		} catch (IOException e) {
 			ErrorHandler.display("File " + fileName + " is missing");
@@ -97,7 +122,8 @@ public class MusicResource {
 	 * Returns the sequence.
 	 * @return the sequence.  May be null.
 	 */
-	public Sequence getSequence() {
+	public synchronized Sequence getSequence() {
+		load();
 		return sequence;
 	}
 	
@@ -110,10 +136,50 @@ public class MusicResource {
 	}
 	
 	/**
-	 * Plays this music.
+	 * Plays this music alone in the Playlist, or streams it if it is
+	 * streamed (see isStreamed).  Replaying it restarts it.
 	 */
 	public void play() {
-		MusicManager.getInstance().play(sequence);
+		if (isStreamed()) {
+			stream();
+		} else {
+			MusicManager.getInstance().getPlaylist().play(this);
+		}
+	}
+	
+	/**
+	 * Returns whether play streams this music: if its file is at least the
+	 * stream threshold (the virtualpiano.streamThreshold property, 1 MB by
+	 * default; 0 streams every music).
+	 * @return true if yes, false otherwise
+	 */
+	public boolean isStreamed() {
+		long threshold = Long.getLong(MusicResource.STREAM_THRESHOLD_PROPERTY, MusicResource.DEFAULT_STREAM_THRESHOLD);
+		URL url = Utilities.getResourceURL(fileName);
+		if (url == null) return false; // reported when loaded
+		
+		try {
+			return url.openConnection().getContentLength() >= threshold;
+		} catch (IOException e) {
+			return false; // reported when loaded
+		}
+	}
+	
+	/**
+	 * Plays this music streamed from the file, without parsing it whole:
+	 * for long or dense music.  Stops the Playlist.
+	 */
+	public void stream() {
+		MusicManager.getInstance().getPlaylist().stop();
+		try {
+			MusicManager.getInstance().play(StreamingMidiFile.open(Utilities.getResourceURL(fileName)));
+		
+		} catch (IOException e) {
+			ErrorHandler.display("File " + fileName + " is missing");
+		
+		} catch (InvalidMidiDataException e) {
+			ErrorHandler.display("File " + fileName + " is corrupted");
+		}
 	}
 	
 }
@@ -0,0 +1,194 @@
+package main;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.awt.event.KeyEvent;
+import java.awt.event.KeyListener;
+import java.awt.event.MouseEvent;
+import java.awt.event.MouseListener;
+
+import music.MusicManager;
+
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import resource.KeyboardLayout;
+
+/**
+ * Tests the state of the keys of a Piano: pressing them with the computer
+ * keyboard and the mouse, lighting them, and moving the octave.  Runs
+ * headless; the notes are played to the MusicManager, which may have no
+ * synthesizer.
+ *
+ * @author Derianto Kusuma
+ *
+ */
+public class PianoTest {
+
+	private Piano piano;
+
+	@BeforeClass
+	public static void setUpClass() {
+		KeyboardLayout.initFactory();
+		MusicManager.init();
+	}
+
+	@Before
+	public void setUp() {
+		piano = new Piano(); // 3 octaves from C4, QWERTY
+	}
+
+	@Test
+	public void testInitialState() {
+		assertEquals(Piano.DEFAULT_NUM_KEYS, piano.getNumKeys());
+		for (int no = 0; no < piano.getNumKeys(); no++) {
+			PianoKey pianoKey = getKey(no);
+			assertFalse(pianoKey.isDown());
+			assertFalse(pianoKey.isLit());
+			assertEquals(Piano.DEFAULT_BASE_PITCH + no, pianoKey.getPitch());
+		}
+	}
+
+	@Test
+	public void testSetDown() {
+		PianoKey pianoKey = getKey(0);
+		pianoKey.setDown(true);
+		assertTrue(pianoKey.isDown());
+		assertSame(PianoKey.COLOR_DOWN_PLAIN, pianoKey.getFillColor());
+
+		pianoKey.setDown(false);
+		assertFalse(pianoKey.isDown());
+		assertSame(PianoKey.COLOR_NORMAL_PLAIN, pianoKey.getFillColor());
+	}
+
+	@Test
+	public void testFillColor() {
+		PianoKey plain = getKey(0); // C
+		PianoKey chromatic = getKey(1); // C#
+		assertFalse(plain.isChromatic());
+		assertTrue(chromatic.isChromatic());
+		assertSame(PianoKey.COLOR_NORMAL_CHROMATIC, chromatic.getFillColor());
+
+		chromatic.setLit(true);
+		assertSame(PianoKey.COLOR_LIT_CHROMATIC, chromatic.getFillColor());
+		chromatic.setDown(true);
+		assertSame("down shows over lit", PianoKey.COLOR_DOWN_CHROMATIC, chromatic.getFillColor());
+		chromatic.setDown(false);
+
+		plain.setLit(true);
+		assertSame(PianoKey.COLOR_LIT_PLAIN, plain.getFillColor());
+		assertNotSame(plain.getFillColor(), chromatic.getFillColor());
+	}
+
+	@Test
+	public void testReset() {
+		for (int no = 0; no < piano.getNumKeys(); no += 5)
+			getKey(no).setDown(true);
+		piano.reset();
+
+		for (int no = 0; no < piano.getNumKeys(); no++)
+			assertFalse(getKey(no).isDown());
+	}
+
+	@Test
+	public void testComputerKeyboard() {
+		pressKey(KeyEvent.VK_Z); // key 0 in QWERTY
+		assertTrue(getKey(0).isDown());
+
+		pressKey(KeyEvent.VK_Z); // a key repeat
+		assertTrue(getKey(0).isDown());
+
+		pressKey(KeyEvent.VK_Q); // key 12
+		assertTrue(getKey(12).isDown());
+
+		releaseKey(KeyEvent.VK_Z);
+		assertFalse(getKey(0).isDown());
+		assertTrue(getKey(12).isDown());
+	}
+
+	@Test
+	public void testUnmappedKeyIgnored() {
+		pressKey(KeyEvent.VK_F12);
+		for (int no = 0; no < piano.getNumKeys(); no++)
+			assertFalse(getKey(no).isDown());
+	}
+
+	@Test
+	public void testTypingOctave() {
+		piano.incTypingOctave();
+		pressKey(KeyEvent.VK_Z);
+		assertFalse(getKey(0).isDown());
+		assertTrue(getKey(12).isDown());
+		releaseKey(KeyEvent.VK_Z);
+
+		piano.decTypingOctave();
+		pressKey(KeyEvent.VK_Z);
+		assertTrue(getKey(0).isDown());
+	}
+
+	@Test
+	public void testOctave() {
+		piano.incOctave();
+		assertEquals(Piano.DEFAULT_BASE_PITCH + 12, piano.getBasePitch());
+		assertEquals(Piano.DEFAULT_BASE_PITCH + 12, getKey(0).getPitch());
+
+		piano.decOctave();
+		piano.decOctave();
+		assertEquals(Piano.DEFAULT_BASE_PITCH - 12, piano.getBasePitch());
+	}
+
+	@Test
+	public void testOctaveStaysInRange() {
+		Piano top = new Piano(Piano.MAX_PITCH - 12, 13, MusicManager.SYNTH_CHANNEL_NO);
+		top.incOctave();
+		assertEquals(Piano.MAX_PITCH - 12, top.getBasePitch());
+
+		Piano bottom = new Piano(Piano.MIN_PITCH, 13, MusicManager.SYNTH_CHANNEL_NO);
+		bottom.decOctave();
+		assertEquals(Piano.MIN_PITCH, bottom.getBasePitch());
+	}
+
+	@Test
+	public void testMouse() {
+		int no = 4; // E: a plain key, its bottom not under a chromatic key
+		KeyGeometry geometry = piano.getKeyGeometry();
+		int x = geometry.getLeft(no) + geometry.getWidth(no) / 2;
+		int y = geometry.getTop(no) + geometry.getHeight(no) - 2;
+		assertEquals(no, geometry.getKeyNoAt(x, y));
+
+		for (MouseListener listener: piano.getMouseListeners())
+			listener.mousePressed(createMouseEvent(MouseEvent.MOUSE_PRESSED, x, y));
+		assertTrue(getKey(no).isDown());
+
+		for (MouseListener listener: piano.getMouseListeners())
+			listener.mouseReleased(createMouseEvent(MouseEvent.MOUSE_RELEASED, x, y));
+		assertFalse(getKey(no).isDown());
+	}
+
+	private PianoKey getKey(int no) {
+		return piano.getPianoKey(no);
+	}
+
+	private void pressKey(int keyCode) {
+		KeyEvent e = new KeyEvent(piano, KeyEvent.KEY_PRESSED, System.currentTimeMillis(), 0, keyCode,
+				KeyEvent.CHAR_UNDEFINED);
+		for (KeyListener listener: piano.getKeyListeners())
+			listener.keyPressed(e);
+	}
+
+	private void releaseKey(int keyCode) {
+		KeyEvent e = new KeyEvent(piano, KeyEvent.KEY_RELEASED, System.currentTimeMillis(), 0, keyCode,
+				KeyEvent.CHAR_UNDEFINED);
+		for (KeyListener listener: piano.getKeyListeners())
+			listener.keyReleased(e);
+	}
+
+	private MouseEvent createMouseEvent(int id, int x, int y) {
+		return new MouseEvent(piano, id, System.currentTimeMillis(), 0, x, y, 1, false, MouseEvent.BUTTON1);
+	}
+}
@@ -0,0 +1,204 @@
+package main.thread;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+/**
+ * Tests the order the Scheduler runs its events in, and cancelling them.
+ *
+ * @author Derianto Kusuma
+ *
+ */
+public class SchedulerTest {
+
+	private static final long TIMEOUT_SECONDS = 5;
+
+	@Test
+	public void testRunsByDeadline() throws InterruptedException {
+		final List<Integer> order = Collections.synchronizedList(new ArrayList<Integer>());
+		final CountDownLatch done = new CountDownLatch(3);
+		Scheduler scheduler = Scheduler.getInstance();
+		int[] delays = { 60, 20, 40 };
+		for (final int delay: delays) {
+			scheduler.schedule(new TimedEvent(new Runnable() {
+				public void run() {
+					order.add(delay);
+					done.countDown();
+				}
+			}, delay));
+		}
+
+		assertTrue(done.await(SchedulerTest.TIMEOUT_SECONDS, TimeUnit.SECONDS));
+		assertEquals(20, (int) order.get(0));
+		assertEquals(40, (int) order.get(1));
+		assertEquals(60, (int) order.get(2));
+	}
+
+	@Test
+	public void testOneShotRunsOnce() throws InterruptedException {
+		final AtomicInteger numRuns = new AtomicInteger();
+		ScheduledTask task = Scheduler.getInstance().schedule(new TimedEvent(new Runnable() {
+			public void run() {
+				numRuns.incrementAndGet();
+			}
+		}, 1));
+
+		Thread.sleep(100);
+		assertEquals(1, numRuns.get());
+		assertFalse(task.isPeriodic());
+	}
+
+	@Test
+	public void testRepeats() throws InterruptedException {
+		final CountDownLatch runs = new CountDownLatch(3);
+		ScheduledTask task = Scheduler.getInstance().scheduleRepeating(new TimedEvent(new Runnable() {
+			public void run() {
+				runs.countDown();
+			}
+		}, 5));
+
+		assertTrue(runs.await(SchedulerTest.TIMEOUT_SECONDS, TimeUnit.SECONDS));
+		assertTrue(task.isPeriodic());
+		task.cancel();
+	}
+
+	@Test
+	public void testCancelBeforeRun() throws InterruptedException {
+		final AtomicBoolean hasRun = new AtomicBoolean();
+		ScheduledTask task = Scheduler.getInstance().schedule(new TimedEvent(new Runnable() {
+			public void run() {
+				hasRun.set(true);
+			}
+		}, 50));
+		task.cancel();
+
+		Thread.sleep(150);
+		assertTrue(task.isCancelled());
+		assertFalse(hasRun.get());
+	}
+
+	@Test
+	public void testCancelStopsRepeating() throws InterruptedException {
+		final AtomicInteger numRuns = new AtomicInteger();
+		ScheduledTask task = Scheduler.getInstance().scheduleRepeating(new TimedEvent(new Runnable() {
+			public void run() {
+				numRuns.incrementAndGet();
+			}
+		}, 2));
+
+		Thread.sleep(50);
+		task.cancel();
+		int numRunsAtCancel = numRuns.get();
+		Thread.sleep(50);
+		assertEquals(numRunsAtCancel, numRuns.get());
+	}
+
+	@Test
+	public void testCancelWaitsForRun() throws InterruptedException {
+		final CountDownLatch started = new CountDownLatch(1);
+		final AtomicBoolean isFinished = new AtomicBoolean();
+		ScheduledTask task = Scheduler.getInstance().schedule(new TimedEvent(new Runnable() {
+			public void run() {
+				started.countDown();
+				try {
+					Thread.sleep(100);
+				} catch (InterruptedException e) {
+					// ends early
+				}
+				isFinished.set(true);
+			}
+		}, 1));
+
+		assertTrue(started.await(SchedulerTest.TIMEOUT_SECONDS, TimeUnit.SECONDS));
+		task.cancel();
+		assertTrue("cancel returns after the run", isFinished.get());
+	}
+
+	@Test
+	public void testScheduleDoesNotWaitForRun() throws InterruptedException {
+		final CountDownLatch started = new CountDownLatch(1);
+		final CountDownLatch release = new CountDownLatch(1);
+		ScheduledTask task = Scheduler.getInstance().schedule(new TimedEvent(new Runnable() {
+			public void run() {
+				started.countDown();
+				try {
+					release.await();
+				} catch (InterruptedException e) {
+					// ends early
+				}
+			}
+		}, 1));
+		assertTrue(started.await(SchedulerTest.TIMEOUT_SECONDS, TimeUnit.SECONDS));
+
+		// the lock is not held while the event runs
+		long start = System.nanoTime();
+		ScheduledTask other = Scheduler.getInstance().schedule(new TimedEvent(new Runnable() {
+			public void run() {
+			}
+		}, 1000));
+		long millis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+		release.countDown();
+		other.cancel();
+		task.cancel();
+
+		assertTrue("scheduling took " + millis + " ms", millis < 500);
+	}
+
+	@Test
+	public void testFailingEvent() throws InterruptedException {
+		final CountDownLatch failed = new CountDownLatch(1);
+		ScheduledTask failing = Scheduler.getInstance().scheduleRepeating(new TimedEvent(new Runnable() {
+			public void run() {
+				failed.countDown();
+				throw new AssertionError("failing on purpose");
+			}
+		}, 5));
+		assertTrue(failed.await(SchedulerTest.TIMEOUT_SECONDS, TimeUnit.SECONDS));
+		failing.cancel(); // must not wait forever
+
+		// the other events still run
+		final CountDownLatch ran = new CountDownLatch(1);
+		Scheduler.getInstance().schedule(new TimedEvent(new Runnable() {
+			public void run() {
+				ran.countDown();
+			}
+		}, 1));
+		assertTrue(ran.await(SchedulerTest.TIMEOUT_SECONDS, TimeUnit.SECONDS));
+	}
+
+	@Test
+	public void testCancelItself() throws InterruptedException {
+		final CountDownLatch ran = new CountDownLatch(1);
+		final ScheduledTask[] task = new ScheduledTask[1];
+		final CountDownLatch scheduled = new CountDownLatch(1);
+		final AtomicInteger numRuns = new AtomicInteger();
+		task[0] = Scheduler.getInstance().scheduleRepeating(new TimedEvent(new Runnable() {
+			public void run() {
+				try {
+					scheduled.await();
+				} catch (InterruptedException e) {
+					return;
+				}
+				numRuns.incrementAndGet();
+				task[0].cancel(); // must not wait for itself
+				ran.countDown();
+			}
+		}, 5));
+		scheduled.countDown();
+
+		assertTrue(ran.await(SchedulerTest.TIMEOUT_SECONDS, TimeUnit.SECONDS));
+		Thread.sleep(50);
+		assertEquals(1, numRuns.get());
+	}
+}
@@ -1,22 +1,309 @@
 package util;
 
+import java.awt.GraphicsEnvironment;
+import java.beans.PropertyChangeEvent;
+import java.beans.PropertyChangeListener;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+import javax.swing.JDialog;
 import javax.swing.JOptionPane;
+import javax.swing.SwingUtilities;
 
 /**
  * Contains functions to handle errors.
+ *
+ * Errors are reported asynchronously: display only puts the message in a
+ * queue and returns, and the Error Handler Thread passes it on to the sinks
+ * (stderr, a log file, a non-modal dialog, an overlay banner...).  So
+ * reporting an error never blocks, whatever the Thread.
+ *
+ * The same message repeated within DEDUP_MILLIS is reported only once; the
+ * repeats are counted and the count is reported with the next occurrence of
+ * the message.  At most MAX_REPORTS_PER_SECOND messages are reported per
+ * second; the others wait for the next seconds.
+ *
+ * Default sinks: stderr always; a dialog unless headless (java.awt.headless
+ * or virtualpiano.headless is true); a log file if virtualpiano.errorLog is
+ * set to its file name.
+ *
  * @author Derianto Kusuma
  *
  */
 public class ErrorHandler {
-	
+
+	public static final String HEADLESS_PROPERTY = "virtualpiano.headless";
+	public static final String LOG_FILE_PROPERTY = "virtualpiano.errorLog";
+
+	public static final int QUEUE_CAPACITY = 256;
+	public static final long DEDUP_MILLIS = 5000;
+	public static final int MAX_REPORTS_PER_SECOND = 5;
+
+	private static final List<Sink> sinks = new CopyOnWriteArrayList<Sink>();
+	private static final BlockingQueue<String> queue = new ArrayBlockingQueue<String>(ErrorHandler.QUEUE_CAPACITY);
+	private static final Dispatcher dispatcher = new Dispatcher();
+
+	static {
+		sinks.add(new StderrSink());
+		if (!isHeadless())
+			sinks.add(new DialogSink());
+		String logFile = System.getProperty(ErrorHandler.LOG_FILE_PROPERTY);
+		if (logFile != null)
+			sinks.add(new FileSink(logFile));
+
+		dispatcher.start();
+
+		// reports what is still queued when the program exits
+		Runtime.getRuntime().addShutdownHook(new Thread() {
+			@Override
+			public void run() {
+				String message;
+				while ((message = queue.poll()) != null)
+					dispatcher.dispatch(message);
+				dispatcher.dispatchDeferred(true);
+			}
+		});
+	}
+
+	/**
+	 * Receives the reported errors.  Called from the Error Handler Thread.
+	 */
+	public interface Sink {
+		/**
+		 * Reports an error.
+		 * @param message
+		 * @param numSuppressed the number of times the message was suppressed
+		 * since it was last reported
+		 */
+		void report(String message, int numSuppressed);
+	}
+
 	/**
 	 * Displays an error message.  This is the simplest way to notify the
 	 * user of an error, regardless of where the error occurs.
-	 * Not very robust.
+	 * Returns immediately; if too many errors are waiting, the message is
+	 * dropped.
 	 * @param message the message to display
 	 */
 	public static void display(String message) {
-		JOptionPane.showMessageDialog(null, message, "Error", JOptionPane.ERROR_MESSAGE);
+		queue.offer(message);
+	}
+
+	/**
+	 * Returns whether there is no screen to display dialogs on.
+	 * @return true if yes, false otherwise
+	 */
+	public static boolean isHeadless() {
+		return Boolean.getBoolean(ErrorHandler.HEADLESS_PROPERTY) || GraphicsEnvironment.isHeadless();
+	}
+
+	/**
+	 * Registers a sink.  It receives the errors reported from now on.
+	 * @param sink
+	 */
+	public static void addSink(Sink sink) {
+		sinks.add(sink);
+	}
+
+	/**
+	 * Removes a sink.
+	 * @param sink
+	 */
+	public static void removeSink(Sink sink) {
+		sinks.remove(sink);
+	}
+
+	/**
+	 * Removes the sinks of the specified class, e.g. the DialogSink when
+	 * another sink shows the errors on screen.
+	 * @param sinkClass
+	 */
+	public static void removeSinks(Class<? extends Sink> sinkClass) {
+		for (Sink sink: sinks) {
+			if (sinkClass.isInstance(sink))
+				sinks.remove(sink);
+		}
+	}
+
+	/*########################################################################
+	 *  D I S P A T C H E R
+	 *########################################################################*/
+
+	/**
+	 * The Thread that takes the errors from the queue, filters the repeated
+	 * ones and passes the rest to the sinks.
+	 */
+	private static class Dispatcher extends Thread {
+
+		private static final long POLL_MILLIS = 100;
+
+		// guarded by this
+		private Map<String, Long> lastReported = new HashMap<String, Long>();
+		private Map<String, Integer> numSuppressed = new HashMap<String, Integer>();
+		private Map<String, Integer> deferred = new LinkedHashMap<String, Integer>(); // over the rate limit
+		private long secondStart = 0;
+		private int numReportsInSecond = 0;
+
+		public Dispatcher() {
+			setName("Error Handler Thread"); // for bookkeeping
+			setDaemon(true);
+		}
+
+		@Override
+		public void run() {
+			while (true) {
+				try {
+					String message = queue.poll(Dispatcher.POLL_MILLIS, TimeUnit.MILLISECONDS);
+					if (message != null)
+						dispatch(message);
+					dispatchDeferred(false);
+				} catch (InterruptedException e) {
+					return; // interruption is normal
+				}
+			}
+		}
+
+		/**
+		 * Passes the message to the sinks, unless it is a repeat (counted) or
+		 * over the rate limit (deferred).  Synchronized for the shutdown hook.
+		 */
+		public synchronized void dispatch(String message) {
+			long now = System.currentTimeMillis();
+			Long last = lastReported.get(message);
+			if (last != null && now - last < ErrorHandler.DEDUP_MILLIS) {
+				increment(numSuppressed, message);
+			} else if (deferred.containsKey(message) || !isUnderRateLimit(now)) {
+				increment(deferred, message);
+			} else {
+				report(message, now);
+			}
+		}
+
+		/**
+		 * Reports the deferred messages that are now under the rate limit.
+		 * @param isAll true to report them all anyway (e.g. on exit)
+		 */
+		public synchronized void dispatchDeferred(boolean isAll) {
+			long now = System.currentTimeMillis();
+			Iterator<Map.Entry<String, Integer>> iterator = deferred.entrySet().iterator();
+			while (iterator.hasNext() && (isAll || isUnderRateLimit(now))) {
+				Map.Entry<String, Integer> entry = iterator.next();
+				iterator.remove();
+
+				// the first occurrence is reported, the rest counted as repeats
+				numSuppressed.put(entry.getKey(), entry.getValue() - 1 + getCount(numSuppressed, entry.getKey()));
+				report(entry.getKey(), now);
+			}
+		}
+
+		private boolean isUnderRateLimit(long now) {
+			if (now - secondStart >= 1000) {
+				secondStart = now;
+				numReportsInSecond = 0;
+			}
+			return numReportsInSecond < ErrorHandler.MAX_REPORTS_PER_SECOND;
+		}
+
+		private void report(String message, long now) {
+			Integer count = numSuppressed.remove(message);
+			lastReported.put(message, now);
+			numReportsInSecond++;
+			for (Sink sink: sinks) {
+				try {
+					sink.report(message, (count == null) ? 0 : count);
+				} catch (RuntimeException e) {
+					// a broken sink must not stop the others
+					Log.error("Error sink failed: " + e);
+				}
+			}
+		}
+
+		private static void increment(Map<String, Integer> counts, String message) {
+			counts.put(message, getCount(counts, message) + 1);
+		}
+
+		private static int getCount(Map<String, Integer> counts, String message) {
+			Integer count = counts.get(message);
+			return (count == null) ? 0 : count;
+		}
+	}
+
+	/**
+	 * Returns the message with the suppressed count, if any.
+	 * @param message
+	 * @param numSuppressed
+	 * @return the text to show
+	 */
+	public static String format(String message, int numSuppressed) {
+		return (numSuppressed > 0) ? message + " (repeated " + numSuppressed + " more times)" : message;
+	}
+
+	/*########################################################################
+	 *  S I N K S
+	 *########################################################################*/
+
+	/**
+	 * Prints the errors to stderr.
+	 */
+	public static class StderrSink implements Sink {
+		public void report(String message, int numSuppressed) {
+			Log.error("Error: " + ErrorHandler.format(message, numSuppressed));
+		}
+	}
+
+	/**
+	 * Appends the errors to a file, with the time.
+	 */
+	public static class FileSink implements Sink {
+		private String fileName;
+		private SimpleDateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
+
+		public FileSink(String fileName) {
+			this.fileName = fileName;
+		}
+
+		public void report(String message, int numSuppressed) {
+			try {
+				PrintWriter out = new PrintWriter(new FileWriter(fileName, true));
+				out.println(dateFormat.format(new Date()) + " " + ErrorHandler.format(message, numSuppressed));
+				out.close();
+			} catch (IOException e) {
+				Log.error("Cannot write to " + fileName);
+			}
+		}
+	}
+
+	/**
+	 * Shows the errors in non-modal dialogs, so nothing waits for the user.
+	 */
+	public static class DialogSink implements Sink {
+		public void report(final String message, final int numSuppressed) {
+			SwingUtilities.invokeLater(new Runnable() {
+				public void run() {
+					JOptionPane pane = new JOptionPane(ErrorHandler.format(message, numSuppressed),
+							JOptionPane.ERROR_MESSAGE);
+					final JDialog dialog = pane.createDialog(null, "Error");
+					dialog.setModal(false);
+					pane.addPropertyChangeListener(JOptionPane.VALUE_PROPERTY, new PropertyChangeListener() {
+						public void propertyChange(PropertyChangeEvent e) {
+							dialog.dispose(); // closed by the user
+						}
+					});
+					dialog.setVisible(true);
+				}
+			});
+		}
 	}
-	
 }
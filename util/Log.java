@@ -0,0 +1,267 @@
+package util;
+
+import java.io.PrintStream;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A leveled logging facade, cheap enough to leave trace points in the hot
+ * paths (paint, timer ticks, note dispatch).
+ *
+ * - The level is read once from the system property virtualpiano.logLevel
+ *   (TRACE, DEBUG, INFO, WARN, ERROR or OFF; INFO by default) into static
+ *   final fields, so a disabled check is folded away by the JIT.
+ * - A message is only built if its level is enabled: pass a format and its
+ *   arguments (primitive overloads don't box), or a Message whose get is only
+ *   called when needed.  In the hottest paths, guard the call with e.g.
+ *   Log.IS_TRACE so not even the arguments are evaluated.
+ * - With the system property virtualpiano.logAsync=true, messages are put in
+ *   a ring buffer and printed by a background Thread, so the caller never
+ *   waits for the console.  When the buffer is full, messages are dropped
+ *   (and counted) rather than blocking.
+ *
+ * TRACE and DEBUG messages are printed with the time since the start and the
+ * Thread name.  INFO goes to System.out and WARN / ERROR to System.err as is.
+ *
+ * @author Derianto Kusuma
+ *
+ */
+public class Log {
+
+	public static final int TRACE = 0;
+	public static final int DEBUG = 1;
+	public static final int INFO = 2;
+	public static final int WARN = 3;
+	public static final int ERROR = 4;
+	public static final int OFF = 5;
+
+	private static final String[] LEVEL_NAMES = {"TRACE", "DEBUG", "INFO", "WARN", "ERROR", "OFF"};
+
+	public static final String LEVEL_PROPERTY = "virtualpiano.logLevel";
+	public static final String ASYNC_PROPERTY = "virtualpiano.logAsync";
+	public static final int ASYNC_CAPACITY = 4096;
+
+	public static final int LEVEL = parseLevel(System.getProperty(Log.LEVEL_PROPERTY));
+	public static final boolean IS_TRACE = Log.LEVEL <= Log.TRACE;
+	public static final boolean IS_DEBUG = Log.LEVEL <= Log.DEBUG;
+	public static final boolean IS_INFO = Log.LEVEL <= Log.INFO;
+
+	private static final long START_NANOS = System.nanoTime();
+	private static final AsyncSink asyncSink = Boolean.getBoolean(Log.ASYNC_PROPERTY) ?
+			new AsyncSink(Log.ASYNC_CAPACITY) : null;
+
+	/**
+	 * A message built only when it is logged.
+	 */
+	public interface Message {
+		String get();
+	}
+
+	private Log() {
+		// static only
+	}
+
+	/**
+	 * Returns the level with the given name.
+	 * @param name e.g. "DEBUG", or null
+	 * @return the level, INFO if the name is null or unknown
+	 */
+	private static int parseLevel(String name) {
+		if (name != null) {
+			for (int level = 0; level < Log.LEVEL_NAMES.length; level++) {
+				if (Log.LEVEL_NAMES[level].equalsIgnoreCase(name.trim()))
+					return level;
+			}
+		}
+		return Log.INFO;
+	}
+
+	public static boolean isEnabled(int level) {
+		return level >= Log.LEVEL;
+	}
+
+	/*########################################################################
+	 *  L O G G I N G
+	 *########################################################################*/
+
+	public static void trace(String message) {
+		if (Log.IS_TRACE) write(Log.TRACE, message);
+	}
+
+	public static void trace(Message message) {
+		if (Log.IS_TRACE) write(Log.TRACE, message.get());
+	}
+
+	public static void trace(String format, long arg) {
+		if (Log.IS_TRACE) write(Log.TRACE, String.format(format, arg));
+	}
+
+	public static void trace(String format, double arg) {
+		if (Log.IS_TRACE) write(Log.TRACE, String.format(format, arg));
+	}
+
+	public static void trace(String format, Object arg) {
+		if (Log.IS_TRACE) write(Log.TRACE, String.format(format, arg));
+	}
+
+	public static void trace(String format, long arg1, long arg2) {
+		if (Log.IS_TRACE) write(Log.TRACE, String.format(format, arg1, arg2));
+	}
+
+	public static void debug(String message) {
+		if (Log.IS_DEBUG) write(Log.DEBUG, message);
+	}
+
+	public static void debug(Message message) {
+		if (Log.IS_DEBUG) write(Log.DEBUG, message.get());
+	}
+
+	public static void debug(String format, long arg) {
+		if (Log.IS_DEBUG) write(Log.DEBUG, String.format(format, arg));
+	}
+
+	public static void debug(String format, Object arg) {
+		if (Log.IS_DEBUG) write(Log.DEBUG, String.format(format, arg));
+	}
+
+	public static void debug(String format, Object arg1, Object arg2) {
+		if (Log.IS_DEBUG) write(Log.DEBUG, String.format(format, arg1, arg2));
+	}
+
+	public static void info(String message) {
+		if (Log.IS_INFO) write(Log.INFO, message);
+	}
+
+	public static void info(Message message) {
+		if (Log.IS_INFO) write(Log.INFO, message.get());
+	}
+
+	public static void warn(String message) {
+		if (isEnabled(Log.WARN)) write(Log.WARN, message);
+	}
+
+	public static void error(String message) {
+		if (isEnabled(Log.ERROR)) write(Log.ERROR, message);
+	}
+
+	/**
+	 * Returns the number of messages dropped because the async buffer was
+	 * full.
+	 * @return the count, 0 if not async
+	 */
+	public static long getNumDropped() {
+		return (asyncSink != null) ? asyncSink.getNumDropped() : 0;
+	}
+
+	/**
+	 * Sends an enabled message to the sink.
+	 */
+	private static void write(int level, String message) {
+		long nanos = System.nanoTime();
+		if (asyncSink != null) {
+			asyncSink.offer(level, nanos, Thread.currentThread().getName(), message);
+		} else {
+			print(level, nanos, Thread.currentThread().getName(), message);
+		}
+	}
+
+	/**
+	 * Prints a message to the console.
+	 */
+	private static void print(int level, long nanos, String threadName, String message) {
+		PrintStream out = (level >= Log.WARN) ? System.err : System.out;
+		if (level <= Log.DEBUG) {
+			out.printf("%9.3f ms [%s] %s: %s%n", (nanos - Log.START_NANOS) / 1e6,
+					threadName, Log.LEVEL_NAMES[level], message);
+		} else {
+			out.println(message);
+		}
+	}
+
+	/**
+	 * The ring buffer of messages waiting to be printed, with its printing
+	 * Thread.  Offering only takes a short lock, never waits for the console.
+	 */
+	private static class AsyncSink extends Thread {
+
+		private static final long FLUSH_NANOS = TimeUnit.MILLISECONDS.toNanos(20);
+
+		private final int[] levels;
+		private final long[] times;
+		private final String[] threadNames;
+		private final String[] messages;
+		private int head = 0; // next to print
+		private int count = 0;
+		private long numDropped = 0;
+
+		public AsyncSink(int capacity) {
+			levels = new int[capacity];
+			times = new long[capacity];
+			threadNames = new String[capacity];
+			messages = new String[capacity];
+
+			setName("Log Thread"); // for bookkeeping
+			setDaemon(true);
+			setPriority(Thread.MIN_PRIORITY);
+			start();
+
+			// print what is left when the program exits
+			Runtime.getRuntime().addShutdownHook(new Thread() {
+				@Override
+				public void run() {
+					flush();
+				}
+			});
+		}
+
+		public synchronized void offer(int level, long nanos, String threadName, String message) {
+			if (count == messages.length) {
+				numDropped++;
+				return;
+			}
+			int i = (head + count) % messages.length;
+			levels[i] = level;
+			times[i] = nanos;
+			threadNames[i] = threadName;
+			messages[i] = message;
+			count++;
+		}
+
+		public synchronized long getNumDropped() {
+			return numDropped;
+		}
+
+		@Override
+		public void run() {
+			while (true) {
+				LockSupport.parkNanos(AsyncSink.FLUSH_NANOS);
+				flush();
+			}
+		}
+
+		/**
+		 * Prints all the buffered messages.  The lock is only held to take a
+		 * message out, not while printing.
+		 */
+		private void flush() {
+			while (true) {
+				int level;
+				long nanos;
+				String threadName;
+				String message;
+				synchronized (this) {
+					if (count == 0) return;
+					level = levels[head];
+					nanos = times[head];
+					threadName = threadNames[head];
+					message = messages[head];
+					threadNames[head] = null;
+					messages[head] = null; // for GC
+					head = (head + 1) % messages.length;
+					count--;
+				}
+				print(level, nanos, threadName, message);
+			}
+		}
+	}
+}
@@ -51,22 +51,24 @@ public class Utilities {
 	
 	/**
 	 * Unified system for printing debugging messages, which can be enabled and disabled as need be.
+	 * Logged at Log.INFO.
 	 * 
 	 * @param message The message to print out.
 	 */
 	public static void trace(String message)
 	{
-		System.out.println(message);
+		Log.info(message);
 	}
 	
 	/**
 	 * Unified system for printing error messages, which can be enabled and disabled as need be.
+	 * Logged at Log.ERROR.
 	 * 
 	 * @param message The message to print out.
 	 */
 	public static void traceErr(String message)
 	{
-		System.err.println(message);
+		Log.error(message);
 	}
 	
 	/**
@@ -77,14 +79,10 @@ public class Utilities {
 	 * @return the URL
 	 */
 	public static URL getResourceURL(String fileName) {
-		Utilities.trace("fileName filtered = " + "/" + fileName.replace('\\', '/'));
-		Utilities.trace("URL on Utilities = " + Utilities.class.getResource("/" + fileName.replace('\\', '/')));
-		
-		// wow this works
-		//Utilities.trace("Obvious URL on Utilities = " + Utilities.class.getResource("Utilities.java"));
-		//Utilities.trace("Wrong package URL on Utilities = " + Utilities.class.getResource("util/Utilities.class"));
-		
 		// / <- absolute.  go from the base (no directory)
-		return Utilities.class.getResource("/" + fileName.replace('\\', '/'));
+		URL url = Utilities.class.getResource("/" + fileName.replace('\\', '/'));
+		Log.debug("Resource %s = %s", fileName, url);
+		
+		return url;
 	}
 }